@@ -0,0 +1,311 @@
+package com.nicky.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.lwjgl.glfw.GLFW.glfwGetCurrentContext;
+import static org.lwjgl.opengl.GL11.glDeleteTextures;
+import static org.lwjgl.opengl.GL11.glGenTextures;
+import static org.lwjgl.opengl.GL15.glDeleteBuffers;
+import static org.lwjgl.opengl.GL15.glGenBuffers;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
+import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+import static org.lwjgl.system.MemoryUtil.nmemAllocChecked;
+import static org.lwjgl.system.MemoryUtil.nmemFree;
+
+/**
+ * <h1>GL Resources</h1>
+ * Registry of the OpenGL objects and Nuklear buffers alive in the application.
+ * Every vertex array, buffer, program, shader and texture is created and deleted through it, and owners report
+ * the bytes they store in them, so the number of live handles and their size can be shown while the viewer runs.
+ * GL handles are only unique within a context, so they are registered with the context current when created.
+ * On shutdown every handle still registered is a leak. With tracing enabled the stack trace of each allocation
+ * is kept and logged with the leak, tracing is off by default as it costs a stack walk per allocation.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public final class GLResources {
+
+    private static final Logger LOGGER = Logger.getLogger(GLResources.class.getName());
+
+    public enum Type {
+        VERTEX_ARRAY("VAO"), BUFFER("VBO"), PROGRAM("program"), SHADER("shader"), TEXTURE("texture"),
+        NUKLEAR("Nuklear buffer");
+
+        private final String label;
+
+        Type(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final Map<Handle, Allocation> LIVE = new HashMap<>();
+    private static final int[] COUNTS = new int[Type.values().length];
+    private static final long[] CREATED = new long[Type.values().length];
+    private static final long[] BYTES = new long[Type.values().length];
+    private static boolean tracing;
+
+    private GLResources() {
+    }
+
+    /**
+     * @param enabled Record the stack trace of every allocation, logged with it if it leaks
+     */
+    public static synchronized void setTracing(boolean enabled) {
+        tracing = enabled;
+    }
+
+    public static synchronized boolean isTracing() {
+        return tracing;
+    }
+
+    public static int genVertexArray() {
+        int id = glGenVertexArrays();
+        register(Type.VERTEX_ARRAY, glfwGetCurrentContext(), id, 0);
+        return id;
+    }
+
+    public static void deleteVertexArray(int id) {
+        release(Type.VERTEX_ARRAY, glfwGetCurrentContext(), id);
+        glDeleteVertexArrays(id);
+    }
+
+    public static int genBuffer() {
+        int id = glGenBuffers();
+        register(Type.BUFFER, glfwGetCurrentContext(), id, 0);
+        return id;
+    }
+
+    public static void deleteBuffer(int id) {
+        release(Type.BUFFER, glfwGetCurrentContext(), id);
+        glDeleteBuffers(id);
+    }
+
+    public static int createProgram() {
+        int id = glCreateProgram();
+        if (id != 0) {
+            register(Type.PROGRAM, glfwGetCurrentContext(), id, 0);
+        }
+        return id;
+    }
+
+    public static void deleteProgram(int id) {
+        release(Type.PROGRAM, glfwGetCurrentContext(), id);
+        glDeleteProgram(id);
+    }
+
+    /**
+     * @param shaderType Type of shader, such as GL_VERTEX_SHADER
+     */
+    public static int createShader(int shaderType) {
+        int id = glCreateShader(shaderType);
+        if (id != 0) {
+            register(Type.SHADER, glfwGetCurrentContext(), id, 0);
+        }
+        return id;
+    }
+
+    public static void deleteShader(int id) {
+        release(Type.SHADER, glfwGetCurrentContext(), id);
+        glDeleteShader(id);
+    }
+
+    public static int genTexture() {
+        int id = glGenTextures();
+        register(Type.TEXTURE, glfwGetCurrentContext(), id, 0);
+        return id;
+    }
+
+    public static void deleteTexture(int id) {
+        release(Type.TEXTURE, glfwGetCurrentContext(), id);
+        glDeleteTextures(id);
+    }
+
+    /**
+     * Report the storage of a buffer or texture, called by its owner whenever it is reallocated
+     * @param type Type of the object
+     * @param id Handle of the object in the current context
+     * @param bytes Bytes now allocated for the object
+     */
+    public static void resize(Type type, int id, long bytes) {
+        resize(type, glfwGetCurrentContext(), id, bytes);
+    }
+
+    /**
+     * Allocate memory for Nuklear, used by its allocator
+     * @param bytes Size of the allocation
+     * @return long Returns the address of the memory.
+     */
+    public static long allocate(long bytes) {
+        long address = nmemAllocChecked(bytes);
+        register(Type.NUKLEAR, 0, address, bytes);
+        return address;
+    }
+
+    /**
+     * Free memory allocated with {@link #allocate}
+     * @param address Address of the memory, may be null
+     */
+    public static void free(long address) {
+        if (address != 0) {
+            release(Type.NUKLEAR, 0, address);
+            nmemFree(address);
+        }
+    }
+
+    /**
+     * @return int Number of live objects of a type
+     */
+    public static synchronized int getCount(Type type) {
+        return COUNTS[type.ordinal()];
+    }
+
+    /**
+     * @return long Number of objects of a type created since start up, including deleted ones
+     */
+    public static synchronized long getCreated(Type type) {
+        return CREATED[type.ordinal()];
+    }
+
+    /**
+     * @return long Bytes reported for the live objects of a type
+     */
+    public static synchronized long getBytes(Type type) {
+        return BYTES[type.ordinal()];
+    }
+
+    /**
+     * @return long Bytes reported for all live objects on the graphics card, Nuklear buffers excluded
+     */
+    public static synchronized long getGraphicsBytes() {
+        long total = 0;
+        for (Type type : Type.values()) {
+            if (type != Type.NUKLEAR) {
+                total += BYTES[type.ordinal()];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Log every object still registered, called on shutdown once all owners released their objects
+     * @return int Returns the number of leaked objects.
+     */
+    public static synchronized int checkLeaks() {
+        if (LIVE.isEmpty()) {
+            LOGGER.info("All GL resources released: " + describeCreated());
+            return 0;
+        }
+
+        List<Map.Entry<Handle, Allocation>> leaks = new ArrayList<>(LIVE.entrySet());
+        StringBuilder counts = new StringBuilder();
+        for (Type type : Type.values()) {
+            if (COUNTS[type.ordinal()] > 0) {
+                counts.append(counts.length() == 0 ? "" : ", ").append(COUNTS[type.ordinal()]).append(' ')
+                        .append(type.getLabel());
+            }
+        }
+        LOGGER.warning(leaks.size() + " GL resources leaked: " + counts
+                + (tracing ? "" : ", set gl_resource_tracing=true to log where they were allocated"));
+        for (Map.Entry<Handle, Allocation> leak : leaks) {
+            Handle handle = leak.getKey();
+            String message = "Leaked " + handle.type.getLabel() + " " + handle.id + " (" + leak.getValue().bytes
+                    + " bytes)";
+            if (leak.getValue().site != null) {
+                LOGGER.log(Level.WARNING, message, leak.getValue().site);
+            } else {
+                LOGGER.warning(message);
+            }
+        }
+        return leaks.size();
+    }
+
+    private static String describeCreated() {
+        StringBuilder sb = new StringBuilder();
+        for (Type type : Type.values()) {
+            sb.append(sb.length() == 0 ? "" : ", ").append(CREATED[type.ordinal()]).append(' ')
+                    .append(type.getLabel());
+        }
+        return sb.append(" created").toString();
+    }
+
+    private static synchronized void register(Type type, long context, long id, long bytes) {
+        Allocation previous = LIVE.put(new Handle(type, context, id),
+                new Allocation(bytes, tracing ? new Throwable("Allocation site") : null));
+        if (previous != null) {
+            // The driver reused a handle registered as live, it was deleted behind the registry's back
+            LOGGER.warning("GL " + type.getLabel() + " " + id + " created twice");
+            BYTES[type.ordinal()] -= previous.bytes;
+        } else {
+            COUNTS[type.ordinal()]++;
+        }
+        CREATED[type.ordinal()]++;
+        BYTES[type.ordinal()] += bytes;
+    }
+
+    private static synchronized void release(Type type, long context, long id) {
+        Allocation allocation = LIVE.remove(new Handle(type, context, id));
+        if (allocation == null) {
+            LOGGER.warning("GL " + type.getLabel() + " " + id + " released but not registered");
+            return;
+        }
+        COUNTS[type.ordinal()]--;
+        BYTES[type.ordinal()] -= allocation.bytes;
+    }
+
+    private static synchronized void resize(Type type, long context, long id, long bytes) {
+        Allocation allocation = LIVE.get(new Handle(type, context, id));
+        if (allocation != null) {
+            BYTES[type.ordinal()] += bytes - allocation.bytes;
+            allocation.bytes = bytes;
+        }
+    }
+
+    // A handle is only unique within its type and context
+    private static final class Handle {
+        private final Type type;
+        private final long context;
+        private final long id;
+
+        private Handle(Type type, long context, long id) {
+            this.type = type;
+            this.context = context;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Handle)) {
+                return false;
+            }
+            Handle other = (Handle) o;
+            return type == other.type && context == other.context && id == other.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return (type.hashCode() * 31 + Long.hashCode(context)) * 31 + Long.hashCode(id);
+        }
+    }
+
+    private static final class Allocation {
+        private long bytes;
+        private final Throwable site;
+
+        private Allocation(long bytes, Throwable site) {
+            this.bytes = bytes;
+            this.site = site;
+        }
+    }
+}
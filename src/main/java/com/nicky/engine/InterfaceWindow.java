@@ -34,7 +34,6 @@ import static org.lwjgl.opengl.GL14.glBlendEquation;
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.glBindVertexArray;
-import static org.lwjgl.opengl.GL30.glGenVertexArrays;
 import static org.lwjgl.stb.STBTruetype.*;
 import static org.lwjgl.system.MemoryStack.stackPush;
 import static org.lwjgl.system.MemoryUtil.*;
@@ -57,8 +56,8 @@ public class InterfaceWindow {
 
     static {
         ALLOCATOR = NkAllocator.create();
-        ALLOCATOR.alloc((handle, old, size) -> nmemAllocChecked(size));
-        ALLOCATOR.mfree((handle, ptr) -> nmemFree(ptr));
+        ALLOCATOR.alloc((handle, old, size) -> GLResources.allocate(size));
+        ALLOCATOR.mfree((handle, ptr) -> GLResources.free(ptr));
 
         VERTEX_LAYOUT = NkDrawVertexLayoutElement.create(4)
                 .position(0).attribute(NK_VERTEX_POSITION).format(NK_FORMAT_FLOAT).offset(0)
@@ -176,7 +175,7 @@ public class InterfaceWindow {
         int BITMAP_H = 1024;
 
         int FONT_HEIGHT = 18;
-        int fontTexID = glGenTextures();
+        int fontTexID = GLResources.genTexture();
 
         STBTTFontinfo fontInfo = STBTTFontinfo.create();
         STBTTPackedchar.Buffer cdata = STBTTPackedchar.create(95);
@@ -209,6 +208,7 @@ public class InterfaceWindow {
 
             glBindTexture(GL_TEXTURE_2D, fontTexID);
             glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, BITMAP_W, BITMAP_H, 0, GL_RGBA, GL_UNSIGNED_INT_8_8_8_8_REV, texture);
+            GLResources.resize(GLResources.Type.TEXTURE, fontTexID, BITMAP_W * BITMAP_H * 4);
             glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
             glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
 
@@ -331,9 +331,9 @@ public class InterfaceWindow {
                         "}\n";
 
         nk_buffer_init(cmds, ALLOCATOR, BUFFER_INITIAL_SIZE);
-        prog = glCreateProgram();
-        vert_shdr = glCreateShader(GL_VERTEX_SHADER);
-        frag_shdr = glCreateShader(GL_FRAGMENT_SHADER);
+        prog = GLResources.createProgram();
+        vert_shdr = GLResources.createShader(GL_VERTEX_SHADER);
+        frag_shdr = GLResources.createShader(GL_FRAGMENT_SHADER);
         glShaderSource(vert_shdr, vertex_shader);
         glShaderSource(frag_shdr, fragment_shader);
         glCompileShader(vert_shdr);
@@ -359,9 +359,9 @@ public class InterfaceWindow {
 
         {
             // buffer setup
-            vbo = glGenBuffers();
-            ebo = glGenBuffers();
-            vao = glGenVertexArrays();
+            vbo = GLResources.genBuffer();
+            ebo = GLResources.genBuffer();
+            vao = GLResources.genVertexArray();
 
             glBindVertexArray(vao);
             glBindBuffer(GL_ARRAY_BUFFER, vbo);
@@ -378,7 +378,7 @@ public class InterfaceWindow {
 
         {
             // null texture setup
-            int nullTexID = glGenTextures();
+            int nullTexID = GLResources.genTexture();
 
             null_texture.texture().id(nullTexID);
             null_texture.uv().set(0.5f, 0.5f);
@@ -387,6 +387,7 @@ public class InterfaceWindow {
             try (MemoryStack stack = stackPush()) {
                 glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, 1, 1, 0, GL_RGBA, GL_UNSIGNED_INT_8_8_8_8_REV, stack.ints(0xFFFFFFFF));
             }
+            GLResources.resize(GLResources.Type.TEXTURE, nullTexID, 4);
             glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
             glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
         }
@@ -586,6 +587,8 @@ public class InterfaceWindow {
 
             glBufferData(GL_ARRAY_BUFFER, max_vertex_buffer, GL_STREAM_DRAW);
             glBufferData(GL_ELEMENT_ARRAY_BUFFER, max_element_buffer, GL_STREAM_DRAW);
+            GLResources.resize(GLResources.Type.BUFFER, vbo, max_vertex_buffer);
+            GLResources.resize(GLResources.Type.BUFFER, ebo, max_element_buffer);
 
             // load draw vertices & elements directly into vertex + element buffer
             ByteBuffer vertices = Objects.requireNonNull(glMapBuffer(GL_ARRAY_BUFFER, GL_WRITE_ONLY, max_vertex_buffer, null));
@@ -649,13 +652,14 @@ public class InterfaceWindow {
     private void destroyInterface() {
         glDetachShader(prog, vert_shdr);
         glDetachShader(prog, frag_shdr);
-        glDeleteShader(vert_shdr);
-        glDeleteShader(frag_shdr);
-        glDeleteProgram(prog);
-        glDeleteTextures(default_font.texture().id());
-        glDeleteTextures(null_texture.texture().id());
-        glDeleteBuffers(vbo);
-        glDeleteBuffers(ebo);
+        GLResources.deleteShader(vert_shdr);
+        GLResources.deleteShader(frag_shdr);
+        GLResources.deleteProgram(prog);
+        GLResources.deleteTexture(default_font.texture().id());
+        GLResources.deleteTexture(null_texture.texture().id());
+        GLResources.deleteBuffer(vbo);
+        GLResources.deleteBuffer(ebo);
+        GLResources.deleteVertexArray(vao);
         nk_buffer_free(cmds);
     }
 
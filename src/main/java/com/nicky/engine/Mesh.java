@@ -1,22 +1,21 @@
 package com.nicky.engine;
 
-import org.lwjgl.system.MemoryUtil;
-
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import org.joml.Vector3f;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.glBindVertexArray;
-import static org.lwjgl.opengl.GL30.glGenVertexArrays;
-import static org.lwjgl.system.MemoryUtil.memFree;
 
 /**
  * <h1>Mesh</h1>
  * Given an array of positions & indices, creates VBO and VAO needed to load the model into graphics card.
+ * A mesh can be updated in place: its vertex buffers keep a capacity which only grows, each update orphans the
+ * buffer storage and copies the new data into it, so the VAO and VBOs are created once per mesh.
+ * Vertices are laid out as described by the mesh's {@link VertexFormat}. Indices are not owned by the mesh, it
+ * references the shared index buffer of its topology in the {@link TopologyCache}, so an update with the same
+ * topology only uploads vertex attributes. Buffers are created through {@link GLResources}, which is told
+ * whenever their capacity changes.
  *
  * @author Nicky Buttigieg
  * @version 1.0
@@ -24,79 +23,168 @@ import static org.lwjgl.system.MemoryUtil.memFree;
  */
 public class Mesh {
 
+    private final VertexFormat format;
     private final int vaoID;
-    private final List<Integer> vboIDList; // list to store VBO IDs
-    private final int vertexCount;
+    private final int positionVboID; // holds both attributes when the format is interleaved
+    private final int colourVboID;
+
+    // Buffer capacities in bytes, grown when an update does not fit
+    private long positionCapacity;
+    private long colourCapacity;
+
+    // Index arrays are shared and never modified, the topology is only looked up when the array changes
+    private int[] indices;
+    private TopologyCache.Topology topology;
+    private int drawMode;
+
+    // Interleaved vertices encoded on this thread, and the mapping of quantised positions
+    private int[] vertexData;
+    private final Vector3f positionOffset;
+    private final Vector3f positionScale;
 
     public Mesh(float[] positions, int[] indices, float[] colours) {
+        this(positions, indices, colours, GL_TRIANGLES);
+    }
 
-        // Create buffer in off-heap memory so that it's accessible by OpenGL library
-        FloatBuffer positionBuffer = null;
-        IntBuffer indicesBuffer = null;
-        FloatBuffer colourBuffer = null;
-
-        try {
-            vboIDList = new ArrayList<>();
-            vertexCount = indices.length;
-
-            // Create VAO and bind it
-            vaoID = glGenVertexArrays();
-            glBindVertexArray(vaoID);
-
-            // Create Position VBO, bind it and put positions into it
-            int posVboID = glGenBuffers();
-            vboIDList.add(posVboID);
-            positionBuffer = MemoryUtil.memAllocFloat(positions.length);
-            // Reset position of the buffer to the 0 position with flip()
-            positionBuffer.put(positions).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, posVboID);
-            glBufferData(GL_ARRAY_BUFFER, positionBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0); //coordinates in location 0
+    /**
+     * @param drawMode Primitive the indices describe, such as GL_TRIANGLES or GL_POINTS
+     */
+    public Mesh(float[] positions, int[] indices, float[] colours, int drawMode) {
+        this(positions, indices, colours, drawMode, VertexFormat.FLOAT);
+    }
 
-            // Create Index VBO and put indices in it
-            int indexVboID = glGenBuffers();
-            vboIDList.add(indexVboID);
-            indicesBuffer = MemoryUtil.memAllocInt(indices.length);
-            indicesBuffer.put(indices).flip();
-            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVboID);
-            glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
-            // Define structure of our data and store it in an attribute list in VAO
-            /*
-             * index: location where shader expects this data
-             * size: number of components per vertex attribute
-             * type: type of each component
-             * normalised: if value should be normalised
-             * stride: byte offset between consecutive generic vertex attributes
-             * pointer: offset to the first component in the buffer
-             */
+    /**
+     * @param format Layout of the vertices on the graphics card
+     */
+    public Mesh(float[] positions, int[] indices, float[] colours, int drawMode, VertexFormat format) {
+        this.format = format;
+        vertexData = new int[0];
+        positionOffset = new Vector3f(0);
+        positionScale = new Vector3f(1);
+
+        // Create VAO and bind it
+        vaoID = GLResources.genVertexArray();
+        glBindVertexArray(vaoID);
+
+        // Define structure of our data and store it in an attribute list in VAO
+        /*
+         * index: location where shader expects this data
+         * size: number of components per vertex attribute
+         * type: type of each component
+         * normalised: if value should be normalised
+         * stride: byte offset between consecutive generic vertex attributes
+         * pointer: offset to the first component in the buffer
+         */
+        positionVboID = GLResources.genBuffer();
+        glBindBuffer(GL_ARRAY_BUFFER, positionVboID);
+        if (format.isInterleaved()) {
+            format.setAttributes();
+            colourVboID = 0;
+        } else {
             glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0); //coordinates in location 0
 
-            // Create Colour VBO and put colours in it
-            int colourVboID = glGenBuffers();
-            vboIDList.add(colourVboID);
-            colourBuffer = MemoryUtil.memAllocFloat(colours.length);
-            colourBuffer.put(colours).flip();
+            colourVboID = GLResources.genBuffer();
             glBindBuffer(GL_ARRAY_BUFFER, colourVboID);
-            glBufferData(GL_ARRAY_BUFFER, colourBuffer, GL_STATIC_DRAW);
             glVertexAttribPointer(1, 3, GL_FLOAT, false, 0, 0); //colour in location 1
+        }
 
-            // Unbind VBO
-            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        // Unbind VBO
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
 
-            // Unbind VAO
-            glBindVertexArray(0);
-        } finally {
-            // Free off-heap memory allocated by FloatBuffer & IntBuffer
-            if (positionBuffer != null) {
-                memFree(positionBuffer);
-            }
-            if (indicesBuffer != null) {
-                memFree(indicesBuffer);
-            }
-            if (colourBuffer != null) {
-                memFree(colourBuffer);
+        // Unbind VAO
+        glBindVertexArray(0);
+
+        update(positions, indices, colours, drawMode);
+    }
+
+    /**
+     * Replace the contents of the mesh, reusing its buffers. Interleaved formats are encoded on the calling thread.
+     * @param positions Vertex positions (x,y,z)
+     * @param indices Indices of the primitives, must not be modified once given to the mesh
+     * @param colours Vertex colours (r,g,b)
+     * @param drawMode Primitive the indices describe, such as GL_TRIANGLES or GL_POINTS
+     */
+    public void update(float[] positions, int[] indices, float[] colours, int drawMode) {
+        if (format.isInterleaved()) {
+            if (vertexData.length != positions.length / 3 * format.getWords()) {
+                vertexData = new int[positions.length / 3 * format.getWords()];
             }
+            format.encode(positions, colours, vertexData, positionOffset, positionScale);
+            update(vertexData, positionOffset, positionScale, indices, drawMode);
+            return;
         }
+
+        glBindVertexArray(vaoID);
+        positionCapacity = upload(positionVboID, positions, positionCapacity);
+        colourCapacity = upload(colourVboID, colours, colourCapacity);
+        updateIndices(indices);
+        this.drawMode = drawMode;
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindVertexArray(0);
+    }
+
+    /**
+     * Replace the contents of the mesh with vertices already encoded in its interleaved format
+     * @param vertexData Encoded vertices, see {@link VertexFormat#encode}
+     * @param positionOffset Offset of the decoded positions
+     * @param positionScale Scale of the decoded positions
+     * @param indices Indices of the primitives, must not be modified once given to the mesh
+     * @param drawMode Primitive the indices describe, such as GL_TRIANGLES or GL_POINTS
+     */
+    public void update(int[] vertexData, Vector3f positionOffset, Vector3f positionScale, int[] indices,
+                       int drawMode) {
+        this.positionOffset.set(positionOffset);
+        this.positionScale.set(positionScale);
+
+        glBindVertexArray(vaoID);
+        glBindBuffer(GL_ARRAY_BUFFER, positionVboID);
+        positionCapacity = reserve(GL_ARRAY_BUFFER, positionVboID, (long) vertexData.length * Integer.BYTES,
+                positionCapacity);
+        if (vertexData.length > 0) {
+            glBufferSubData(GL_ARRAY_BUFFER, 0, vertexData);
+        }
+        updateIndices(indices);
+        this.drawMode = drawMode;
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindVertexArray(0);
+    }
+
+    /**
+     * Replace only the positions of the mesh, keeping its colours and indices
+     * @param positions Vertex positions (x,y,z), as many vertices as the mesh holds
+     */
+    public void updatePositions(float[] positions) {
+        requireSeparate();
+        positionCapacity = upload(positionVboID, positions, positionCapacity);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Replace only the colours of the mesh, keeping its positions and indices
+     * @param colours Vertex colours (r,g,b), as many vertices as the mesh holds
+     */
+    public void updateColours(float[] colours) {
+        requireSeparate();
+        colourCapacity = upload(colourVboID, colours, colourCapacity);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    public VertexFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return Vector3f Offset the shader adds to decoded positions, zero unless positions are quantised
+     */
+    public Vector3f getPositionOffset() {
+        return positionOffset;
+    }
+
+    /**
+     * @return Vector3f Scale the shader applies to decoded positions, one unless positions are quantised
+     */
+    public Vector3f getPositionScale() {
+        return positionScale;
     }
 
     public int getVaoID() {
@@ -104,7 +192,7 @@ public class Mesh {
     }
 
     public int getVertexCount() {
-        return vertexCount;
+        return topology.getCount();
     }
 
     public void render() {
@@ -122,7 +210,7 @@ public class Mesh {
          * type: type of value in indices data
          * indices: offset to apply to indices data to start rendering
          */
-        glDrawElements(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0);
+        glDrawElements(drawMode, getVertexCount(), topology.getType(), 0);
 
         // Restore state
         glDisableVertexAttribArray(0);
@@ -135,11 +223,54 @@ public class Mesh {
 
         // Delete VBO & VAO
         glBindBuffer(GL_ARRAY_BUFFER, 0);
-        for (int vboID : vboIDList) {
-            glDeleteBuffers(vboID);
+        GLResources.deleteBuffer(positionVboID);
+        if (colourVboID != 0) {
+            GLResources.deleteBuffer(colourVboID);
         }
 
         glBindVertexArray(0);
-        glDeleteBuffers(vaoID);
+        GLResources.deleteVertexArray(vaoID);
+        TopologyCache.release(topology);
+        topology = null;
+    }
+
+    // Attributes can only be replaced on their own when they do not share a buffer
+    private void requireSeparate() {
+        if (format.isInterleaved()) {
+            throw new IllegalStateException("Attributes of " + format + " meshes are interleaved");
+        }
+    }
+
+    // Reference the index buffer of a topology when the indices changed, the VAO records it while bound
+    private void updateIndices(int[] indices) {
+        if (indices == this.indices) {
+            return;
+        }
+
+        TopologyCache.Topology previous = topology;
+        topology = TopologyCache.acquire(indices);
+        TopologyCache.release(previous);
+        this.indices = indices;
+    }
+
+    // Copy float vertex data into a buffer and return its capacity
+    private static long upload(int vboID, float[] data, long capacity) {
+        glBindBuffer(GL_ARRAY_BUFFER, vboID);
+        capacity = reserve(GL_ARRAY_BUFFER, vboID, (long) data.length * Float.BYTES, capacity);
+        if (data.length > 0) {
+            glBufferSubData(GL_ARRAY_BUFFER, 0, data);
+        }
+        return capacity;
+    }
+
+    // Grow the bound buffer if needed, by half again so a lobe whose size creeps up does not reallocate every
+    // time, otherwise orphan its storage so the driver does not wait for draws still reading it
+    private static long reserve(int target, int vboID, long bytes, long capacity) {
+        if (bytes > capacity) {
+            capacity = Math.max(bytes, capacity + capacity / 2);
+            GLResources.resize(GLResources.Type.BUFFER, vboID, capacity);
+        }
+        glBufferData(target, capacity, GL_DYNAMIC_DRAW);
+        return capacity;
     }
 }
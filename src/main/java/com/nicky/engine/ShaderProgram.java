@@ -1,6 +1,7 @@
 package com.nicky.engine;
 
 import org.joml.Matrix4f;
+import org.joml.Vector3f;
 import org.lwjgl.system.MemoryStack;
 
 import java.nio.FloatBuffer;
@@ -11,7 +12,7 @@ import static org.lwjgl.opengl.GL20.*;
 
 /**
  * <h1>Shader Program</h1>
- * Manages fragment and vertex shaders
+ * Manages fragment and vertex shaders, created and deleted through {@link GLResources}
  *
  * @author Nicky Buttigieg
  * @version 1.0
@@ -26,7 +27,7 @@ public class ShaderProgram {
 
     // Creates new OpenGL program
     public ShaderProgram() throws Exception {
-        programID = glCreateProgram();
+        programID = GLResources.createProgram();
 
         if (programID == 0) {
             throw new Exception("Could not create Shader");
@@ -44,7 +45,7 @@ public class ShaderProgram {
     }
 
     protected int createShader(String shaderCode, int shaderType) throws Exception {
-        int shaderID = glCreateShader(shaderType);
+        int shaderID = GLResources.createShader(shaderType);
 
         if (shaderID == 0) {
             throw new Exception("Error creating shader. Type: " + shaderType);
@@ -114,10 +115,23 @@ public class ShaderProgram {
         }
     }
 
+    public void setUniform(String uniformName, Vector3f value) {
+        glUniform3f(uniforms.get(uniformName), value.x, value.y, value.z);
+    }
+
     public void cleanup() {
         unbind();
+        // Shaders are detached once linked, deleting them frees them
+        if (vertexShaderID != 0) {
+            GLResources.deleteShader(vertexShaderID);
+            vertexShaderID = 0;
+        }
+        if (fragmentShaderID != 0) {
+            GLResources.deleteShader(fragmentShaderID);
+            fragmentShaderID = 0;
+        }
         if (programID != 0) {
-            glDeleteProgram(programID);
+            GLResources.deleteProgram(programID);
         }
     }
 }
@@ -0,0 +1,226 @@
+package com.nicky.engine;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL15.*;
+
+/**
+ * <h1>Topology Cache</h1>
+ * Shares index buffers between meshes with identical topology.
+ * The topology of a lobe only depends on its resolution and every rectangle is the same quad, so one element
+ * buffer is uploaded per distinct index array and referenced by every mesh using it. Index arrays are compared by
+ * content, they must not be modified once given to the cache. A topology is reference counted; once no mesh uses
+ * it, it is kept among a few idle topologies, so switching back to a recent resolution does not upload it again.
+ * Buffers belong to the viewer's context, the cache must only be used with it current. The calls to GL go through
+ * {@link Buffers}, which tests replace so the cache can be exercised without a context.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public final class TopologyCache {
+
+    private static final int MAX_IDLE = 4;
+    private static final int MAX_SHORT_INDEX = 65535;
+
+    private static final Map<Key, Topology> TOPOLOGIES = new HashMap<>();
+    private static final ArrayDeque<Topology> IDLE = new ArrayDeque<>();
+
+    private static Buffers buffers = new GLBuffers();
+
+    private TopologyCache() {
+    }
+
+    /**
+     * Element buffers on the graphics card
+     */
+    interface Buffers {
+
+        /**
+         * Upload indices to a new element buffer and leave it bound
+         * @param indices Indices of the primitives
+         * @param shortIndices Store the indices as 16-bit values
+         * @return int Returns the ID of the buffer.
+         */
+        int upload(int[] indices, boolean shortIndices);
+
+        void bind(int vboID);
+
+        void delete(int vboID);
+    }
+
+    /**
+     * Shared element buffer holding an index array, as 16-bit values if every index fits in them
+     */
+    static final class Topology {
+        private final Key key;
+        private final int vboID;
+        private final int count;
+        private final int type;
+        private int references;
+
+        private Topology(Key key, int vboID, int count, int type) {
+            this.key = key;
+            this.vboID = vboID;
+            this.count = count;
+            this.type = type;
+        }
+
+        int getVboID() {
+            return vboID;
+        }
+
+        /**
+         * @return int Number of indices
+         */
+        int getCount() {
+            return count;
+        }
+
+        /**
+         * @return int Type of the indices, GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+         */
+        int getType() {
+            return type;
+        }
+    }
+
+    /**
+     * Reference the topology of an index array, uploading it if no mesh uses it yet.
+     * Its buffer is left bound to GL_ELEMENT_ARRAY_BUFFER, so the caller must have its own VAO bound.
+     * @param indices Indices of the primitives
+     * @return Topology Returns the shared topology, to be released with {@link #release}.
+     */
+    static synchronized Topology acquire(int[] indices) {
+        Key key = new Key(indices);
+        Topology topology = TOPOLOGIES.get(key);
+        if (topology == null) {
+            topology = upload(key);
+            TOPOLOGIES.put(key, topology);
+        } else {
+            buffers.bind(topology.vboID);
+            if (topology.references == 0) {
+                IDLE.remove(topology);
+            }
+        }
+        topology.references++;
+        return topology;
+    }
+
+    /**
+     * Drop a reference to a topology, its buffer is deleted once it is no longer used nor among the idle ones
+     * @param topology Topology returned by {@link #acquire}, may be null
+     */
+    static synchronized void release(Topology topology) {
+        if (topology == null || --topology.references > 0) {
+            return;
+        }
+        IDLE.addLast(topology);
+        if (IDLE.size() > MAX_IDLE) {
+            delete(IDLE.removeFirst());
+        }
+    }
+
+    /**
+     * @return int Number of distinct topologies on the graphics card, idle ones included
+     */
+    public static synchronized int getSize() {
+        return TOPOLOGIES.size();
+    }
+
+    /**
+     * Delete the idle topologies, called on shutdown once the meshes are cleaned up
+     */
+    public static synchronized void cleanup() {
+        while (!IDLE.isEmpty()) {
+            delete(IDLE.removeFirst());
+        }
+    }
+
+    /**
+     * Replace the element buffers, used by tests with no GL context
+     * @param replacement Buffers used from now on
+     * @return Buffers Returns the buffers used until now.
+     */
+    static synchronized Buffers setBuffers(Buffers replacement) {
+        Buffers previous = buffers;
+        buffers = replacement;
+        return previous;
+    }
+
+    private static Topology upload(Key key) {
+        int[] indices = key.indices;
+        int max = 0;
+        for (int index : indices) {
+            max = Math.max(max, index);
+        }
+
+        boolean shortIndices = max <= MAX_SHORT_INDEX;
+        int vboID = buffers.upload(indices, shortIndices);
+        return new Topology(key, vboID, indices.length, shortIndices ? GL_UNSIGNED_SHORT : GL_UNSIGNED_INT);
+    }
+
+    private static void delete(Topology topology) {
+        TOPOLOGIES.remove(topology.key);
+        buffers.delete(topology.vboID);
+    }
+
+    // Element buffers of the current context, tracked by GLResources
+    private static final class GLBuffers implements Buffers {
+
+        @Override
+        public int upload(int[] indices, boolean shortIndices) {
+            int vboID = GLResources.genBuffer();
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboID);
+            if (shortIndices) {
+                short[] values = new short[indices.length];
+                for (int i = 0; i < indices.length; i++) {
+                    values[i] = (short) indices[i];
+                }
+                glBufferData(GL_ELEMENT_ARRAY_BUFFER, values, GL_STATIC_DRAW);
+                GLResources.resize(GLResources.Type.BUFFER, vboID, (long) values.length * Short.BYTES);
+            } else {
+                glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+                GLResources.resize(GLResources.Type.BUFFER, vboID, (long) indices.length * Integer.BYTES);
+            }
+            return vboID;
+        }
+
+        @Override
+        public void bind(int vboID) {
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboID);
+        }
+
+        @Override
+        public void delete(int vboID) {
+            GLResources.deleteBuffer(vboID);
+        }
+    }
+
+    // Index array compared by content, its hash computed once
+    private static final class Key {
+        private final int[] indices;
+        private final int hash;
+
+        private Key(int[] indices) {
+            this.indices = indices;
+            hash = Arrays.hashCode(indices);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && (((Key) o).indices == indices
+                    || ((Key) o).hash == hash && Arrays.equals(((Key) o).indices, indices));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
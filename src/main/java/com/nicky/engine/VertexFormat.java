@@ -0,0 +1,205 @@
+package com.nicky.engine;
+
+import com.nicky.resources.HalfFloat;
+import org.joml.Vector3f;
+
+import java.nio.ByteOrder;
+
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.GL_HALF_FLOAT;
+
+/**
+ * <h1>Vertex Format</h1>
+ * Describes how the positions and colours of a mesh are laid out on the graphics card.
+ * The default format keeps separate float buffers. The other formats interleave both attributes in one buffer,
+ * with colours as half floats or normalised bytes, and positions as floats or as 16-bit values quantised
+ * within the bounding box of the mesh. The shader maps positions back with a per-mesh offset and scale.
+ * Vertices are encoded into 32-bit words, so the encoding can run off the render thread and be uploaded as is.
+ * Every attribute starts on a 4-byte boundary.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public final class VertexFormat {
+
+    public static final VertexFormat FLOAT = new VertexFormat("float", false, false, Colours.FLOAT);
+    public static final VertexFormat INTERLEAVED = new VertexFormat("interleaved", true, false, Colours.FLOAT);
+    public static final VertexFormat HALF = new VertexFormat("half", true, false, Colours.HALF);
+    public static final VertexFormat COMPACT = new VertexFormat("compact", true, true, Colours.UNORM8);
+
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    private enum Colours {
+        FLOAT(12), HALF(8), UNORM8(4);
+
+        private final int bytes;
+
+        Colours(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    private final String name;
+    private final boolean interleaved;
+    private final boolean quantised;
+    private final Colours colourEncoding;
+
+    private VertexFormat(String name, boolean interleaved, boolean quantised, Colours colourEncoding) {
+        this.name = name;
+        this.interleaved = interleaved;
+        this.quantised = quantised;
+        this.colourEncoding = colourEncoding;
+    }
+
+    /**
+     * @param name Name of a format: float, interleaved, half or compact
+     * @return VertexFormat Returns the format, the float format if the name is unknown.
+     */
+    public static VertexFormat parse(String name) {
+        for (VertexFormat format : new VertexFormat[]{INTERLEAVED, HALF, COMPACT}) {
+            if (format.name.equalsIgnoreCase(name.trim())) {
+                return format;
+            }
+        }
+        return FLOAT;
+    }
+
+    /**
+     * @return boolean Returns true if both attributes share one buffer, encoded with {@link #encode}.
+     */
+    public boolean isInterleaved() {
+        return interleaved;
+    }
+
+    public boolean isQuantised() {
+        return quantised;
+    }
+
+    /**
+     * @return int Bytes per vertex on the graphics card
+     */
+    public int getStride() {
+        return getPositionBytes() + colourEncoding.bytes;
+    }
+
+    /**
+     * @return int Number of 32-bit words per encoded vertex
+     */
+    public int getWords() {
+        return getStride() / Integer.BYTES;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Point the position and colour attributes of the bound VAO at the bound interleaved buffer
+     */
+    void setAttributes() {
+        glVertexAttribPointer(0, 3, quantised ? GL_UNSIGNED_SHORT : GL_FLOAT, quantised, getStride(), 0);
+        int colourType = colourEncoding == Colours.FLOAT ? GL_FLOAT
+                : colourEncoding == Colours.HALF ? GL_HALF_FLOAT : GL_UNSIGNED_BYTE;
+        glVertexAttribPointer(1, 3, colourType, colourEncoding == Colours.UNORM8, getStride(), getPositionBytes());
+    }
+
+    /**
+     * Encode vertices into 32-bit words in the layout of this format
+     * @param positions Vertex positions (x,y,z)
+     * @param colours Vertex colours (r,g,b)
+     * @param vertexData Output words, at least {@link #getWords()} per vertex
+     * @param positionOffset Output offset added to decoded positions, the minimum of the bounding box
+     * @param positionScale Output scale of decoded positions, the size of the bounding box
+     */
+    public void encode(float[] positions, float[] colours, int[] vertexData, Vector3f positionOffset,
+                       Vector3f positionScale) {
+        int vertices = positions.length / 3;
+        int words = getWords();
+
+        positionOffset.set(0);
+        positionScale.set(1);
+        float scaleX = 0;
+        float scaleY = 0;
+        float scaleZ = 0;
+        if (quantised && vertices > 0) {
+            // Bounding box of the mesh, positions are stored as a fraction of it
+            float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+            float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < positions.length; i += 3) {
+                minX = Math.min(minX, positions[i]);
+                minY = Math.min(minY, positions[i + 1]);
+                minZ = Math.min(minZ, positions[i + 2]);
+                maxX = Math.max(maxX, positions[i]);
+                maxY = Math.max(maxY, positions[i + 1]);
+                maxZ = Math.max(maxZ, positions[i + 2]);
+            }
+            positionOffset.set(minX, minY, minZ);
+            positionScale.set(maxX - minX, maxY - minY, maxZ - minZ);
+            scaleX = positionScale.x > 0 ? 65535f / positionScale.x : 0;
+            scaleY = positionScale.y > 0 ? 65535f / positionScale.y : 0;
+            scaleZ = positionScale.z > 0 ? 65535f / positionScale.z : 0;
+        }
+
+        for (int v = 0, i = 0, w = 0; v < vertices; v++, i += 3, w += words) {
+            int c = w;
+            if (quantised) {
+                vertexData[c++] = pack(quantise(positions[i] - positionOffset.x, scaleX),
+                        quantise(positions[i + 1] - positionOffset.y, scaleY));
+                vertexData[c++] = pack(quantise(positions[i + 2] - positionOffset.z, scaleZ), 0);
+            } else {
+                vertexData[c++] = Float.floatToRawIntBits(positions[i]);
+                vertexData[c++] = Float.floatToRawIntBits(positions[i + 1]);
+                vertexData[c++] = Float.floatToRawIntBits(positions[i + 2]);
+            }
+
+            switch (colourEncoding) {
+                case FLOAT:
+                    vertexData[c++] = Float.floatToRawIntBits(colours[i]);
+                    vertexData[c++] = Float.floatToRawIntBits(colours[i + 1]);
+                    vertexData[c] = Float.floatToRawIntBits(colours[i + 2]);
+                    break;
+                case HALF:
+                    vertexData[c++] = pack(HalfFloat.toHalf(colours[i]) & 0xffff,
+                            HalfFloat.toHalf(colours[i + 1]) & 0xffff);
+                    vertexData[c] = pack(HalfFloat.toHalf(colours[i + 2]) & 0xffff, 0);
+                    break;
+                default:
+                    vertexData[c] = packBytes(normalise(colours[i]), normalise(colours[i + 1]),
+                            normalise(colours[i + 2]), 255);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private int getPositionBytes() {
+        // Quantised positions are padded from 6 to 8 bytes to keep the colours aligned
+        return quantised ? 8 : 12;
+    }
+
+    private static int quantise(float value, float scale) {
+        return Math.max(0, Math.min(65535, Math.round(value * scale)));
+    }
+
+    private static int normalise(float value) {
+        return value > 0 ? Math.min(255, Math.round(value * 255)) : 0;
+    }
+
+    // Two 16-bit values, the first one lowest in memory
+    private static int pack(int first, int second) {
+        return LITTLE_ENDIAN ? first | second << 16 : first << 16 | second;
+    }
+
+    // Four bytes, the first one lowest in memory
+    private static int packBytes(int first, int second, int third, int fourth) {
+        return LITTLE_ENDIAN ? first | second << 8 | third << 16 | fourth << 24
+                : first << 24 | second << 16 | third << 8 | fourth;
+    }
+}
@@ -14,6 +14,7 @@ import java.util.Map;
 import static org.lwjgl.glfw.Callbacks.glfwFreeCallbacks;
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.system.MemoryUtil.NULL;
 
 /**
  * <h1>Viewer Engine</h1>
@@ -34,6 +35,7 @@ public class ViewerEngine implements Runnable {
      * Stores the Alias and BRDF instance of all registered BRDFs
      */
     private Map<String, BRDF> registeredBRDFs;
+    private boolean resourcesReleased;
 
     public ViewerEngine(String windowTitle, int width, int height, Viewer viewer) throws Exception {
         // Setup BRDFs
@@ -52,22 +54,15 @@ public class ViewerEngine implements Runnable {
         try {
             init();
             renderLoop();
-
-            // Free viewerWindow callbacks and destroyInterface viewerWindow
-            interfaceWindow.cleanupInterface();
-
-            viewerWindow.getKeyCallback().free();
-            viewerWindow.getFramebufferSizeCallback().free();
-            glfwFreeCallbacks(interfaceWindow.getWindow());
-
-            glfwDestroyWindow(viewerWindow.getWindow());
-            glfwDestroyWindow(interfaceWindow.getWindow());
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
+            releaseResources();
+            destroyWindows();
             glfwTerminate();
-            viewerWindow.getErrorCallback().free();
-            cleanup();
+            if (viewerWindow.getErrorCallback() != null) {
+                viewerWindow.getErrorCallback().free();
+            }
         }
     }
 
@@ -112,6 +107,49 @@ public class ViewerEngine implements Runnable {
         viewer.cleanup();
     }
 
+    /**
+     * Release GL resources while the context that owns them is current, then report leaks.
+     * Runs at most once, also when initialisation or the render loop failed, each step even if an earlier one
+     * failed.
+     */
+    private void releaseResources() {
+        if (resourcesReleased) {
+            return;
+        }
+        resourcesReleased = true;
+
+        try {
+            changeCurrentContext("viewer");
+            cleanup();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        try {
+            changeCurrentContext("interface");
+            interfaceWindow.cleanupInterface();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        GLResources.checkLeaks();
+    }
+
+    // Free window callbacks and destroy both windows, skipping any that were never created
+    private void destroyWindows() {
+        if (viewerWindow.getKeyCallback() != null) {
+            viewerWindow.getKeyCallback().free();
+        }
+        if (viewerWindow.getFramebufferSizeCallback() != null) {
+            viewerWindow.getFramebufferSizeCallback().free();
+        }
+        if (interfaceWindow.getWindow() != NULL) {
+            glfwFreeCallbacks(interfaceWindow.getWindow());
+            glfwDestroyWindow(interfaceWindow.getWindow());
+        }
+        if (viewerWindow.getWindow() != NULL) {
+            glfwDestroyWindow(viewerWindow.getWindow());
+        }
+    }
+
     protected void positionWindows() {
         // Get the thread stack and push a new frame
         try (MemoryStack stack = stackPush()) {
@@ -0,0 +1,75 @@
+package com.nicky.resources;
+
+/**
+ * <h1>Half Float</h1>
+ * Conversions between 32-bit floats and IEEE 754 16-bit half floats, stored in a short.
+ * Used to halve the memory of large float data whose precision does not need more than 11 significant bits.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public final class HalfFloat {
+
+    private static final short NAN = 0x7e00;
+    private static final float SUBNORMAL_STEP = 5.9604645E-8f; // 2^-24
+
+    private HalfFloat() {
+    }
+
+    /**
+     * Convert a float to the nearest half float, values out of range become infinite
+     * @param value Float to convert
+     * @return short Returns the half float bits.
+     */
+    public static short toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int magnitude = bits & 0x7fffffff;
+
+        if (magnitude > 0x7f800000) {
+            return NAN;
+        }
+
+        // Round to nearest by adding half of the dropped mantissa
+        int rounded = magnitude + 0x1000;
+        if (rounded >= 0x47800000) {
+            // Overflow, or already infinite
+            return (short) (sign | 0x7c00);
+        }
+        if (rounded >= 0x38800000) {
+            // Normal half, rebias the exponent from 127 to 15
+            return (short) (sign | ((rounded - 0x38000000) >>> 13));
+        }
+        if (rounded < 0x33000000) {
+            // Too small even for a subnormal half
+            return (short) sign;
+        }
+
+        // Subnormal half
+        int exponent = magnitude >>> 23;
+        int mantissa = (magnitude & 0x7fffff) | 0x800000;
+        return (short) (sign | ((mantissa + (0x800000 >>> (exponent - 102))) >>> (126 - exponent)));
+    }
+
+    /**
+     * Convert a half float to a float, exactly
+     * @param half Half float bits
+     * @return float Returns the value of the half float.
+     */
+    public static float toFloat(short half) {
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+
+        if (exponent == 0) {
+            float value = mantissa * SUBNORMAL_STEP;
+            return sign == 0 ? value : -value;
+        }
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+}
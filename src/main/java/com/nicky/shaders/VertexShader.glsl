@@ -11,8 +11,13 @@ out vec3 exColour; //output colour to fragment shader
 uniform mat4 projectionMatrix;
 uniform mat4 modelViewMatrix;
 
+// Quantised positions arrive in [0,1] and are mapped back into the mesh's bounding box
+// Float positions use an offset of 0 and a scale of 1
+uniform vec3 positionOffset;
+uniform vec3 positionScale;
+
 // Returns received position in output variable gl_Position
 void main() {
-    gl_Position = projectionMatrix * modelViewMatrix * vec4(position, 1.0);
+    gl_Position = projectionMatrix * modelViewMatrix * vec4(positionOffset + position * positionScale, 1.0);
     exColour = inColour;
 }
\ No newline at end of file
@@ -1,8 +1,18 @@
 package com.nicky.viewer;
 
 import com.nicky.Spectrum;
+import com.nicky.engine.GLResources;
 import com.nicky.engine.ViewerEngine;
+import com.nicky.viewer.Lobe.AlbedoAnalyzer;
+import com.nicky.viewer.Lobe.BRDFParameters;
+import com.nicky.viewer.Lobe.LobeAtlas;
+import com.nicky.viewer.Lobe.LobePrefetcher;
+import com.nicky.viewer.Lobe.LobeStatistics;
+import com.nicky.viewer.Lobe.PolarSlice;
+import com.nicky.viewer.Lobe.QualityGovernor;
+import com.nicky.viewer.Lobe.UpdateScheduler;
 import javafx.util.Pair;
+import org.joml.Vector3f;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.nuklear.*;
 import org.lwjgl.system.MemoryStack;
@@ -58,6 +68,9 @@ public class Interface {
     private Map<String, FloatBuffer> floatElements;
     private FloatBuffer f = BufferUtils.createFloatBuffer(1).put(0, floatEx);
 
+    private float atlasElevation = 45f;
+    private float atlasAzimuth = 0f;
+
     public Interface(String title, Viewer viewer, ViewerEngine viewerEngine, int height, int width) {
         this.title = title;
         this.viewer = viewer;
@@ -110,6 +123,7 @@ public class Interface {
                         if (nk_combo_item_label(ctx, brdfNames.get(i), NK_TEXT_LEFT)) {
                             currentBRDF = i;
                             updateBRDFNamesBuffer();
+                            viewer.updateCurrentBRDF(brdfNames.get(currentBRDF));
 //                            viewerEngine.getInterfaceWindow().changeInterface(currentBRDF);
                         }
                     }
@@ -125,6 +139,139 @@ public class Interface {
                                 "Z:" + String.format("%.3f", viewer.getIncidentRaySource().z),
                         NK_TEXT_RIGHT);
 
+                // Lobe updates
+                UpdateScheduler updateScheduler = viewer.getUpdateScheduler();
+                nk_layout_row_dynamic(ctx, 30, 2);
+                nk_label(ctx, "Lobe Updates: ", NK_TEXT_LEFT);
+                nk_label(ctx,
+                        updateScheduler.getRebuilds() + " built, " + updateScheduler.getCoalesced() + " coalesced, "
+                                + viewer.getAttributeUploads() + " partial",
+                        NK_TEXT_RIGHT);
+
+                // Lobes evaluated ahead while an incident ray key is held
+                LobePrefetcher lobePrefetcher = viewer.getLobePrefetcher();
+                if (lobePrefetcher != null) {
+                    nk_layout_row_dynamic(ctx, 30, 2);
+                    nk_label(ctx, "Lobe Prefetch: ", NK_TEXT_LEFT);
+                    nk_label(ctx,
+                            lobePrefetcher.getHits() + " hits, " + lobePrefetcher.getPrefetched() + " prefetched, "
+                                    + lobePrefetcher.getCancelled() + " cancelled",
+                            NK_TEXT_RIGHT);
+                }
+
+                // Live GL resources, growing counts over a long session point at a leak
+                nk_layout_row_dynamic(ctx, 30, 2);
+                nk_label(ctx, "GL Resources: ", NK_TEXT_LEFT);
+                nk_label(ctx,
+                        GLResources.getCount(GLResources.Type.VERTEX_ARRAY) + " VAO, "
+                                + GLResources.getCount(GLResources.Type.BUFFER) + " VBO, "
+                                + GLResources.getCount(GLResources.Type.PROGRAM) + " prog, "
+                                + String.format("%.1f", GLResources.getGraphicsBytes() / (1024f * 1024f)) + " MB",
+                        NK_TEXT_RIGHT);
+                nk_layout_row_dynamic(ctx, 30, 1);
+                nk_label(ctx, "Nuklear buffers: " + GLResources.getCount(GLResources.Type.NUKLEAR) + " ("
+                        + GLResources.getBytes(GLResources.Type.NUKLEAR) / 1024 + " KB), "
+                        + GLResources.getCreated(GLResources.Type.BUFFER) + " VBOs created", NK_TEXT_LEFT);
+
+                // Lobe resolution
+                QualityGovernor qualityGovernor = viewer.getQualityGovernor();
+                if (qualityGovernor != null) {
+                    nk_layout_row_dynamic(ctx, 30, 2);
+                    nk_label(ctx, "Lobe Resolution: ", NK_TEXT_LEFT);
+                    nk_label(ctx,
+                            qualityGovernor.getResolution() + " (" + String.format("%.1f", qualityGovernor.getFrameMillis())
+                                    + " / " + String.format("%.1f", qualityGovernor.getBudgetNanos() / 1000000f) + " ms)",
+                            NK_TEXT_RIGHT);
+                }
+
+                // Statistics gathered while the lobe was evaluated
+                LobeStatistics lobeStatistics = viewer.getLobeStatistics();
+                if (lobeStatistics.isValid()) {
+                    Vector3f peakDirection = lobeStatistics.getPeakDirection();
+                    nk_layout_row_dynamic(ctx, 20, 2);
+                    nk_label(ctx, "Lobe Peak: " + String.format("%.3f", lobeStatistics.getPeak()), NK_TEXT_LEFT);
+                    nk_label(ctx,
+                            "X:" + String.format("%.3f", peakDirection.x) + ", " +
+                                    "Y:" + String.format("%.3f", peakDirection.y) + ", " +
+                                    "Z:" + String.format("%.3f", peakDirection.z),
+                            NK_TEXT_RIGHT);
+                    nk_label(ctx, "Lobe Albedo: " + String.format("%.3f", lobeStatistics.getAlbedo()), NK_TEXT_LEFT);
+                    nk_label(ctx, "RGB: " + String.format("%.2f-%.2f, %.2f-%.2f, %.2f-%.2f",
+                            lobeStatistics.getMin(0), lobeStatistics.getMax(0),
+                            lobeStatistics.getMin(1), lobeStatistics.getMax(1),
+                            lobeStatistics.getMin(2), lobeStatistics.getMax(2)), NK_TEXT_RIGHT);
+                    if (lobeStatistics.getInvalidCount() > 0) {
+                        nk_layout_row_dynamic(ctx, 20, 1);
+                        nk_label(ctx, "Invalid values drawn as zero: " + lobeStatistics.getNanCount() + " NaN, "
+                                + lobeStatistics.getInfiniteCount() + " Inf, "
+                                + lobeStatistics.getNegativeCount() + " negative", NK_TEXT_LEFT);
+                    }
+                }
+
+                // Polar slice in the plane of incidence
+                nk_layout_row_dynamic(ctx, 25, 2);
+                viewer.setPolarSlice(nk_check_label(ctx, "Polar Slice", viewer.isPolarSlice()));
+                viewer.setPolarSlicePerpendicular(nk_check_label(ctx, "Perpendicular Plane",
+                        viewer.isPolarSlicePerpendicular()));
+                if (viewer.isPolarSlice()) {
+                    PolarSlice polarSlice = viewer.getPolarSlice();
+                    nk_layout_row_dynamic(ctx, 20, 1);
+                    nk_label(ctx, "Slice Peak: " + String.format("%.3f", polarSlice.getPeak()) + " at "
+                            + String.format("%.2f", polarSlice.getPeakAngle()) + " deg (" + polarSlice.getSamples()
+                            + " samples)", NK_TEXT_LEFT);
+                }
+
+                // Incident ray scrubbing over precomputed lobes
+                LobeAtlas lobeAtlas = viewer.getLobeAtlas();
+                nk_layout_row_dynamic(ctx, 30, 2);
+                if (nk_button_label(ctx, "Build Incident Atlas")) {
+                    LOGGER.info("Building Incident Atlas...");
+                    viewer.buildLobeAtlas();
+                }
+                nk_label(ctx, lobeAtlas == null ? "" : lobeAtlas.isReady() ? "Ready"
+                        : String.format("%.0f", lobeAtlas.getProgress() * 100) + "%", NK_TEXT_RIGHT);
+                if (lobeAtlas != null && lobeAtlas.isReady()) {
+                    nk_layout_row_dynamic(ctx, 25, 2);
+                    nk_label(ctx, "Elevation: " + String.format("%.1f", atlasElevation), NK_TEXT_LEFT);
+                    float elevation = nk_slide_float(ctx, 0f, atlasElevation, 89f, 0.5f);
+                    nk_label(ctx, "Azimuth: " + String.format("%.1f", atlasAzimuth), NK_TEXT_LEFT);
+                    float azimuth = nk_slide_float(ctx, 0f, atlasAzimuth, 360f, 1f);
+                    if (elevation != atlasElevation || azimuth != atlasAzimuth) {
+                        atlasElevation = elevation;
+                        atlasAzimuth = azimuth;
+                        viewer.scrubLobeAtlas(atlasElevation, atlasAzimuth);
+                    }
+                }
+
+                // Albedo of the current BRDF, charted as the elevations complete
+                AlbedoAnalyzer albedoAnalyzer = viewer.getAlbedoAnalyzer();
+                nk_layout_row_dynamic(ctx, 30, 2);
+                if (nk_button_label(ctx, "Analyse Albedo")) {
+                    LOGGER.info("Analysing Albedo...");
+                    viewer.analyseAlbedo();
+                }
+                if (nk_button_label(ctx, "Export Albedo")) {
+                    viewer.exportAlbedo();
+                }
+                if (albedoAnalyzer != null && albedoAnalyzer.getCompleted() > 0) {
+                    int completed = albedoAnalyzer.getCompleted();
+                    nk_layout_row_dynamic(ctx, 60, 1);
+                    if (nk_chart_begin(ctx, NK_CHART_LINES, albedoAnalyzer.getAngles(), 0f,
+                            (float) Math.max(1, albedoAnalyzer.getMaxAlbedo()))) {
+                        for (int i = 0; i < completed; i++) {
+                            nk_chart_push(ctx, (float) albedoAnalyzer.getAlbedo(i));
+                        }
+                        nk_chart_end(ctx);
+                    }
+                    nk_layout_row_dynamic(ctx, 30, 2);
+                    nk_label(ctx, "Albedo: " + String.format("%.3f", albedoAnalyzer.getAverageAlbedo())
+                            + " (max " + String.format("%.3f", albedoAnalyzer.getMaxAlbedo()) + ")", NK_TEXT_LEFT);
+                    nk_label(ctx, albedoAnalyzer.isComplete()
+                                    ? (albedoAnalyzer.isEnergyConserving() ? "Conserves energy" : "Gains energy")
+                                    : completed + " / " + albedoAnalyzer.getAngles(),
+                            NK_TEXT_RIGHT);
+                }
+
                 nk_layout_row_static(ctx, 10, 370, 1);
                 nk_label(ctx, "__________________________________________________", NK_TEXT_CENTERED);
                 nk_layout_row_static(ctx, 40, 370, 1);
@@ -138,6 +285,7 @@ public class Interface {
                 // Build Lobe Button
                 if (nk_button_label(ctx, "Build BRDF Lobe")) {
                     LOGGER.info("Building BRDF Lobe...");
+                    viewer.rebuildLobe();
                 }
                 // Reset to Default Button
                 if (nk_button_label(ctx, "Reset BRDF")) {
@@ -215,6 +363,7 @@ public class Interface {
                         // Add Title for BRDF Component
                         nk_layout_row_dynamic(ctx, 30, 1);
                         nk_label(ctx, "Component: " + entry.getKey(), NK_TEXT_LEFT);
+                        continue;
                     }
                     // Spectrum
                     if (entry.getKey().equals("Spectrum")) {
@@ -235,12 +384,24 @@ public class Interface {
                             spectrum.b(nk_propertyf(ctx, "#B:", 0, spectrumElements.get(brdfNames.get(currentBRDF)).b(), 1.0f, 0.01f, 0.005f));
                             nk_combo_end(ctx);
                         }
+                        // Apply the edited colour to the BRDF
+                        if (spectrum.r() != spectrumValues[0] || spectrum.g() != spectrumValues[1]
+                                || spectrum.b() != spectrumValues[2]) {
+                            viewer.setBRDFParameter(brdfNames.get(currentBRDF), entry.getKey(),
+                                    entry.getValue().getKey(),
+                                    BRDFParameters.formatSpectrum(spectrum.r(), spectrum.g(), spectrum.b()));
+                        }
                     } else if (entry.getKey().equals("float")) {
                         float value = Float.valueOf(entry.getValue().getValue());
                         FloatBuffer floatBuffer = BufferUtils.createFloatBuffer(1).put(0, value);
                         floatElements.put(brdfNames.get(currentBRDF), floatBuffer);
                         nk_layout_row_dynamic(ctx, 30, 1);
                         nk_property_float(ctx, entry.getValue().getKey(), -5.0f, floatElements.get(brdfNames.get(currentBRDF)), 5.0f, 0.5f, 1);
+                        // Apply the edited value to the BRDF
+                        if (floatBuffer.get(0) != value) {
+                            viewer.setBRDFParameter(brdfNames.get(currentBRDF), entry.getKey(),
+                                    entry.getValue().getKey(), String.valueOf(floatBuffer.get(0)));
+                        }
                     } else {
                         throw new Exception("Incorrect BRDF UI Parameters");
                     }
@@ -1,8 +1,5 @@
 package com.nicky.viewer.Items;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * <h1>Rectangle</h1>
  * Represents a rectanglur object.
@@ -34,34 +31,15 @@ public class Rectangle {
     }
 
     public void init() {
-        // Colour
-        int counter = 0;
-
-        List<Float> coloursList = getRectangleColours(vertices.length);
-        colours = new float[coloursList.size()];
-
-        for (Float c : coloursList) {
-            if (c != null) {
-                colours[counter] = c;
-            } else {
-                colours[counter] = Float.NaN;
-            }
-            counter++;
+        // Colour, one RGB triple per vertex
+        colours = new float[vertices.length];
+        for (int i = 0; i < colours.length; i += 3) {
+            colours[i] = this.red;
+            colours[i + 1] = this.green;
+            colours[i + 2] = this.blue;
         }
     }
 
-    private List<Float> getRectangleColours(int verticesNum) {
-        List<Float> colours = new ArrayList<>();
-
-        for (int i = 0; i < verticesNum; i++) {
-            colours.add(this.red);
-            colours.add(this.green);
-            colours.add(this.blue);
-        }
-
-        return colours;
-    }
-
     public float[] getVertices() {
         return vertices;
     }
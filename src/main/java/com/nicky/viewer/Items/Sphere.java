@@ -1,15 +1,22 @@
 package com.nicky.viewer.Items;
 
-import com.nicky.Spectrum;
 import com.nicky.brdfs.BRDF;
+import com.nicky.viewer.Lobe.AllocationMeter;
+import com.nicky.viewer.Lobe.HemisphereTable;
+import com.nicky.viewer.Lobe.LobeEvaluator;
+import com.nicky.viewer.Lobe.LobeStatistics;
 import org.joml.Vector3f;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * <h1>Sphere</h1>
  * Represents sphere item used to build BRDF lobe.
+ * Vertex, index and colour buffers are sized once per resolution and reused by every lobe rebuild.
+ * Hemisphere directions and triangle indices come from the {@link HemisphereTable} shared by every sphere
+ * of the same resolution. Statistics of the lobe are gathered per ring while it is evaluated.
+ * The sphere records which of its positions and colours changed since they were last taken, see
+ * {@link #takeChanges()}, so an update that only affects one of them only uploads that one.
  *
  * @author Nicky Buttigieg
  * @version 1.0
@@ -24,201 +31,242 @@ public class Sphere {
     private float green;
     private float blue;
 
-    private float[] unitSphereVertices;
+    private LobeEvaluator evaluator;
+    private AllocationMeter allocationMeter;
+    private long lastRebuildAllocatedBytes;
+
+    private HemisphereTable directions;
 
     private float[] vertices;
     private int[] indices;
     private float[] colours;
 
+    private LobeStatistics[] ringStatistics;
+    private LobeStatistics statistics;
+    private int changes;
+
     public Sphere(float red, float green, float blue) {
-        SECTORS = 150;
-        RINGS = 150;
+        this(red, green, blue, 150, 150);
+    }
+
+    public Sphere(float red, float green, float blue, int rings, int sectors) {
+        SECTORS = sectors;
+        RINGS = rings;
 
         this.red = red;
         this.green = green;
         this.blue = blue;
 
-        unitSphereVertices = new float[0];
+        evaluator = new LobeEvaluator(1);
+        allocationMeter = new AllocationMeter();
+        lastRebuildAllocatedBytes = -1;
         vertices = new float[0];
         indices = new int[0];
         colours = new float[0];
+        ringStatistics = new LobeStatistics[0];
+        statistics = new LobeStatistics();
     }
 
     public void init() {
         setVertices();
         setIndices();
         setColours();
+        changes = LobeEvaluator.ALL;
     }
 
-    public void setVertices() {
-        int counter = 0;
+    /**
+     * Change the resolution of the sphere, the unit sphere of the new resolution replaces the current lobe
+     * @param rings Number of rings of the full sphere
+     * @param sectors Number of sectors per ring
+     */
+    public void setResolution(int rings, int sectors) {
+        if (rings == RINGS && sectors == SECTORS) {
+            return;
+        }
+        RINGS = rings;
+        SECTORS = sectors;
+        init();
+    }
 
+    public void setVertices() {
         // Sphere vertex positions
         // Counter-clockwise order
-        List<Float> verticesList = getUnitSphereVertices(RINGS, SECTORS);
-
-        unitSphereVertices = new float[verticesList.size()];
-        for (Float v : verticesList) {
-            if (v != null) {
-                unitSphereVertices[counter] = v;
-            } else {
-                unitSphereVertices[counter] = Float.NaN;
-            }
-            counter++;
+        directions = HemisphereTable.get(RINGS, SECTORS);
+        if (vertices.length != directions.size() * 3) {
+            vertices = new float[directions.size() * 3];
         }
-        vertices = unitSphereVertices;
+        directions.copyTo(vertices);
     }
 
     public void setVertices(Vector3f incident, BRDF brdf) {
-        int counter = 0;
+        setVertices(incident, brdf, 0, getHemisphereRings());
+    }
+
+    /**
+     * Evaluate a range of the lobe's hemisphere rings, the remaining rings keep their previous values
+     * @param ringStart First hemisphere ring to evaluate
+     * @param ringEnd Hemisphere ring after the last one to evaluate
+     */
+    public void setVertices(Vector3f incident, BRDF brdf, int ringStart, int ringEnd) {
+        if (brdf == null) {
+            vertices = new float[0];
+            colours = new float[0];
+            statistics.reset();
+            changes = LobeEvaluator.ALL;
+            return;
+        }
+
+        // Lobe arrays are preallocated once and the evaluator writes straight into them
+        if (vertices.length != directions.size() * 3) {
+            vertices = new float[directions.size() * 3];
+            changes = LobeEvaluator.ALL;
+        }
+        if (colours.length != directions.size() * 3) {
+            colours = new float[directions.size() * 3];
+            changes = LobeEvaluator.ALL;
+        }
+        if (ringStatistics.length != directions.getRings()) {
+            ringStatistics = new LobeStatistics[directions.getRings()];
+            for (int r = 0; r < ringStatistics.length; r++) {
+                ringStatistics[r] = new LobeStatistics();
+            }
+        }
 
         // Sphere vertex positions
         // Counter-clockwise order
-        List<Float> verticesList = getSphereVertices(incident, brdf);
-
-        vertices = new float[verticesList.size()];
-        for (Float v : verticesList) {
-            if (v != null) {
-                vertices[counter] = v;
-            } else {
-                vertices[counter] = Float.NaN;
-            }
-            counter++;
+        changes |= evaluator.evaluate(incident, brdf, directions, vertices, colours, ringStart, ringEnd,
+                ringStatistics, allocationMeter);
+
+        // Rings outside the range keep the statistics of their previous evaluation
+        statistics.reset();
+        for (LobeStatistics ring : ringStatistics) {
+            statistics.merge(ring);
         }
     }
 
     public void setIndices() {
-        int counter = 0;
-
-        // Sphere indices making up the 12 triangles
-        List<Integer> indicesList = getSphereIndices(RINGS, SECTORS);
-        indices = new int[indicesList.size()];
-        for (Integer i : indicesList) {
-            indices[counter] = i;
-            counter++;
-        }
+        // Sphere indices making up the triangles, only the hemisphere's triangles are generated once per resolution
+        indices = directions.getIndices();
     }
 
     public void setColours() {
-        int counter = 0;
-
         // Sphere colour
-        List<Float> coloursList = getSphereColours(vertices.length);
-        colours = new float[coloursList.size()];
-        for (Float c : coloursList) {
-            if (c != null) {
-                colours[counter] = c;
-            } else {
-                colours[counter] = Float.NaN;
-            }
-            counter++;
+        if (colours.length != vertices.length) {
+            colours = new float[vertices.length];
+        }
+        for (int i = 0; i < colours.length; i += 3) {
+            colours[i] = this.red;
+            colours[i + 1] = this.green;
+            colours[i + 2] = this.blue;
         }
     }
 
-    private List<Float> getUnitSphereVertices(int rings, int sectors) {
-        List<Float> vertices = new ArrayList<>();
-        List<Float> coloursList = new ArrayList<>();
-
-        float R = 1.0f / (rings - 1.0f); // rings
-        float S = 1.0f / (sectors - 1.0f); // sectors
-
-        for (int r = 0; r < rings; r++) {
-            float rR = r * R;
-            for (int s = 0; s < sectors; s++) {
-                float sS = s * S;
-                float y = (float) Math.sin(-Math.PI * 0.5 + Math.PI * rR);
-                float sin = (float) Math.sin(Math.PI * rR);
-                float x = (float) (Math.cos(2 * Math.PI * sS) * sin);
-                float z = (float) (Math.sin(2 * Math.PI * sS) * sin);
-
-                float radius;
-                if (y >= 0) {
-                    radius = 1.0f;
-                    vertices.add(x * radius);
-                    vertices.add(y * radius);
-                    vertices.add(z * radius);
-                }
-            }
+    /**
+     * Sample a BRDF and create its lobe.
+     * Records the bytes allocated on the Java heap by the rebuild, see {@link #getLastRebuildAllocatedBytes()}.
+     * @param incident
+     * @param brdf
+     */
+    public void sampleBRDF(Vector3f incident, BRDF brdf) {
+        sampleBRDF(incident, brdf, 0, directions.getRings());
+    }
+
+    /**
+     * Sample a range of rings of a BRDF's lobe, used to refine a lobe over several frames.
+     * The bytes allocated by a range starting at the first ring replace the recorded ones, the following ranges
+     * add to them, so the whole refined lobe is recorded once its last range is sampled.
+     * @param incident
+     * @param brdf
+     * @param ringStart First hemisphere ring to evaluate
+     * @param ringEnd Hemisphere ring after the last one to evaluate
+     */
+    public void sampleBRDF(Vector3f incident, BRDF brdf, int ringStart, int ringEnd) {
+        allocationMeter.start();
+        setVertices(incident, brdf, ringStart, ringEnd);
+        setIndices();
+        long allocated = allocationMeter.stop();
+        if (ringStart == 0 || lastRebuildAllocatedBytes < 0 || allocated < 0) {
+            lastRebuildAllocatedBytes = allocated;
+        } else {
+            lastRebuildAllocatedBytes += allocated;
         }
-        setColours();
-        return vertices;
     }
 
-    private List<Float> getSphereVertices(Vector3f incident, BRDF brdf) {
-        Vector3f out = new Vector3f(); //exitant light ray
-        List<Float> vertices = new ArrayList<>();
-        List<Float> coloursList = new ArrayList<>();
-
-        for (int i = 0; i < unitSphereVertices.length; i += 3) {
-            float x = unitSphereVertices[i];
-            float y = unitSphereVertices[i + 1];
-            float z = unitSphereVertices[i + 2];
-
-            // Initialise out vector with this direction
-            out.set(x, y, z).normalize();
-
-            // Evaluate BRDF
-            float radius;
-            if (brdf != null && out.y >= 0) {
-                // Only upper hemisphere
-//                    System.out.println(r+","+s+ ": "+(brdf.f(incident, out)).toScalar());
-//                    System.out.println("in:" + incident + " out: " + out);
-                Spectrum brdfOutput = brdf.f(incident, out);
-                radius = brdfOutput.toScalar();
-                vertices.add(x * radius);
-                vertices.add(y * radius);
-                vertices.add(z * radius);
-
-                coloursList.add(brdfOutput.getR());
-                coloursList.add(brdfOutput.getG());
-                coloursList.add(brdfOutput.getB());
-
-                Vector3f v1 = new Vector3f(0, 0, 0);
-                Vector3f v2 = new Vector3f(x * radius, y * radius, z * radius);
-//                    System.out.println("Radius: " + (v1.sub(v2).length()));
-            }
+    /**
+     * Evaluate only the colours of the lobe the sphere holds, after a parameter change which left its positions as
+     * they are, see {@link com.nicky.viewer.Lobe.BRDFParameters}. The whole lobe is sampled if the sphere holds
+     * none at its resolution.
+     * @param incident Incident light ray the sphere's lobe was evaluated for
+     * @param brdf BRDF with its new parameters
+     */
+    public void sampleColours(Vector3f incident, BRDF brdf) {
+        if (brdf == null || vertices.length != directions.size() * 3 || colours.length != directions.size() * 3
+                || ringStatistics.length != directions.getRings()) {
+            sampleBRDF(incident, brdf);
+            return;
+        }
+
+        allocationMeter.start();
+        changes |= evaluator.evaluate(incident, brdf, directions, vertices, colours, 0, directions.getRings(),
+                ringStatistics, allocationMeter, LobeEvaluator.COLOURS);
+        lastRebuildAllocatedBytes = allocationMeter.stop();
 
+        statistics.reset();
+        for (LobeStatistics ring : ringStatistics) {
+            statistics.merge(ring);
         }
-        setColours(coloursList);
-        return vertices;
     }
 
-    private List<Integer> getSphereIndices(int rings, int sectors) {
-        List<Integer> indices = new ArrayList<>();
-
-        for (int r = 0; r < rings - 1; r++) {
-            for (int s = 0; s < sectors - 1; s++) {
-                indices.add(r * sectors + s);
-                indices.add((r + 1) * sectors + s);
-                indices.add((r + 1) * sectors + (s + 1));
-                indices.add((r + 1) * sectors + (s + 1));
-                indices.add(r * sectors + (s + 1));
-                indices.add(r * sectors + s);
-            }
+    /**
+     * Load a previously evaluated lobe of the same resolution, without evaluating the BRDF
+     * @param lobeVertices Lobe vertex positions
+     * @param lobeColours Lobe vertex colours
+     * @param lobeStatistics Statistics gathered when the lobe was evaluated
+     */
+    public void loadLobe(float[] lobeVertices, float[] lobeColours, LobeStatistics lobeStatistics) {
+        if (!Arrays.equals(vertices, lobeVertices)) {
+            changes |= LobeEvaluator.POSITIONS;
         }
-        return indices;
+        if (!Arrays.equals(colours, lobeColours)) {
+            changes |= LobeEvaluator.COLOURS;
+        }
+        if (vertices.length != lobeVertices.length) {
+            vertices = new float[lobeVertices.length];
+        }
+        if (colours.length != lobeColours.length) {
+            colours = new float[lobeColours.length];
+        }
+        System.arraycopy(lobeVertices, 0, vertices, 0, lobeVertices.length);
+        System.arraycopy(lobeColours, 0, colours, 0, lobeColours.length);
+        statistics.set(lobeStatistics);
+        setIndices();
     }
 
-    private List<Float> getSphereColours(int verticesNum) {
-        List<Float> colours = new ArrayList<>();
-
-        for (int i = 0; i < verticesNum; i++) {
-            colours.add(this.red);
-            colours.add(this.green);
-            colours.add(this.blue);
-        }
+    public void setLobeEvaluator(LobeEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
 
-        return colours;
+    /**
+     * @return long Bytes allocated on the Java heap by the calling thread and the evaluator's bands during the last
+     * lobe sampled, -1 if not measurable
+     */
+    public long getLastRebuildAllocatedBytes() {
+        return lastRebuildAllocatedBytes;
     }
 
     /**
-     * Sample a BRDF and create its lobe
-     * @param incident
-     * @param brdf
+     * @return int Number of rings kept in the upper hemisphere
      */
-    public void sampleBRDF(Vector3f incident, BRDF brdf) {
-        setVertices(incident, brdf);
-        setIndices();
+    public int getHemisphereRings() {
+        return directions.getRings();
+    }
+
+    public int getSectors() {
+        return SECTORS;
+    }
+
+    public int getRings() {
+        return RINGS;
     }
 
     public float[] getVertices() {
@@ -233,19 +281,22 @@ public class Sphere {
         return colours;
     }
 
-    public void setColours(List<Float> coloursList) {
-        int counter = 0;
+    /**
+     * Take the changes made to the lobe since the last call, the sphere then starts recording anew
+     * @return int Returns the changed arrays, a combination of {@link LobeEvaluator#POSITIONS} and
+     * {@link LobeEvaluator#COLOURS}.
+     */
+    public int takeChanges() {
+        int taken = changes;
+        changes = 0;
+        return taken;
+    }
 
-        // Sphere colour
-        colours = new float[coloursList.size()];
-        for (Float c : coloursList) {
-            if (c != null) {
-                colours[counter] = c;
-            } else {
-                colours[counter] = Float.NaN;
-            }
-            counter++;
-        }
+    /**
+     * @return LobeStatistics Statistics of the current lobe, invalid if no BRDF was sampled
+     */
+    public LobeStatistics getStatistics() {
+        return statistics;
     }
 
     public void setRed(float red) {
@@ -259,4 +310,4 @@ public class Sphere {
     public void setBlue(float blue) {
         this.blue = blue;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,381 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <h1>Adaptive Lobe Tessellator</h1>
+ * Tessellates a lobe adaptively instead of on a fixed UV grid.
+ * The hemisphere is parameterised by (theta, phi) and starts as a coarse grid of cells. A cell is split
+ * into four while the lobe radius or colour at its centre is further than a tolerance of the lobe's peak from
+ * the interpolation of its corners, so flat regions stay coarse and curved regions such as peaks are refined.
+ * Specular highlights narrower than a cell of the initial grid would be missed by it, so the vertex nearest the
+ * mirror direction is evaluated with the initial grid and the cells containing it are split to the finest level.
+ * Vertices live on a lattice at the finest level and are shared between cells. Cells next to finer
+ * neighbours are triangulated as a fan through the hanging vertices on their edges, so the mesh has no cracks.
+ * The output arrays are reused while the lobe keeps its size, and the indices are only replaced when the
+ * triangulation changes, so a mesh does not register an identical topology again.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class AdaptiveLobeTessellator {
+
+    // Cells of the initial grid, in theta (normal to horizon) and phi
+    private static final int BASE_THETA = 4;
+    private static final int BASE_PHI = 16;
+    private static final float HALF_PI = (float) (Math.PI * 0.5);
+    private static final float TWO_PI = (float) (Math.PI * 2);
+
+    private final int minDepth;
+    private final int maxDepth;
+    private final float tolerance;
+    private final int thetaLattice;
+    private final int phiLattice;
+
+    private final Vector3f in;
+    private final Vector3f out;
+    private final float[] sample;
+    private final Map<Long, Integer> vertexIndices;
+    private int[] polygon; // boundary of the cell being triangulated
+    private BRDF brdf;
+    private TabulatedBRDF table;
+    private float peakRadius;
+    private float peakColour;
+    private int evaluations;
+    private int mirrorI;
+    private int mirrorJ;
+
+    private float[] positions;
+    private float[] colours;
+    private float[] radii;
+    private int vertexCount;
+    private int[] leaves;
+    private int leafCount;
+    private int[] indices;
+    private int indexCount;
+
+    // Exactly sized copies handed out, never modified once handed out
+    private float[] vertexOutput;
+    private float[] colourOutput;
+    private int[] indexOutput;
+
+    /**
+     * @param minDepth Number of times every cell of the initial grid is split
+     * @param maxDepth Maximum number of times a cell of the initial grid can be split
+     * @param tolerance Interpolation error of radius or colour, relative to the lobe's peak, above which a cell is split
+     */
+    public AdaptiveLobeTessellator(int minDepth, int maxDepth, float tolerance) {
+        this.maxDepth = Math.max(0, maxDepth);
+        this.minDepth = Math.min(Math.max(0, minDepth), this.maxDepth);
+        this.tolerance = tolerance;
+        thetaLattice = BASE_THETA << this.maxDepth;
+        phiLattice = BASE_PHI << this.maxDepth;
+
+        in = new Vector3f();
+        out = new Vector3f();
+        sample = new float[TabulatedBRDF.CHANNELS];
+        vertexIndices = new HashMap<>();
+        positions = new float[0];
+        colours = new float[0];
+        radii = new float[0];
+        leaves = new int[0];
+        indices = new int[0];
+        polygon = new int[4 << this.maxDepth];
+        vertexOutput = new float[0];
+        colourOutput = new float[0];
+        indexOutput = new int[0];
+    }
+
+    /**
+     * Tessellate the lobe of a BRDF
+     * @param incident Incident light ray, normalised
+     * @param brdf BRDF to evaluate
+     * @param table Tabulated BRDF used instead of the BRDF when it was built from it, may be null
+     */
+    public void tessellate(Vector3f incident, BRDF brdf, TabulatedBRDF table) {
+        this.in.set(incident);
+        this.brdf = brdf;
+        this.table = table != null && table.isFor(brdf) ? table : null;
+        vertexIndices.clear();
+        vertexCount = 0;
+        leafCount = 0;
+        indexCount = 0;
+        evaluations = 0;
+        peakRadius = 0;
+        peakColour = 0;
+
+        int baseSize = 1 << maxDepth;
+
+        // Lattice vertex nearest the mirror direction, every vertex of the pole is the same one
+        float mirrorTheta = (float) Math.acos(Math.min(1f, Math.max(0f, incident.y)));
+        float mirrorPhi = (float) Math.atan2(-incident.z, -incident.x);
+        mirrorI = Math.round(mirrorTheta / HALF_PI * thetaLattice);
+        mirrorJ = mirrorI == 0 ? 0 : Math.round((mirrorPhi < 0 ? mirrorPhi + TWO_PI : mirrorPhi) / TWO_PI
+                * phiLattice) % phiLattice;
+
+        // Evaluate the initial grid first so the peak is known before deciding which cells to split
+        for (int i = 0; i < thetaLattice; i += baseSize) {
+            for (int j = 0; j < phiLattice; j += baseSize) {
+                vertex(i, j);
+                vertex(i + baseSize, j);
+                if (baseSize > 1) {
+                    vertex(i + baseSize / 2, j + baseSize / 2);
+                }
+            }
+        }
+        vertex(mirrorI, mirrorJ);
+
+        for (int i = 0; i < thetaLattice; i += baseSize) {
+            for (int j = 0; j < phiLattice; j += baseSize) {
+                subdivide(i, j, baseSize, 0);
+            }
+        }
+
+        for (int l = 0; l < leafCount * 3; l += 3) {
+            triangulate(leaves[l], leaves[l + 1], leaves[l + 2]);
+        }
+    }
+
+    /**
+     * @return float[] Vertex positions of the last tessellation, in an array reused while the vertex count stays
+     * the same
+     */
+    public float[] getVertices() {
+        if (vertexOutput.length != vertexCount * 3) {
+            vertexOutput = new float[vertexCount * 3];
+        }
+        System.arraycopy(positions, 0, vertexOutput, 0, vertexOutput.length);
+        return vertexOutput;
+    }
+
+    /**
+     * @return float[] Vertex colours of the last tessellation, in an array reused while the vertex count stays
+     * the same
+     */
+    public float[] getColours() {
+        if (colourOutput.length != vertexCount * 3) {
+            colourOutput = new float[vertexCount * 3];
+        }
+        System.arraycopy(colours, 0, colourOutput, 0, colourOutput.length);
+        return colourOutput;
+    }
+
+    /**
+     * @return int[] Indices of the last tessellation, the same array as before if the triangulation did not change
+     */
+    public int[] getIndices() {
+        if (!isSameTriangulation()) {
+            indexOutput = Arrays.copyOf(indices, indexCount);
+        }
+        return indexOutput;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * @return int Number of BRDF evaluations done by the last tessellation
+     */
+    public int getEvaluations() {
+        return evaluations;
+    }
+
+    private void subdivide(int i0, int j0, int size, int depth) {
+        int c00 = vertex(i0, j0);
+        int c01 = vertex(i0, j0 + size);
+        int c10 = vertex(i0 + size, j0);
+        int c11 = vertex(i0 + size, j0 + size);
+
+        if (size > 1) {
+            int centre = vertex(i0 + size / 2, j0 + size / 2);
+            if (depth < minDepth || containsMirror(i0, j0, size) || varies(c00, c01, c10, c11, centre)) {
+                int half = size / 2;
+                subdivide(i0, j0, half, depth + 1);
+                subdivide(i0, j0 + half, half, depth + 1);
+                subdivide(i0 + half, j0, half, depth + 1);
+                subdivide(i0 + half, j0 + half, half, depth + 1);
+                return;
+            }
+        }
+
+        if (leaves.length < (leafCount + 1) * 3) {
+            leaves = Arrays.copyOf(leaves, Math.max(48, leaves.length * 2));
+        }
+        leaves[leafCount * 3] = i0;
+        leaves[leafCount * 3 + 1] = j0;
+        leaves[leafCount * 3 + 2] = size;
+        leafCount++;
+    }
+
+    private boolean isSameTriangulation() {
+        if (indexOutput.length != indexCount) {
+            return false;
+        }
+        for (int i = 0; i < indexCount; i++) {
+            if (indexOutput[i] != indices[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean containsMirror(int i0, int j0, int size) {
+        if (mirrorI == 0) {
+            return i0 == 0 && j0 == 0;
+        }
+        return mirrorI >= i0 && mirrorI <= i0 + size && mirrorJ >= j0 && mirrorJ <= j0 + size;
+    }
+
+    /**
+     * Compare the centre of a cell with the bilinear interpolation of its corners, a flat or linearly
+     * varying cell is represented exactly by its corners whatever its size
+     */
+    private boolean varies(int c00, int c01, int c10, int c11, int centre) {
+        if (peakRadius <= 0) {
+            return false;
+        }
+
+        float radius = (radii[c00] + radii[c01] + radii[c10] + radii[c11]) * 0.25f;
+        if (Math.abs(radii[centre] - radius) > tolerance * peakRadius) {
+            return true;
+        }
+
+        for (int c = 0; c < 3; c++) {
+            float colour = (colours[c00 * 3 + c] + colours[c01 * 3 + c] + colours[c10 * 3 + c]
+                    + colours[c11 * 3 + c]) * 0.25f;
+            if (Math.abs(colours[centre * 3 + c] - colour) > tolerance * peakColour) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walk the edges of a cell and collect every lattice vertex on them, then triangulate the polygon
+     */
+    private void triangulate(int i0, int j0, int size) {
+        int n = 0;
+
+        // Counter-clockwise in (theta, phi): along phi, down theta, back along phi, up theta
+        for (int k = 0; k < size; k++) {
+            n = addBoundaryVertex(polygon, n, i0, j0 + k);
+        }
+        for (int k = 0; k < size; k++) {
+            n = addBoundaryVertex(polygon, n, i0 + k, j0 + size);
+        }
+        for (int k = 0; k < size; k++) {
+            n = addBoundaryVertex(polygon, n, i0 + size, j0 + size - k);
+        }
+        for (int k = 0; k < size; k++) {
+            n = addBoundaryVertex(polygon, n, i0 + size - k, j0);
+        }
+        // The pole collapses a whole edge to one vertex
+        if (n > 1 && polygon[n - 1] == polygon[0]) {
+            n--;
+        }
+
+        if (n < 3) {
+            return;
+        }
+        if (n <= 4) {
+            addTriangle(polygon[0], polygon[1], polygon[2]);
+            if (n == 4) {
+                addTriangle(polygon[2], polygon[3], polygon[0]);
+            }
+            return;
+        }
+
+        // Hanging vertices from finer neighbours, fan around the centre
+        int centre = vertex(i0 + size / 2, j0 + size / 2);
+        for (int k = 0; k < n; k++) {
+            addTriangle(centre, polygon[k], polygon[(k + 1) % n]);
+        }
+    }
+
+    private int addBoundaryVertex(int[] polygon, int n, int i, int j) {
+        Integer index = vertexIndices.get(latticeKey(i, j));
+        if (index == null || (n > 0 && polygon[n - 1] == index)) {
+            return n;
+        }
+        polygon[n] = index;
+        return n + 1;
+    }
+
+    private void addTriangle(int a, int b, int c) {
+        if (indices.length < indexCount + 3) {
+            indices = Arrays.copyOf(indices, Math.max(96, indices.length * 2));
+        }
+        indices[indexCount++] = a;
+        indices[indexCount++] = b;
+        indices[indexCount++] = c;
+    }
+
+    // Lattice points wrap around in phi and the whole first row is the pole
+    private long latticeKey(int i, int j) {
+        int wrapped = i == 0 ? 0 : ((j % phiLattice) + phiLattice) % phiLattice;
+        return (long) i * phiLattice + wrapped;
+    }
+
+    private int vertex(int i, int j) {
+        long key = latticeKey(i, j);
+        Integer index = vertexIndices.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        float theta = i * HALF_PI / thetaLattice;
+        float phi = j * TWO_PI / phiLattice;
+        float x = (float) (Math.sin(theta) * Math.cos(phi));
+        float y = (float) Math.cos(theta);
+        float z = (float) (Math.sin(theta) * Math.sin(phi));
+
+        // Evaluate BRDF
+        float radius;
+        float red;
+        float green;
+        float blue;
+        out.set(x, y, z).normalize();
+        if (table != null) {
+            table.evaluate(in, out, sample);
+            radius = sample[TabulatedBRDF.SCALAR];
+            red = sample[0];
+            green = sample[1];
+            blue = sample[2];
+        } else {
+            Spectrum brdfOutput = BRDFAccess.f(brdf, in, out);
+            radius = brdfOutput.toScalar();
+            red = brdfOutput.getR();
+            green = brdfOutput.getG();
+            blue = brdfOutput.getB();
+        }
+        evaluations++;
+
+        if (positions.length < (vertexCount + 1) * 3) {
+            int capacity = Math.max(256, vertexCount * 2);
+            positions = Arrays.copyOf(positions, capacity * 3);
+            colours = Arrays.copyOf(colours, capacity * 3);
+            radii = Arrays.copyOf(radii, capacity);
+        }
+        positions[vertexCount * 3] = x * radius;
+        positions[vertexCount * 3 + 1] = y * radius;
+        positions[vertexCount * 3 + 2] = z * radius;
+        colours[vertexCount * 3] = red;
+        colours[vertexCount * 3 + 1] = green;
+        colours[vertexCount * 3 + 2] = blue;
+        radii[vertexCount] = radius;
+
+        peakRadius = Math.max(peakRadius, radius);
+        peakColour = Math.max(peakColour, Math.max(red, Math.max(green, blue)));
+
+        vertexIndices.put(key, vertexCount);
+        return vertexCount++;
+    }
+}
@@ -0,0 +1,314 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <h1>Albedo Analyzer</h1>
+ * Measures the directional albedo, the integral of f * cos(theta) over the hemisphere, of a BRDF for a sweep of
+ * incident elevations, and from it the hemispherical albedo. A BRDF conserves energy if no albedo exceeds one.
+ * Every albedo is a Monte Carlo estimate from cosine weighted directions, stratified over a square grid of the
+ * unit square, so it is pi times the mean of f. The BRDF is always evaluated through f, never through a kernel
+ * fitted to it, see {@link BatchKernels}. Each elevation is split into tasks run on the evaluator's workers,
+ * every task with its own random stream seeded from its index and its sums reduced in task order, so results
+ * do not depend on the number of workers. Elevations complete one after the other and can be shown as they do.
+ * A new analysis supersedes the one in progress, which stops publishing results as soon as it is superseded.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class AlbedoAnalyzer {
+
+    private static final Logger LOGGER = Logger.getLogger(AlbedoAnalyzer.class.getName());
+
+    // Samples per parallel task, and the seed of the first task's random stream
+    private static final int SAMPLES_PER_TASK = 4096;
+    private static final long SEED = 0x2545F4914F6CDD1DL;
+    private static final float TWO_PI = (float) (Math.PI * 2);
+
+    // Albedo channels: red, green, blue, scalar
+    private static final int CHANNELS = 4;
+    private static final int SCALAR = 3;
+
+    private final int angles;
+    private final int strata;
+    private final int samples;
+    private final int tasks;
+    private final LobeEvaluator evaluator;
+    private final ExecutorService worker;
+
+    // Per elevation results, written before completed is raised, while holding this analyser's monitor
+    private final double[] albedo;
+    private final double[] error;
+    // Per task sums of the elevation being analysed, reduced in task order
+    private final double[][] sums;
+    private final ThreadLocal<float[][]> scratch;
+
+    private volatile int completed;
+    private int generation; // guarded by this analyser's monitor
+    private volatile long elapsedNanos;
+    private volatile String brdfAlias;
+
+    /**
+     * @param angles Number of incident elevations, from the normal towards the horizon
+     * @param samples Samples per elevation, rounded down to a square number of strata
+     * @param evaluator Evaluator whose workers evaluate the samples
+     */
+    public AlbedoAnalyzer(int angles, int samples, LobeEvaluator evaluator) {
+        this.angles = Math.max(1, angles);
+        strata = Math.max(1, (int) Math.sqrt(samples));
+        this.samples = strata * strata;
+        tasks = (this.samples + SAMPLES_PER_TASK - 1) / SAMPLES_PER_TASK;
+        this.evaluator = evaluator;
+
+        albedo = new double[this.angles * CHANNELS];
+        error = new double[this.angles * CHANNELS];
+        sums = new double[tasks][CHANNELS * 2];
+        scratch = ThreadLocal.withInitial(() -> new float[7][SAMPLES_PER_TASK]);
+
+        worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "albedo-analyzer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Analyse a BRDF in the background, abandoning any analysis in progress
+     * @param alias BRDF alias, used in the exported table
+     * @param brdf BRDF to analyse
+     */
+    public void analyse(String alias, BRDF brdf) {
+        int analysisGeneration;
+        synchronized (this) {
+            analysisGeneration = ++generation;
+            completed = 0;
+            brdfAlias = alias;
+        }
+        worker.execute(() -> {
+            try {
+                analyse(analysisGeneration, alias, brdf);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Could not analyse albedo of " + alias, e);
+            }
+        });
+    }
+
+    /**
+     * @return int Number of incident elevations analysed so far
+     */
+    public int getCompleted() {
+        return completed;
+    }
+
+    public int getAngles() {
+        return angles;
+    }
+
+    /**
+     * @return long Total number of BRDF evaluations of a full analysis
+     */
+    public long getEvaluations() {
+        return (long) angles * samples;
+    }
+
+    public boolean isComplete() {
+        return completed == angles;
+    }
+
+    /**
+     * @return long Duration of the last full analysis in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @param angle Index of the elevation
+     * @return float Elevation of the incident ray from the normal, in degrees
+     */
+    public float getElevation(int angle) {
+        return (angle + 0.5f) * 90f / angles;
+    }
+
+    /**
+     * @param angle Index of an analysed elevation
+     * @return double Scalar directional albedo
+     */
+    public double getAlbedo(int angle) {
+        return albedo[angle * CHANNELS + SCALAR];
+    }
+
+    /**
+     * @return double Highest albedo of any channel over the analysed elevations
+     */
+    public double getMaxAlbedo() {
+        int count = completed;
+        double max = 0;
+        for (int i = 0; i < count * CHANNELS; i++) {
+            max = Math.max(max, albedo[i]);
+        }
+        return max;
+    }
+
+    /**
+     * Hemispherical albedo, the directional albedo averaged over incident directions weighted by cos(theta).
+     * While the analysis runs it is averaged over the analysed elevations only.
+     * @return double Scalar hemispherical albedo
+     */
+    public double getAverageAlbedo() {
+        int count = completed;
+        double sum = 0;
+        double weights = 0;
+        for (int i = 0; i < count; i++) {
+            double theta = Math.toRadians(getElevation(i));
+            double weight = Math.cos(theta) * Math.sin(theta);
+            sum += albedo[i * CHANNELS + SCALAR] * weight;
+            weights += weight;
+        }
+        return weights > 0 ? sum / weights : 0;
+    }
+
+    /**
+     * @return boolean Returns true if no analysed albedo exceeds one by more than three standard errors.
+     */
+    public boolean isEnergyConserving() {
+        int count = completed;
+        for (int i = 0; i < count * CHANNELS; i++) {
+            if (!(albedo[i] - 3 * error[i] <= 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return String Table of the analysed elevations, their albedo per channel and its standard error
+     */
+    public String toCsv() {
+        int count = completed;
+        StringBuilder sb = new StringBuilder();
+        sb.append("# ").append(brdfAlias).append(", ").append(samples).append(" samples per elevation\n");
+        sb.append("elevation,red,green,blue,albedo,red_error,green_error,blue_error,albedo_error\n");
+        for (int i = 0; i < count; i++) {
+            sb.append(String.format(Locale.ROOT, "%.4f", getElevation(i)));
+            for (int c = 0; c < CHANNELS; c++) {
+                sb.append(String.format(Locale.ROOT, ",%.6f", albedo[i * CHANNELS + c]));
+            }
+            for (int c = 0; c < CHANNELS; c++) {
+                sb.append(String.format(Locale.ROOT, ",%.6f", error[i * CHANNELS + c]));
+            }
+            sb.append('\n');
+        }
+        sb.append(String.format(Locale.ROOT, "# hemispherical albedo %.6f%n", getAverageAlbedo()));
+        return sb.toString();
+    }
+
+    /**
+     * Stop any analysis in progress
+     */
+    public void cleanup() {
+        synchronized (this) {
+            generation++;
+        }
+        worker.shutdownNow();
+        try {
+            worker.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void analyse(int analysisGeneration, String alias, BRDF brdf) {
+        long start = System.nanoTime();
+        BatchBRDF batch = new PerSampleBRDF(brdf);
+
+        for (int angle = 0; angle < angles; angle++) {
+            // A newer analysis supersedes this one
+            if (isSuperseded(analysisGeneration)) {
+                return;
+            }
+
+            float theta = (float) Math.toRadians(getElevation(angle));
+            Vector3f incident = new Vector3f((float) Math.sin(theta), (float) Math.cos(theta), 0);
+            long streams = (long) angle * tasks;
+            evaluator.forEach(tasks, task -> sample(batch, incident, task, streams + task));
+
+            // Reduce in task order, so the sums do not depend on the scheduling
+            double[] total = new double[CHANNELS * 2];
+            for (double[] taskSums : sums) {
+                for (int i = 0; i < total.length; i++) {
+                    total[i] += taskSums[i];
+                }
+            }
+            // Published only if no newer analysis started while this elevation was evaluated
+            synchronized (this) {
+                if (analysisGeneration != generation) {
+                    return;
+                }
+                for (int c = 0; c < CHANNELS; c++) {
+                    double mean = total[c] / samples;
+                    double variance = Math.max(0, total[CHANNELS + c] / samples - mean * mean);
+                    albedo[angle * CHANNELS + c] = mean;
+                    error[angle * CHANNELS + c] = Math.sqrt(variance / samples);
+                }
+                completed = angle + 1;
+            }
+        }
+
+        elapsedNanos = System.nanoTime() - start;
+        LOGGER.info("Analysed albedo of " + alias + ": " + getEvaluations() + " evaluations in "
+                + elapsedNanos / 1000000 + "ms, hemispherical albedo "
+                + String.format("%.4f", getAverageAlbedo()) + ", max " + String.format("%.4f", getMaxAlbedo()));
+    }
+
+    private synchronized boolean isSuperseded(int analysisGeneration) {
+        return analysisGeneration != generation;
+    }
+
+    // Evaluate the strata of a task, each estimate is pi * f for a cosine weighted direction
+    private void sample(BatchBRDF batch, Vector3f incident, int task, long stream) {
+        float[][] arrays = scratch.get();
+        float[] x = arrays[0];
+        float[] y = arrays[1];
+        float[] z = arrays[2];
+
+        SplittableRandom random = new SplittableRandom(SEED + stream);
+        int from = task * SAMPLES_PER_TASK;
+        int count = Math.min(samples, from + SAMPLES_PER_TASK) - from;
+        for (int i = 0; i < count; i++) {
+            int stratum = from + i;
+            double u = (stratum / strata + random.nextDouble()) / strata;
+            double v = (stratum % strata + random.nextDouble()) / strata;
+            double radius = Math.sqrt(u);
+            double phi = v * TWO_PI;
+            x[i] = (float) (radius * Math.cos(phi));
+            y[i] = (float) Math.sqrt(Math.max(0, 1 - u));
+            z[i] = (float) (radius * Math.sin(phi));
+        }
+        batch.evaluate(incident, x, y, z, 0, count, arrays[3], arrays[4], arrays[5], arrays[6]);
+
+        double[] taskSums = sums[task];
+        for (int c = 0; c < CHANNELS; c++) {
+            float[] values = arrays[3 + c];
+            double sum = 0;
+            double sumSquares = 0;
+            for (int i = 0; i < count; i++) {
+                double estimate = Math.PI * values[i];
+                sum += estimate;
+                sumSquares += estimate * estimate;
+            }
+            taskSums[c] = sum;
+            taskSums[CHANNELS + c] = sumSquares;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.nicky.viewer.Lobe;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * <h1>Allocation Meter</h1>
+ * Measures the bytes allocated on the Java heap by a piece of work, such as a lobe rebuild.
+ * Only the thread which starts the meter is measured, while it is not paused. Work done for it on other threads,
+ * such as the bands of a {@link LobeEvaluator}, measures itself with {@link #threadAllocatedBytes()} and is added
+ * to the meter, so allocations of unrelated threads sharing the same pool are never counted.
+ * Allocation counters are enabled once, when this class is loaded, if the JVM supports them. The bytes allocated
+ * by reading the counters are calibrated at the same time and subtracted from every measurement.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class AllocationMeter {
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN = findThreadBean();
+    // Bytes allocated by reading the counter of the current thread twice
+    private static final long OVERHEAD_BYTES = calibrate();
+
+    private boolean running;
+    private boolean paused;
+    private long segmentStart;
+    private long bytes;
+
+    /**
+     * @return long Bytes allocated on the Java heap by the current thread since it started, -1 if the JVM does
+     * not support allocation counters.
+     */
+    public static long threadAllocatedBytes() {
+        return THREAD_BEAN == null ? -1 : THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @param start Counter of the current thread read at the start of some work
+     * @return long Bytes allocated by the current thread since the counter was read, -1 if not measurable
+     */
+    public static long threadAllocatedBytesSince(long start) {
+        if (start < 0) {
+            return -1;
+        }
+        return Math.max(0, threadAllocatedBytes() - start - OVERHEAD_BYTES);
+    }
+
+    /**
+     * Start measuring the current thread, dropping any previous measurement
+     */
+    public void start() {
+        bytes = 0;
+        paused = false;
+        running = THREAD_BEAN != null;
+        segmentStart = threadAllocatedBytes();
+    }
+
+    /**
+     * Stop measuring the current thread while it waits for work done on other threads, that work is added instead
+     */
+    public void pause() {
+        if (running && !paused) {
+            bytes += threadAllocatedBytesSince(segmentStart);
+            paused = true;
+        }
+    }
+
+    public void resume() {
+        if (running && paused) {
+            paused = false;
+            segmentStart = threadAllocatedBytes();
+        }
+    }
+
+    /**
+     * Add bytes allocated for the measured work by another thread, ignored when the meter is not running
+     * @param otherThreadBytes Bytes measured on the other thread, negative if it could not be measured
+     */
+    public void add(long otherThreadBytes) {
+        if (running && otherThreadBytes > 0) {
+            bytes += otherThreadBytes;
+        }
+    }
+
+    /**
+     * @return boolean Returns true between start and stop.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return long Bytes allocated since start, -1 if the JVM does not support allocation counters
+     */
+    public long stop() {
+        if (!running) {
+            return -1;
+        }
+        pause();
+        running = false;
+        return bytes;
+    }
+
+    private static com.sun.management.ThreadMXBean findThreadBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemoryEnabled()) {
+            threadBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        return threadBean;
+    }
+
+    private static long calibrate() {
+        if (THREAD_BEAN == null) {
+            return 0;
+        }
+        // The smallest of several reads, the first ones may include class loading
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 16; i++) {
+            long before = threadAllocatedBytes();
+            overhead = Math.min(overhead, threadAllocatedBytes() - before);
+        }
+        return Math.max(0, overhead);
+    }
+}
@@ -0,0 +1,106 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <h1>BRDF Access</h1>
+ * Thread-safety contract between the viewer and the BRDFs it evaluates.
+ * The same BRDF instance is evaluated by the render thread (polar slice), the lobe builder and its workers, the
+ * prefetcher, the atlas and the albedo analyser. The framework does not say whether its BRDFs can be evaluated
+ * concurrently, so parallel evaluation is opt-in per BRDF: a BRDF is only called concurrently if it is declared
+ * thread-safe, listed by class name in the configuration, which lists none by default, or through a public
+ * isThreadSafe() method of its class returning true. Every other BRDF, the framework's models included, is called
+ * while holding its own monitor, so callers take turns and its lobes are evaluated on one worker at a time. Batch
+ * kernels which never call the BRDF, the constant, fitted and tabulated ones, are immutable and are evaluated
+ * concurrently whatever the BRDF.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public final class BRDFAccess {
+
+    private static final Logger LOGGER = Logger.getLogger(BRDFAccess.class.getName());
+
+    private static volatile Set<String> threadSafe = Collections.emptySet();
+    // Whether each BRDF class is declared thread-safe by name, or the isThreadSafe() method asked otherwise
+    private static final Map<Class<?>, Optional<Method>> METHODS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Boolean> NAMED = new ConcurrentHashMap<>();
+
+    private BRDFAccess() {
+    }
+
+    /**
+     * @param classNames Class names of BRDFs known to be safe to evaluate concurrently
+     */
+    public static void setThreadSafe(Collection<String> classNames) {
+        threadSafe = new HashSet<>(classNames);
+        NAMED.clear();
+    }
+
+    /**
+     * @param brdf BRDF with its current parameters
+     * @return boolean Returns true if the BRDF may be evaluated by several threads at once.
+     */
+    public static boolean isThreadSafe(BRDF brdf) {
+        if (NAMED.computeIfAbsent(brdf.getClass(), type -> threadSafe.contains(type.getSimpleName()))) {
+            return true;
+        }
+
+        Optional<Method> method = METHODS.computeIfAbsent(brdf.getClass(), BRDFAccess::findMethod);
+        if (!method.isPresent()) {
+            return false;
+        }
+        try {
+            return Boolean.TRUE.equals(method.get().invoke(brdf));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Asked once, the BRDF is locked from now on
+            LOGGER.log(Level.WARNING, "Could not ask " + brdf.getClass().getSimpleName()
+                    + " whether it is thread-safe", e);
+            METHODS.put(brdf.getClass(), Optional.empty());
+            return false;
+        }
+    }
+
+    /**
+     * Evaluate a BRDF once, holding its monitor unless it is thread-safe.
+     * Callers evaluating many samples should hold the monitor around all of them instead, see {@link PerSampleBRDF}.
+     * @param brdf BRDF to evaluate
+     * @param in Incident light ray
+     * @param out Exitant light ray
+     * @return Spectrum Returns the value of the BRDF.
+     */
+    static Spectrum f(BRDF brdf, Vector3f in, Vector3f out) {
+        if (isThreadSafe(brdf)) {
+            return brdf.f(in, out);
+        }
+        synchronized (brdf) {
+            return brdf.f(in, out);
+        }
+    }
+
+    private static Optional<Method> findMethod(Class<?> brdfClass) {
+        try {
+            Method method = brdfClass.getMethod("isThreadSafe");
+            if (method.getReturnType() == boolean.class || method.getReturnType() == Boolean.class) {
+                return Optional.of(method);
+            }
+        } catch (NoSuchMethodException e) {
+            // Not declared, the BRDF is not known to be thread-safe
+        }
+        return Optional.empty();
+    }
+}
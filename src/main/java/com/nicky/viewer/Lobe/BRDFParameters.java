@@ -0,0 +1,162 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import javafx.util.Pair;
+import org.joml.Vector3f;
+
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <h1>BRDF Parameters</h1>
+ * Applies parameter edits made in the interface to a BRDF, and tells which parts of its lobe they affect.
+ * A parameter is set through a public setParameter(String name, String value) method of the BRDF's class, or a
+ * public setParameters(LinkedHashMap) method given the edited parameters, otherwise by editing the parameters the
+ * BRDF returns, which only works if the BRDF reads them back. The edit is checked against the parameters the BRDF
+ * reports afterwards.
+ * The BRDF is evaluated at fixed pairs of directions before and after the edit. If its scalar value, the radius of
+ * the lobe, is the same at every pair while its colour changed, the edit is colour-only and the lobe's positions
+ * are kept, see {@link LobeEvaluator#COLOURS}. Edits are made while holding the BRDF's monitor, so BRDFs which are
+ * not thread-safe, see {@link BRDFAccess}, are never evaluated halfway through an edit.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public final class BRDFParameters {
+
+    private static final Logger LOGGER = Logger.getLogger(BRDFParameters.class.getName());
+
+    // Largest difference of the scalar value, relative to it, still considered the same radius
+    private static final float RADIUS_TOLERANCE = 1e-6f;
+    private static final int PROBES_PER_INCIDENT = 32;
+    private static final Vector3f[] INCIDENTS = {
+            new Vector3f(0, 1, 0),
+            new Vector3f(0.5f, 0.8f, 0.2f).normalize(),
+            new Vector3f(-0.3f, 0.3f, 0.9f).normalize()
+    };
+    private static final Vector3f[] EXITANTS = exitants();
+
+    private static final Map<Class<?>, Optional<Method>> SETTERS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Optional<Method>> MAP_SETTERS = new ConcurrentHashMap<>();
+
+    private BRDFParameters() {
+    }
+
+    /**
+     * Set a parameter of a BRDF
+     * @param brdf BRDF to edit
+     * @param type Type of the parameter, the key of its entry in the BRDF's parameters
+     * @param name Name of the parameter
+     * @param value New value, in the format the BRDF reports it in
+     * @return int Returns the lobe outputs the edit affects, {@link LobeEvaluator#COLOURS} or
+     * {@link LobeEvaluator#ALL}, 0 if the BRDF did not take the edit.
+     */
+    public static int set(BRDF brdf, String type, String name, String value) {
+        synchronized (brdf) {
+            float[] before = probe(brdf);
+            if (!apply(brdf, type, name, value)) {
+                LOGGER.warning(brdf.getClass().getSimpleName() + " did not take " + name + " = " + value);
+                return 0;
+            }
+            float[] after = probe(brdf);
+            return classify(before, after);
+        }
+    }
+
+    /**
+     * @return String Returns a spectrum in the format its parameters are reported in.
+     */
+    public static String formatSpectrum(float red, float green, float blue) {
+        return String.format(Locale.ROOT, "%s,%s,%s", red, green, blue);
+    }
+
+    // Colour-only if every radius is the same and some colour changed
+    static int classify(float[] before, float[] after) {
+        boolean coloursChanged = false;
+        for (int i = 0; i < before.length; i += 4) {
+            float scalar = before[i + 3];
+            if (!(Math.abs(after[i + 3] - scalar) <= RADIUS_TOLERANCE * Math.max(1, Math.abs(scalar)))) {
+                return LobeEvaluator.ALL;
+            }
+            coloursChanged |= before[i] != after[i] || before[i + 1] != after[i + 1] || before[i + 2] != after[i + 2];
+        }
+        return coloursChanged ? LobeEvaluator.COLOURS : LobeEvaluator.ALL;
+    }
+
+    private static boolean apply(BRDF brdf, String type, String name, String value) {
+        try {
+            Optional<Method> setter = SETTERS.computeIfAbsent(brdf.getClass(),
+                    brdfClass -> findMethod(brdfClass, "setParameter", String.class, String.class));
+            Optional<Method> mapSetter = MAP_SETTERS.computeIfAbsent(brdf.getClass(),
+                    brdfClass -> findMethod(brdfClass, "setParameters", LinkedHashMap.class));
+            LinkedHashMap<String, Pair<String, String>> parameters = brdf.getParameters();
+            if (setter.isPresent()) {
+                setter.get().invoke(brdf, name, value);
+            } else if (parameters == null) {
+                return false;
+            } else if (mapSetter.isPresent()) {
+                LinkedHashMap<String, Pair<String, String>> edited = new LinkedHashMap<>(parameters);
+                edited.put(type, new Pair<>(name, value));
+                mapSetter.get().invoke(brdf, edited);
+            } else {
+                parameters.put(type, new Pair<>(name, value));
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not set " + name + " of " + brdf.getClass().getSimpleName(), e);
+            return false;
+        }
+
+        LinkedHashMap<String, Pair<String, String>> parameters = brdf.getParameters();
+        Pair<String, String> parameter = parameters == null ? null : parameters.get(type);
+        return parameter != null && value.equals(parameter.getValue());
+    }
+
+    private static Optional<Method> findMethod(Class<?> brdfClass, String name, Class<?>... parameterTypes) {
+        try {
+            return Optional.of(brdfClass.getMethod(name, parameterTypes));
+        } catch (NoSuchMethodException e) {
+            return Optional.empty();
+        }
+    }
+
+    // Red, green, blue and scalar value at every pair of directions
+    private static float[] probe(BRDF brdf) {
+        float[] values = new float[INCIDENTS.length * EXITANTS.length * 4];
+        int i = 0;
+        for (Vector3f incident : INCIDENTS) {
+            for (Vector3f exitant : EXITANTS) {
+                Spectrum value = brdf.f(new Vector3f(incident), new Vector3f(exitant));
+                values[i++] = value.getR();
+                values[i++] = value.getG();
+                values[i++] = value.getB();
+                values[i++] = value.toScalar();
+            }
+        }
+        return values;
+    }
+
+    // Fixed directions over the hemisphere, the mirror directions of the incident rays included
+    private static Vector3f[] exitants() {
+        Vector3f[] exitants = new Vector3f[PROBES_PER_INCIDENT];
+        for (int i = 0; i < INCIDENTS.length; i++) {
+            exitants[i] = new Vector3f(-INCIDENTS[i].x, INCIDENTS[i].y, -INCIDENTS[i].z);
+        }
+        Random random = new Random(3);
+        for (int i = INCIDENTS.length; i < exitants.length; i++) {
+            float y = random.nextFloat();
+            float phi = (float) (2 * Math.PI * random.nextFloat());
+            float r = (float) Math.sqrt(Math.max(0f, 1f - y * y));
+            exitants[i] = new Vector3f(r * (float) Math.cos(phi), y, r * (float) Math.sin(phi));
+        }
+        return exitants;
+    }
+}
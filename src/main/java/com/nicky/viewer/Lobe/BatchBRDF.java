@@ -0,0 +1,71 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+
+/**
+ * <h1>Batch BRDF</h1>
+ * Evaluates a BRDF for a range of exitant directions at once.
+ * Directions are read from and results written to structure-of-arrays float arrays owned by the caller,
+ * so kernels run as plain loops over primitive arrays without allocating a Spectrum per sample.
+ * Implementations must be safe to call concurrently on disjoint ranges, see {@link BRDFAccess}.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public interface BatchBRDF {
+
+    /**
+     * Evaluate the BRDF for the directions of a range, results are written at the same indices
+     * @param in Incident light ray, normalised
+     * @param x Exitant directions x component
+     * @param y Exitant directions y component
+     * @param z Exitant directions z component
+     * @param from First direction to evaluate
+     * @param to Direction after the last one to evaluate
+     * @param red Output red value
+     * @param green Output green value
+     * @param blue Output blue value
+     * @param scalar Output scalar value, used as lobe radius
+     */
+    void evaluate(Vector3f in, float[] x, float[] y, float[] z, int from, int to,
+                  float[] red, float[] green, float[] blue, float[] scalar);
+
+    /**
+     * @return boolean Returns true if concurrent ranges run in parallel, false if they take turns on a lock and
+     * gain nothing from being split across threads.
+     */
+    default boolean isParallel() {
+        return true;
+    }
+
+    /**
+     * @return boolean Returns true if the kernel is isotropic by construction, see {@link Isotropy}.
+     */
+    default boolean isIsotropic() {
+        return false;
+    }
+
+    /**
+     * Get the batch kernel of a BRDF. A BRDF which is a batch kernel itself is used as it is, other BRDFs are
+     * evaluated one sample at a time, or get the kernel {@link BatchKernels} fits to what they compute if fitting
+     * is enabled.
+     * @param brdf BRDF to evaluate
+     * @return BatchBRDF Returns the kernel evaluating the BRDF.
+     */
+    static BatchBRDF of(BRDF brdf) {
+        if (brdf instanceof BatchBRDF) {
+            return (BatchBRDF) brdf;
+        }
+        return BatchKernels.get(brdf);
+    }
+
+    /**
+     * @param fitting True to evaluate BRDFs matching a constant or shiny/diffuse model with a kernel fitted to
+     * samples of f, which can miss features narrower than the samples, false, the default, to evaluate f
+     */
+    static void setFitting(boolean fitting) {
+        BatchKernels.setFitting(fitting);
+    }
+}
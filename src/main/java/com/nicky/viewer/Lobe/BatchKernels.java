@@ -0,0 +1,297 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <h1>Batch Kernels</h1>
+ * Picks the batch kernel of a BRDF by what the BRDF computes rather than by its name.
+ * By default every BRDF is evaluated one sample at a time by a {@link PerSampleBRDF}, so lobes, slices and
+ * analyses show exactly what f returns. Fitting is opt-in, see {@link #setFitting(boolean)}: the framework's
+ * models are only reachable through f, so each BRDF is sampled at fixed pairs of directions for a few incident
+ * rays, and a feature narrower than the spacing of the samples, such as a sharp retro-reflection, is missed by
+ * the fit. A BRDF with the same value everywhere gets a {@link ConstantBRDF}. Otherwise a diffuse
+ * term plus a Phong or Blinn-Phong lobe is fitted to the samples, see {@link ShinyDiffuseBRDF}, and kept if it
+ * reproduces the BRDF at a second set of samples within a small fraction of its peak. Any other BRDF is evaluated
+ * one sample at a time by a {@link PerSampleBRDF}.
+ * The kernel of a BRDF is found again when its parameters change, and forgotten once the BRDF is unreachable.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+final class BatchKernels {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchKernels.class.getName());
+
+    // Largest difference from the BRDF, relative to its peak, a fitted kernel may have
+    private static final float MAX_ERROR = 1e-3f;
+    // Angles from the mirror direction of the samples on the shiny lobe, in radians
+    private static final float[] FIT_ANGLES = {0, 0.002f, 0.005f, 0.01f, 0.02f, 0.05f, 0.1f, 0.2f, 0.4f, 0.8f};
+    private static final float[] CHECK_ANGLES = {0.003f, 0.03f, 0.15f, 0.3f, 0.6f};
+    private static final int FIT_RANDOM = 16;
+    private static final int CHECK_RANDOM = 48;
+    // Exponents searched, on a logarithmic scale
+    private static final double MIN_EXPONENT = 0.25;
+    private static final double MAX_EXPONENT = 1e5;
+    private static final int EXPONENT_STEPS = 96;
+    private static final Vector3f[] INCIDENTS = {
+            new Vector3f(0.3f, 1, 0.1f).normalize(),
+            new Vector3f(-0.8f, 0.5f, 0.4f).normalize(),
+            new Vector3f(0.05f, 0.2f, -0.9f).normalize()
+    };
+
+    private static final Map<BRDF, Kernel> KERNELS = new WeakHashMap<>();
+    private static volatile boolean fitting;
+
+    private BatchKernels() {
+    }
+
+    /**
+     * @param fitting True to replace BRDFs matching a constant or shiny/diffuse model by a fitted kernel, false to
+     * evaluate every BRDF through f
+     */
+    static void setFitting(boolean fitting) {
+        synchronized (KERNELS) {
+            BatchKernels.fitting = fitting;
+            KERNELS.clear();
+        }
+    }
+
+    /**
+     * @param brdf BRDF with its current parameters
+     * @return BatchBRDF Returns the kernel of the BRDF, found the first time it is asked for with these parameters.
+     */
+    static BatchBRDF get(BRDF brdf) {
+        int parametersHash = Objects.hashCode(brdf.getParameters());
+        synchronized (KERNELS) {
+            Kernel kernel = KERNELS.get(brdf);
+            if (kernel != null && kernel.parametersHash == parametersHash) {
+                return kernel.batch;
+            }
+        }
+
+        BatchBRDF batch = find(brdf);
+        synchronized (KERNELS) {
+            KERNELS.put(brdf, new Kernel(parametersHash, batch));
+        }
+        return batch;
+    }
+
+    private static BatchBRDF find(BRDF brdf) {
+        if (!fitting) {
+            return new PerSampleBRDF(brdf);
+        }
+        BatchBRDF batch;
+        try {
+            Samples fit = sample(brdf, FIT_ANGLES, FIT_RANDOM, 1);
+            Samples check = sample(brdf, CHECK_ANGLES, CHECK_RANDOM, 2);
+            batch = fit.isFinite() && check.isFinite() ? fit(fit, check) : null;
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not sample " + brdf.getClass().getSimpleName() + " for a kernel", e);
+            batch = null;
+        }
+
+        if (batch == null) {
+            return new PerSampleBRDF(brdf);
+        }
+        LOGGER.info("Evaluating " + brdf.getClass().getSimpleName() + " with a " + batch);
+        return batch;
+    }
+
+    private static BatchBRDF fit(Samples fit, Samples check) {
+        float tolerance = MAX_ERROR * Math.max(fit.peak, check.peak);
+
+        // Constant, every sample has the value of the first one
+        float[] first = {fit.values[0][0], fit.values[1][0], fit.values[2][0], fit.values[3][0]};
+        if (fit.isWithin(first, null, null, 0, tolerance) && check.isWithin(first, null, null, 0, tolerance)) {
+            return new ConstantBRDF(first[0], first[1], first[2], first[3]);
+        }
+
+        for (ShinyDiffuseBRDF.Shape shape : ShinyDiffuseBRDF.Shape.values()) {
+            float[] cosines = fit.cosines[shape.ordinal()];
+            double exponent = fitExponent(fit, cosines);
+            float[] diffuse = new float[4];
+            float[] specular = new float[4];
+            fitTerms(fit, cosines, exponent, diffuse, specular);
+
+            if (fit.isWithin(diffuse, specular, cosines, (float) exponent, tolerance)
+                    && check.isWithin(diffuse, specular, check.cosines[shape.ordinal()], (float) exponent,
+                    tolerance)) {
+                return new ShinyDiffuseBRDF(shape, (float) exponent, diffuse, specular);
+            }
+        }
+        return null;
+    }
+
+    // Exponent of least squared error, searched on a logarithmic grid and refined around the best step
+    private static double fitExponent(Samples samples, float[] cosines) {
+        double low = Math.log(MIN_EXPONENT);
+        double step = (Math.log(MAX_EXPONENT) - low) / EXPONENT_STEPS;
+        double best = low;
+        double bestError = Double.MAX_VALUE;
+        for (int s = 0; s <= EXPONENT_STEPS; s++) {
+            double error = fitTerms(samples, cosines, Math.exp(low + s * step), null, null);
+            if (error < bestError) {
+                bestError = error;
+                best = low + s * step;
+            }
+        }
+
+        // Golden section search within a step either side
+        double a = best - step;
+        double b = best + step;
+        double ratio = (Math.sqrt(5) - 1) / 2;
+        for (int i = 0; i < 48; i++) {
+            double c = b - ratio * (b - a);
+            double d = a + ratio * (b - a);
+            if (fitTerms(samples, cosines, Math.exp(c), null, null)
+                    < fitTerms(samples, cosines, Math.exp(d), null, null)) {
+                b = d;
+            } else {
+                a = c;
+            }
+        }
+        return Math.exp((a + b) / 2);
+    }
+
+    // Least squares diffuse and specular terms of every channel for an exponent, returns the squared error
+    private static double fitTerms(Samples samples, float[] cosines, double exponent, float[] diffuse,
+                                   float[] specular) {
+        int n = cosines.length;
+        double sumLobe = 0;
+        double sumLobeSquared = 0;
+        double[] lobes = new double[n];
+        for (int i = 0; i < n; i++) {
+            lobes[i] = cosines[i] > 0 ? Math.pow(cosines[i], exponent) : 0;
+            sumLobe += lobes[i];
+            sumLobeSquared += lobes[i] * lobes[i];
+        }
+        double determinant = n * sumLobeSquared - sumLobe * sumLobe;
+
+        double error = 0;
+        for (int c = 0; c < 4; c++) {
+            float[] values = samples.values[c];
+            double sumValue = 0;
+            double sumLobeValue = 0;
+            for (int i = 0; i < n; i++) {
+                sumValue += values[i];
+                sumLobeValue += lobes[i] * values[i];
+            }
+            double ks = determinant > 1e-12 ? (n * sumLobeValue - sumLobe * sumValue) / determinant : 0;
+            double kd = (sumValue - ks * sumLobe) / n;
+            for (int i = 0; i < n; i++) {
+                double residual = values[i] - kd - ks * lobes[i];
+                error += residual * residual;
+            }
+            if (diffuse != null) {
+                diffuse[c] = (float) kd;
+                specular[c] = (float) ks;
+            }
+        }
+        return error;
+    }
+
+    private static Samples sample(BRDF brdf, float[] angles, int randomSamples, long seed) {
+        Random random = new Random(seed);
+        int perIncident = angles.length + randomSamples;
+        Samples samples = new Samples(INCIDENTS.length * perIncident);
+        Vector3f mirror = new Vector3f();
+        Vector3f u = new Vector3f();
+        Vector3f v = new Vector3f();
+        Vector3f out = new Vector3f();
+
+        int index = 0;
+        for (Vector3f incident : INCIDENTS) {
+            // Samples around the mirror direction, where shiny lobes change fastest, each in its own plane
+            mirror.set(-incident.x, incident.y, -incident.z);
+            mirror.cross(0, 1, 0, u).normalize();
+            mirror.cross(u, v);
+            for (float angle : angles) {
+                float phi = (float) (2 * Math.PI * random.nextFloat());
+                out.set(mirror).mul((float) Math.cos(angle))
+                        .fma((float) (Math.sin(angle) * Math.cos(phi)), u)
+                        .fma((float) (Math.sin(angle) * Math.sin(phi)), v);
+                out.y = Math.abs(out.y);
+                samples.set(index++, brdf, incident, out.normalize());
+            }
+            // Uniformly distributed over the hemisphere
+            for (int i = 0; i < randomSamples; i++) {
+                float y = random.nextFloat();
+                float phi = (float) (2 * Math.PI * random.nextFloat());
+                float r = (float) Math.sqrt(Math.max(0f, 1f - y * y));
+                samples.set(index++, brdf, incident, out.set(r * (float) Math.cos(phi), y, r * (float) Math.sin(phi)));
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Values of a BRDF at pairs of directions, with the cosine of each lobe shape.
+     */
+    private static final class Samples {
+
+        private final float[][] values; // red, green, blue and scalar
+        private final float[][] cosines; // indexed by shape
+        private float peak;
+        private boolean finite = true;
+
+        private Samples(int size) {
+            values = new float[4][size];
+            cosines = new float[ShinyDiffuseBRDF.Shape.values().length][size];
+        }
+
+        private void set(int index, BRDF brdf, Vector3f incident, Vector3f out) {
+            Spectrum value = BRDFAccess.f(brdf, new Vector3f(incident), new Vector3f(out));
+            values[0][index] = value.getR();
+            values[1][index] = value.getG();
+            values[2][index] = value.getB();
+            values[3][index] = value.toScalar();
+            for (int c = 0; c < 4; c++) {
+                finite &= !Float.isNaN(values[c][index]) && !Float.isInfinite(values[c][index]);
+                peak = Math.max(peak, Math.abs(values[c][index]));
+            }
+            for (ShinyDiffuseBRDF.Shape shape : ShinyDiffuseBRDF.Shape.values()) {
+                cosines[shape.ordinal()][index] = shape.cosine(incident, out);
+            }
+        }
+
+        private boolean isFinite() {
+            return finite;
+        }
+
+        // True if every sample is within the tolerance of the kernel's terms, a null specular term is no lobe
+        private boolean isWithin(float[] diffuse, float[] specular, float[] cosines, float exponent,
+                                 float tolerance) {
+            for (int i = 0; i < values[0].length; i++) {
+                float lobe = specular == null || cosines[i] <= 0 ? 0 : (float) Math.pow(cosines[i], exponent);
+                for (int c = 0; c < 4; c++) {
+                    float kernel = diffuse[c] + (specular == null ? 0 : specular[c] * lobe);
+                    if (Math.abs(kernel - values[c][i]) > tolerance) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Kernel {
+
+        private final int parametersHash;
+        private final BatchBRDF batch;
+
+        private Kernel(int parametersHash, BatchBRDF batch) {
+            this.parametersHash = parametersHash;
+            this.batch = batch;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.nicky.viewer.Lobe;
+
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+
+/**
+ * <h1>Constant BRDF</h1>
+ * Batch kernel for BRDFs whose value does not depend on either direction, such as a Lambertian BRDF.
+ * The value is measured once, when {@link BatchKernels} finds the BRDF to be constant, and broadcast to every
+ * range without evaluating the BRDF again.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+class ConstantBRDF implements BatchBRDF {
+
+    private final float red;
+    private final float green;
+    private final float blue;
+    private final float scalar;
+
+    ConstantBRDF(float red, float green, float blue, float scalar) {
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+        this.scalar = scalar;
+    }
+
+    @Override
+    public void evaluate(Vector3f in, float[] x, float[] y, float[] z, int from, int to,
+                         float[] red, float[] green, float[] blue, float[] scalar) {
+        Arrays.fill(red, from, to, this.red);
+        Arrays.fill(green, from, to, this.green);
+        Arrays.fill(blue, from, to, this.blue);
+        Arrays.fill(scalar, from, to, this.scalar);
+    }
+
+    @Override
+    public boolean isIsotropic() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("constant kernel (%.4f, %.4f, %.4f)", red, green, blue);
+    }
+}
@@ -0,0 +1,164 @@
+package com.nicky.viewer.Lobe;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <h1>Hemisphere Table</h1>
+ * Unit directions of the upper hemisphere of a rings x sectors UV sphere, laid out ring by ring.
+ * Directions are stored as separate x, y and z arrays and never change once built.
+ * One table is built per resolution, lazily, and shared by every lobe and sampler using that resolution.
+ * Only the tables of the most recently requested resolutions are kept for sharing. Users hold their own reference,
+ * so an evicted table stays valid for them and is rebuilt if its resolution is requested again.
+ * Sines and cosines are computed once per ring and once per sector, never per direction.
+ * The triangle indices of the hemisphere are generated on first use and shared in the same way.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public final class HemisphereTable {
+
+    // Resolutions kept for sharing, enough for the lobe, its coarse preview, the atlas and a few recent resolutions
+    private static final int MAX_TABLES = 8;
+
+    private static final Map<Long, HemisphereTable> TABLES =
+            new LinkedHashMap<Long, HemisphereTable>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, HemisphereTable> eldest) {
+                    return size() > MAX_TABLES;
+                }
+            };
+
+    private final int rings;
+    private final int sectors;
+
+    // Read directly by the evaluator's inner loop, must never be written after construction
+    final float[] x;
+    final float[] y;
+    final float[] z;
+    // Solid angle of each direction of a ring, zero for the last sector which duplicates the first
+    final float[] solidAngle;
+    private int[] indices;
+
+    /**
+     * Get the shared table of a resolution, building it the first time it is requested
+     * @param rings Number of rings of the full sphere
+     * @param sectors Number of sectors per ring
+     * @return HemisphereTable Returns the table of the resolution.
+     */
+    public static synchronized HemisphereTable get(int rings, int sectors) {
+        long key = ((long) rings << 32) | (sectors & 0xffffffffL);
+        HemisphereTable table = TABLES.get(key);
+        if (table == null) {
+            table = new HemisphereTable(rings, sectors);
+            TABLES.put(key, table);
+        }
+        return table;
+    }
+
+    private HemisphereTable(int rings, int sectors) {
+        float R = 1.0f / (rings - 1.0f); // rings
+        float S = 1.0f / (sectors - 1.0f); // sectors
+
+        // Only the rings in the upper hemisphere are kept
+        int firstRing = 0;
+        while (firstRing < rings && (float) Math.sin(-Math.PI * 0.5 + Math.PI * (firstRing * R)) < 0) {
+            firstRing++;
+        }
+        this.rings = rings - firstRing;
+        this.sectors = sectors;
+
+        // Per sector terms
+        double[] cosSector = new double[sectors];
+        double[] sinSector = new double[sectors];
+        for (int s = 0; s < sectors; s++) {
+            float sS = s * S;
+            cosSector[s] = Math.cos(2 * Math.PI * sS);
+            sinSector[s] = Math.sin(2 * Math.PI * sS);
+        }
+
+        x = new float[this.rings * sectors];
+        y = new float[this.rings * sectors];
+        z = new float[this.rings * sectors];
+
+        int counter = 0;
+        for (int r = firstRing; r < rings; r++) {
+            // Per ring terms
+            float rR = r * R;
+            float ringY = (float) Math.sin(-Math.PI * 0.5 + Math.PI * rR);
+            float sin = (float) Math.sin(Math.PI * rR);
+
+            for (int s = 0; s < sectors; s++) {
+                x[counter] = (float) (cosSector[s] * sin);
+                y[counter] = ringY;
+                z[counter] = (float) (sinSector[s] * sin);
+                counter++;
+            }
+        }
+
+        // Every ring covers the band of the sphere halfway to its neighbours, clamped to the hemisphere
+        solidAngle = new float[this.rings];
+        for (int r = 0; r < this.rings; r++) {
+            float ringY = y[r * sectors];
+            float low = r == 0 ? 0 : (y[(r - 1) * sectors] + ringY) * 0.5f;
+            float high = r == this.rings - 1 ? 1 : (ringY + y[(r + 1) * sectors]) * 0.5f;
+            solidAngle[r] = sectors > 1 ? (float) (2 * Math.PI * (high - low) / (sectors - 1)) : 0;
+        }
+    }
+
+    /**
+     * Copy the directions into an interleaved (x,y,z) array, such as the vertex positions of a unit sphere
+     * @param positions Output array of at least 3 * size() floats
+     */
+    public void copyTo(float[] positions) {
+        for (int i = 0, j = 0; i < x.length; i++, j += 3) {
+            positions[j] = x[i];
+            positions[j + 1] = y[i];
+            positions[j + 2] = z[i];
+        }
+    }
+
+    /**
+     * Triangle indices of the hemisphere, two counter-clockwise triangles per quad between neighbouring rings.
+     * The last sector of every ring coincides with the first one and closes the seam.
+     * The array is shared, it must not be modified.
+     * @return int[] Returns (rings - 1) * (sectors - 1) * 6 indices.
+     */
+    public synchronized int[] getIndices() {
+        if (indices == null) {
+            indices = new int[Math.max(0, rings - 1) * Math.max(0, sectors - 1) * 6];
+
+            int counter = 0;
+            for (int r = 0; r < rings - 1; r++) {
+                for (int s = 0; s < sectors - 1; s++) {
+                    indices[counter++] = r * sectors + s;
+                    indices[counter++] = (r + 1) * sectors + s;
+                    indices[counter++] = (r + 1) * sectors + (s + 1);
+                    indices[counter++] = (r + 1) * sectors + (s + 1);
+                    indices[counter++] = r * sectors + (s + 1);
+                    indices[counter++] = r * sectors + s;
+                }
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * @return int Number of rings kept in the upper hemisphere
+     */
+    public int getRings() {
+        return rings;
+    }
+
+    public int getSectors() {
+        return sectors;
+    }
+
+    /**
+     * @return int Number of directions
+     */
+    public int size() {
+        return x.length;
+    }
+}
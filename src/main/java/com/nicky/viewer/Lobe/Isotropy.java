@@ -0,0 +1,209 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <h1>Isotropy</h1>
+ * Tells whether a BRDF is isotropic, its value then only depends on the elevations of both directions and the
+ * difference of their azimuths, so its lobe is symmetric about the plane of incidence.
+ * A BRDF is first asked through a public isIsotropic() method if its class has one, which may depend on its
+ * parameters. A BRDF which is its own batch kernel is asked through {@link BatchBRDF#isIsotropic()}, which only
+ * tells kernels isotropic by construction apart. For BRDFs which do not say, overrides given by the user list them
+ * by class name, as isotropic or anisotropic. Any other BRDF is sampled at fixed pairs of directions, rotated
+ * about the normal and mirrored about a vertical plane, and is isotropic if every pair keeps its value within a
+ * small fraction of the BRDF's peak. The result is found again when the BRDF's parameters change.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class Isotropy {
+
+    private static final Logger LOGGER = Logger.getLogger(Isotropy.class.getName());
+
+    // Largest change of value, relative to the peak of the BRDF, between a pair and its rotations or mirror
+    private static final float MAX_ERROR = 1e-3f;
+    private static final float[] ROTATIONS = {0.7f, 2.1f, 4.4f};
+    private static final int PAIRS = 24;
+    private static final Vector3f[][] PAIRS_SAMPLED = pairs();
+
+    private final Set<String> isotropic;
+    private final Set<String> anisotropic;
+    // isIsotropic() method of each BRDF class, empty if it has none
+    private final Map<Class<?>, Optional<Method>> methods;
+    // Sampled isotropy of each BRDF, with the hash of the parameters it was sampled with
+    private final Map<BRDF, int[]> sampled;
+
+    /**
+     * @param isotropic Class names of BRDFs known to be isotropic, used for BRDFs which do not say themselves
+     * @param anisotropic Class names of BRDFs known to be anisotropic, used for BRDFs which do not say themselves,
+     * takes precedence over the isotropic ones
+     */
+    public Isotropy(Collection<String> isotropic, Collection<String> anisotropic) {
+        this.isotropic = new HashSet<>(isotropic);
+        this.anisotropic = new HashSet<>(anisotropic);
+        methods = new ConcurrentHashMap<>();
+        sampled = new WeakHashMap<>();
+    }
+
+    /**
+     * @param brdf BRDF with its current parameters
+     * @return boolean Returns true if the BRDF is known to be isotropic.
+     */
+    public boolean isIsotropic(BRDF brdf) {
+        String name = brdf.getClass().getSimpleName();
+        // A batch kernel is only isotropic by construction or not known to be
+        if (brdf instanceof BatchBRDF) {
+            if (((BatchBRDF) brdf).isIsotropic()) {
+                return true;
+            }
+        } else {
+            Optional<Method> method = methods.computeIfAbsent(brdf.getClass(), Isotropy::findMethod);
+            if (method.isPresent()) {
+                try {
+                    return Boolean.TRUE.equals(method.get().invoke(brdf));
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    // Asked once, the BRDF is looked up or sampled from now on
+                    LOGGER.log(Level.WARNING, "Could not ask " + name + " whether it is isotropic", e);
+                    methods.put(brdf.getClass(), Optional.empty());
+                }
+            }
+        }
+
+        if (anisotropic.contains(name)) {
+            return false;
+        }
+        return isotropic.contains(name) || isSampledIsotropic(brdf);
+    }
+
+    private boolean isSampledIsotropic(BRDF brdf) {
+        int parametersHash = Objects.hashCode(brdf.getParameters());
+        synchronized (sampled) {
+            int[] result = sampled.get(brdf);
+            if (result != null && result[0] == parametersHash) {
+                return result[1] != 0;
+            }
+        }
+
+        boolean isotropic;
+        try {
+            isotropic = sample(brdf);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not sample " + brdf.getClass().getSimpleName() + " for isotropy", e);
+            isotropic = false;
+        }
+        LOGGER.info(brdf.getClass().getSimpleName() + " sampled as " + (isotropic ? "isotropic" : "anisotropic"));
+        synchronized (sampled) {
+            sampled.put(brdf, new int[]{parametersHash, isotropic ? 1 : 0});
+        }
+        return isotropic;
+    }
+
+    // Values of every pair, then of its rotations about the normal and its mirror about the x-y plane
+    private static boolean sample(BRDF brdf) {
+        int transforms = ROTATIONS.length + 1;
+        float[][] values = new float[PAIRS][(transforms + 1) * 4];
+        float peak = 0;
+        for (int p = 0; p < PAIRS; p++) {
+            Vector3f in = PAIRS_SAMPLED[p][0];
+            Vector3f out = PAIRS_SAMPLED[p][1];
+            put(values[p], 0, BRDFAccess.f(brdf, new Vector3f(in), new Vector3f(out)));
+            for (int t = 0; t < ROTATIONS.length; t++) {
+                float cos = (float) Math.cos(ROTATIONS[t]);
+                float sin = (float) Math.sin(ROTATIONS[t]);
+                put(values[p], t + 1, BRDFAccess.f(brdf, rotate(in, cos, sin), rotate(out, cos, sin)));
+            }
+            put(values[p], transforms, BRDFAccess.f(brdf, new Vector3f(in.x, in.y, -in.z),
+                    new Vector3f(out.x, out.y, -out.z)));
+            for (float value : values[p]) {
+                if (!Float.isFinite(value)) {
+                    return false;
+                }
+                peak = Math.max(peak, Math.abs(value));
+            }
+        }
+
+        float tolerance = MAX_ERROR * peak;
+        for (float[] pair : values) {
+            for (int i = 4; i < pair.length; i++) {
+                if (Math.abs(pair[i] - pair[i % 4]) > tolerance) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void put(float[] values, int transform, Spectrum value) {
+        values[transform * 4] = value.getR();
+        values[transform * 4 + 1] = value.getG();
+        values[transform * 4 + 2] = value.getB();
+        values[transform * 4 + 3] = value.toScalar();
+    }
+
+    private static Vector3f rotate(Vector3f direction, float cos, float sin) {
+        return new Vector3f(direction.x * cos - direction.z * sin, direction.y, direction.x * sin + direction.z * cos);
+    }
+
+    // Fixed pairs of directions over the hemisphere, half of them near the mirror direction where lobes peak
+    private static Vector3f[][] pairs() {
+        Random random = new Random(5);
+        Vector3f[][] pairs = new Vector3f[PAIRS][];
+        for (int p = 0; p < PAIRS; p++) {
+            Vector3f in = hemisphere(random);
+            Vector3f out = p % 2 == 0 ? hemisphere(random)
+                    : new Vector3f(-in.x, in.y, -in.z).add(hemisphere(random).mul(0.2f)).normalize();
+            if (out.y <= 0.05f) {
+                out.y = 0.05f;
+                out.normalize();
+            }
+            pairs[p] = new Vector3f[]{in, out};
+        }
+        return pairs;
+    }
+
+    private static Vector3f hemisphere(Random random) {
+        float y = 0.05f + 0.95f * random.nextFloat();
+        float phi = (float) (2 * Math.PI * random.nextFloat());
+        float r = (float) Math.sqrt(1 - y * y);
+        return new Vector3f(r * (float) Math.cos(phi), y, r * (float) Math.sin(phi));
+    }
+
+    /**
+     * Rotate an incident ray around the normal to azimuth zero, where the lobes of isotropic BRDFs are built
+     * @param incident Incident light ray, rotated in place
+     * @return float Returns the azimuth the incident ray had, in radians from the x axis towards the z axis.
+     */
+    static float toAzimuthZero(Vector3f incident) {
+        float azimuth = incident.x == 0 && incident.z == 0 ? 0 : (float) Math.atan2(incident.z, incident.x);
+        incident.set((float) Math.sqrt(incident.x * incident.x + incident.z * incident.z), incident.y, 0);
+        return azimuth;
+    }
+
+    private static Optional<Method> findMethod(Class<?> brdfClass) {
+        try {
+            Method method = brdfClass.getMethod("isIsotropic");
+            if (method.getReturnType() == boolean.class || method.getReturnType() == Boolean.class) {
+                return Optional.of(method);
+            }
+        } catch (NoSuchMethodException e) {
+            // Not declared, the BRDF is not known to be isotropic
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,259 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import com.nicky.resources.HalfFloat;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ShortBuffer;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+/**
+ * <h1>Lobe Atlas</h1>
+ * Lobes of a BRDF precomputed for a grid of incident elevations and azimuths.
+ * Every lobe stores the radius and colour of each hemisphere direction as half floats in off-heap memory.
+ * The atlas is built in the background, lobes in parallel on the evaluator's workers, and reports its progress.
+ * Once built, any incident direction is shown by blending the four nearest lobes without evaluating the BRDF.
+ * A new build, or a change of the BRDF's parameters, invalidates the atlas.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class LobeAtlas {
+
+    private static final Logger LOGGER = Logger.getLogger(LobeAtlas.class.getName());
+
+    // Half floats per direction: radius, red, green, blue
+    private static final int CHANNELS = 4;
+    private static final float HALF_PI = (float) (Math.PI * 0.5);
+    private static final float TWO_PI = (float) (Math.PI * 2);
+
+    private final int elevations;
+    private final int azimuths;
+    private final HemisphereTable directions;
+    private final ShortBuffer atlas;
+    private final LobeEvaluator evaluator;
+    private final ExecutorService worker;
+    private final AtomicInteger completed;
+
+    private volatile boolean ready;
+    private volatile int generation;
+    private BRDF brdf;
+    private int parametersHash;
+
+    /**
+     * @param elevations Number of incident elevations, from the normal towards the horizon
+     * @param azimuths Number of incident azimuths around the normal
+     * @param resolution Rings and sectors count of every lobe
+     * @param evaluator Evaluator whose workers build the lobes
+     */
+    public LobeAtlas(int elevations, int azimuths, int resolution, LobeEvaluator evaluator) {
+        this.elevations = Math.max(2, elevations);
+        this.azimuths = Math.max(1, azimuths);
+        this.evaluator = evaluator;
+        directions = HemisphereTable.get(resolution, resolution);
+        atlas = MemoryUtil.memAllocShort(this.elevations * this.azimuths * directions.size() * CHANNELS);
+        completed = new AtomicInteger();
+
+        worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lobe-atlas");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Build the atlas of a BRDF in the background, abandoning any build in progress
+     * @param brdf BRDF to precompute
+     */
+    public void build(BRDF brdf) {
+        int buildGeneration = invalidate();
+        worker.execute(() -> {
+            try {
+                build(buildGeneration, brdf);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Could not build lobe atlas", e);
+            }
+        });
+    }
+
+    /**
+     * Mark the atlas out of date and stop any build in progress
+     * @return int Returns the new generation of the atlas.
+     */
+    public int invalidate() {
+        ready = false;
+        completed.set(0);
+        return ++generation;
+    }
+
+    /**
+     * @return boolean Returns true once the atlas is built for this BRDF with its current parameters.
+     */
+    public boolean isReadyFor(BRDF brdf) {
+        return ready && brdf != null && brdf == this.brdf && Objects.hashCode(brdf.getParameters()) == parametersHash;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return boolean Returns true while a build is in progress.
+     */
+    public boolean isBuilding() {
+        return !ready && completed.get() > 0;
+    }
+
+    /**
+     * @return float Fraction of lobes built, from 0 to 1
+     */
+    public float getProgress() {
+        return ready ? 1f : (float) completed.get() / (elevations * azimuths);
+    }
+
+    /**
+     * Blend the lobes nearest to an incident direction
+     * @param elevation Angle of the incident ray from the normal, in radians
+     * @param azimuth Angle of the incident ray around the normal from the x axis, in radians
+     * @param positions Output lobe vertex positions, 3 floats per direction
+     * @param colours Output lobe vertex colours, 3 floats per direction
+     * @return boolean Returns false if the atlas is not built.
+     */
+    public boolean lookup(float elevation, float azimuth, float[] positions, float[] colours) {
+        if (!ready) {
+            return false;
+        }
+
+        float u = Math.max(0, Math.min(elevations - 1, elevation / HALF_PI * elevations));
+        float v = (azimuth / TWO_PI * azimuths) % azimuths;
+        if (v < 0) {
+            v += azimuths;
+        }
+        int e0 = Math.min((int) u, elevations - 2);
+        int a0 = (int) v % azimuths;
+        int a1 = (a0 + 1) % azimuths;
+        float fu = u - e0;
+        float fv = v - (int) v;
+
+        int n = directions.size();
+        int l00 = ((e0 * azimuths) + a0) * n * CHANNELS;
+        int l01 = ((e0 * azimuths) + a1) * n * CHANNELS;
+        int l10 = (((e0 + 1) * azimuths) + a0) * n * CHANNELS;
+        int l11 = (((e0 + 1) * azimuths) + a1) * n * CHANNELS;
+        float w00 = (1 - fu) * (1 - fv);
+        float w01 = (1 - fu) * fv;
+        float w10 = fu * (1 - fv);
+        float w11 = fu * fv;
+
+        for (int d = 0, i = 0; d < n; d++, i += 3) {
+            int c = d * CHANNELS;
+            float radius = blend(l00 + c, l01 + c, l10 + c, l11 + c, w00, w01, w10, w11);
+            positions[i] = directions.x[d] * radius;
+            positions[i + 1] = directions.y[d] * radius;
+            positions[i + 2] = directions.z[d] * radius;
+            colours[i] = blend(l00 + c + 1, l01 + c + 1, l10 + c + 1, l11 + c + 1, w00, w01, w10, w11);
+            colours[i + 1] = blend(l00 + c + 2, l01 + c + 2, l10 + c + 2, l11 + c + 2, w00, w01, w10, w11);
+            colours[i + 2] = blend(l00 + c + 3, l01 + c + 3, l10 + c + 3, l11 + c + 3, w00, w01, w10, w11);
+        }
+        return true;
+    }
+
+    /**
+     * @return int[] Triangle indices of every lobe in the atlas
+     */
+    public int[] getIndices() {
+        return directions.getIndices();
+    }
+
+    /**
+     * @return int Number of floats in the position and colour arrays of a lobe
+     */
+    public int getLobeLength() {
+        return directions.size() * 3;
+    }
+
+    public int getBytes() {
+        return atlas.capacity() * Short.BYTES;
+    }
+
+    /**
+     * Stop any build in progress and free the atlas
+     */
+    public void cleanup() {
+        invalidate();
+        worker.shutdownNow();
+        boolean terminated = false;
+        try {
+            terminated = worker.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // The atlas may still be written by a build that did not stop in time
+        if (terminated) {
+            memFree(atlas);
+        }
+    }
+
+    private float blend(int i00, int i01, int i10, int i11, float w00, float w01, float w10, float w11) {
+        return HalfFloat.toFloat(atlas.get(i00)) * w00 + HalfFloat.toFloat(atlas.get(i01)) * w01
+                + HalfFloat.toFloat(atlas.get(i10)) * w10 + HalfFloat.toFloat(atlas.get(i11)) * w11;
+    }
+
+    private void build(int buildGeneration, BRDF brdf) {
+        if (buildGeneration != generation) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        BatchBRDF batch = BatchBRDF.of(brdf);
+        int n = directions.size();
+
+        evaluator.forEach(elevations * azimuths, lobe -> {
+            // Superseded builds skip their remaining lobes
+            if (buildGeneration != generation) {
+                return;
+            }
+
+            float elevation = (lobe / azimuths) * HALF_PI / elevations;
+            float azimuth = (lobe % azimuths) * TWO_PI / azimuths;
+            Vector3f incident = new Vector3f((float) (Math.sin(elevation) * Math.cos(azimuth)),
+                    (float) Math.cos(elevation),
+                    (float) (Math.sin(elevation) * Math.sin(azimuth)));
+
+            float[] red = new float[n];
+            float[] green = new float[n];
+            float[] blue = new float[n];
+            float[] scalar = new float[n];
+            batch.evaluate(incident, directions.x, directions.y, directions.z, 0, n, red, green, blue, scalar);
+
+            int offset = lobe * n * CHANNELS;
+            for (int d = 0; d < n; d++) {
+                int c = offset + d * CHANNELS;
+                atlas.put(c, HalfFloat.toHalf(scalar[d]));
+                atlas.put(c + 1, HalfFloat.toHalf(red[d]));
+                atlas.put(c + 2, HalfFloat.toHalf(green[d]));
+                atlas.put(c + 3, HalfFloat.toHalf(blue[d]));
+            }
+            completed.incrementAndGet();
+        });
+
+        if (buildGeneration == generation) {
+            this.brdf = brdf;
+            parametersHash = Objects.hashCode(brdf.getParameters());
+            ready = true;
+            LOGGER.info("Built lobe atlas of " + elevations * azimuths + " lobes in "
+                    + (System.nanoTime() - start) / 1000000 + "ms (" + getBytes() / 1024 + "KB)");
+        }
+    }
+}
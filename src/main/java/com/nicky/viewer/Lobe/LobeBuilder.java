@@ -0,0 +1,473 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import com.nicky.engine.VertexFormat;
+import com.nicky.viewer.Items.Sphere;
+import org.joml.Vector3f;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <h1>Lobe Builder</h1>
+ * Builds lobes on a dedicated worker thread so a slow BRDF never blocks the render loop.
+ * Every request gets a new generation, requests still queued or being refined when a newer one arrives are
+ * abandoned, so only the latest incident direction and BRDF are ever evaluated to completion.
+ * Completed lobes are published through a lock-free double buffer: the worker fills the spare buffer and
+ * swaps it in as the ready lobe, the render thread takes the ready lobe, uploads it and hands the buffer back.
+ * The worker owns the sphere, the progressive lobe, the tessellator and the tabulated BRDF,
+ * the render thread only touches published {@link LobeGeometry}.
+ * The sphere resolution requested by the render thread is applied by the worker before its next build,
+ * and the duration of every completed full resolution build is recorded.
+ * In point cloud mode the lobe is previewed by a {@link PointCloudSampler} instead of being triangulated.
+ * Lobes are published in the vertex format of the mesh they are uploaded to, encoded by the worker.
+ * When consecutive lobes come from the same sphere, each records which of its attributes changed, so a change of
+ * colour alone, like a spectral parameter, is uploaded without the positions. A request made after such a parameter
+ * edit, see {@link BRDFParameters}, only evaluates the colours of the lobe the sphere holds.
+ * Lobes of isotropic BRDFs only depend on the elevation of the incident ray. They are built for the ray rotated to
+ * azimuth zero, and cached by elevation, and published with the azimuth the mesh must be rotated by. A request that
+ * only changes the azimuth then neither evaluates the BRDF nor changes the mesh.
+ * Lobes evaluated ahead by a {@link LobePrefetcher} are taken like cached ones.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class LobeBuilder {
+
+    private static final Logger LOGGER = Logger.getLogger(LobeBuilder.class.getName());
+
+    private final ExecutorService worker;
+    private final AtomicLong generation;
+    private final AtomicReference<LobeGeometry> ready;
+    private final AtomicReference<LobeGeometry> spare;
+
+    private final LobeEvaluator evaluator;
+    private final Sphere sphere;
+    private final ProgressiveLobe progressiveLobe;
+    private final AdaptiveLobeTessellator tessellator;
+    private final LobeCache cache;
+
+    private volatile LobePrefetcher prefetcher;
+    private volatile Isotropy isotropy;
+    private PointCloudSampler pointCloudSampler;
+    private Object lastPublished; // source of the last published lobe, only used by the worker
+    private long serial;
+    private LobeCache.Key sphereKey; // lobe held by the full sphere, null while it is being evaluated
+    private volatile boolean pointCloud;
+    private volatile VertexFormat vertexFormat;
+    private volatile int resolution;
+    private volatile long lastBuildNanos;
+    private volatile int lastBuildResolution;
+    private volatile long builds;
+
+    private int[] tableResolution;
+    private int tableErrorSamples;
+    private float tableMaxError;
+    private TabulatedBRDF table;
+
+    /**
+     * @param evaluator Evaluator the sphere and tables are evaluated on
+     * @param sphere Full resolution sphere, must be initialised and only be used by this builder from now on
+     * @param progressiveLobe Coarse-to-fine lobe refining the sphere, may be null to always build full lobes
+     * @param tessellator Adaptive tessellator used instead of the sphere, may be null
+     * @param cache Cache of full resolution lobes
+     */
+    public LobeBuilder(LobeEvaluator evaluator, Sphere sphere, ProgressiveLobe progressiveLobe,
+                       AdaptiveLobeTessellator tessellator, LobeCache cache) {
+        this.evaluator = evaluator;
+        this.sphere = sphere;
+        this.progressiveLobe = progressiveLobe;
+        this.tessellator = tessellator;
+        this.cache = cache;
+
+        worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lobe-builder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        generation = new AtomicLong();
+        ready = new AtomicReference<>();
+        spare = new AtomicReference<>(new LobeGeometry());
+        resolution = sphere.getRings();
+        vertexFormat = VertexFormat.FLOAT;
+        isotropy = evaluator.getIsotropy();
+    }
+
+    /**
+     * @param isotropy Tells which BRDFs have their lobes built at azimuth zero and cached by elevation, null to
+     *                 always build lobes at the azimuth of the incident ray. Defaults to the evaluator's, but is
+     *                 independent of whether the evaluator mirrors lobes.
+     */
+    public void setIsotropy(Isotropy isotropy) {
+        this.isotropy = isotropy;
+    }
+
+    /**
+     * @param vertexFormat Vertex format of the mesh published lobes are uploaded to
+     */
+    public void setVertexFormat(VertexFormat vertexFormat) {
+        this.vertexFormat = vertexFormat;
+    }
+
+    /**
+     * @param sampler Sampler of point cloud lobes, null disables point cloud mode
+     */
+    public void setPointCloudSampler(PointCloudSampler sampler) {
+        pointCloudSampler = sampler;
+    }
+
+    /**
+     * Show lobes as point clouds from the next build on, when a point cloud sampler is set
+     */
+    public void setPointCloud(boolean pointCloud) {
+        this.pointCloud = pointCloud;
+    }
+
+    public boolean isPointCloud() {
+        return pointCloud && pointCloudSampler != null;
+    }
+
+    /**
+     * Set the rings and sectors count of the sphere, used from the next build on
+     */
+    public void setResolution(int resolution) {
+        this.resolution = resolution;
+    }
+
+    /**
+     * @return int Rings and sectors count of the sphere from the next build on
+     */
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * @param prefetcher Prefetcher whose lobes are taken before evaluating a grid lobe, null disables prefetching
+     */
+    public void setPrefetcher(LobePrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * @return long Duration of the last full resolution build, including any coarse lobe shown before it.
+     * A refinement superseded by a newer request is projected from the rings it refined.
+     */
+    public long getLastBuildNanos() {
+        return lastBuildNanos;
+    }
+
+    public int getLastBuildResolution() {
+        return lastBuildResolution;
+    }
+
+    /**
+     * @return long Number of full resolution builds measured, superseded refinements included, cache hits excluded
+     */
+    public long getBuilds() {
+        return builds;
+    }
+
+    /**
+     * Tabulate BRDFs before building their lobes, see {@link TabulatedBRDF}
+     * @param thetaInRes Number of incident elevations
+     * @param thetaOutRes Number of exitant elevations
+     * @param phiRes Number of azimuth differences
+     * @param errorSamples Number of samples the table is compared against the BRDF with
+     * @param maxError Largest error, relative to the peak of the BRDF, that is not visible in the lobe
+     */
+    public void setTabulation(int thetaInRes, int thetaOutRes, int phiRes, int errorSamples, float maxError) {
+        tableResolution = new int[]{thetaInRes, thetaOutRes, phiRes};
+        tableErrorSamples = errorSamples;
+        tableMaxError = maxError;
+    }
+
+    /**
+     * Request a lobe, superseding any previous request
+     * @param brdfAlias BRDF alias
+     * @param brdf BRDF to evaluate, null publishes the sphere as it is
+     * @param incident Incident light ray, normalised
+     * @param preview Publish a coarse lobe first and refine it, used while the incident ray is dragged
+     * @return long Returns the generation of the request.
+     */
+    public long request(String brdfAlias, BRDF brdf, Vector3f incident, boolean preview) {
+        return request(brdfAlias, brdf, incident, preview, LobeEvaluator.ALL);
+    }
+
+    /**
+     * Request a lobe, superseding any previous request
+     * @param outputs Outputs of the lobe changed since the previous request, {@link LobeEvaluator#COLOURS} when
+     *                only parameter edits which left the BRDF's scalar value as it is were made
+     * @return long Returns the generation of the request.
+     */
+    public long request(String brdfAlias, BRDF brdf, Vector3f incident, boolean preview, int outputs) {
+        long requestGeneration = generation.incrementAndGet();
+        Vector3f requestIncident = new Vector3f(incident);
+        worker.execute(() -> build(requestGeneration, brdfAlias, brdf, requestIncident, preview, outputs));
+        return requestGeneration;
+    }
+
+    /**
+     * Take the latest completed lobe, called by the render thread
+     * @return LobeGeometry Returns the lobe, or null if none was completed since the last call.
+     * It must be handed back with {@link #release(LobeGeometry)} once uploaded.
+     */
+    public LobeGeometry poll() {
+        return ready.getAndSet(null);
+    }
+
+    /**
+     * Hand back a lobe taken with {@link #poll()} so the worker can reuse its buffers
+     */
+    public void release(LobeGeometry lobe) {
+        spare.compareAndSet(null, lobe);
+    }
+
+    /**
+     * Stop the worker, abandoning any pending request
+     */
+    public void cleanup() {
+        generation.incrementAndGet();
+        worker.shutdownNow();
+        boolean terminated = false;
+        try {
+            terminated = worker.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // The table may still be read by a build that did not stop in time
+        if (table != null && terminated) {
+            evaluator.setTable(null);
+            table.cleanup();
+            table = null;
+        }
+    }
+
+    private boolean isSuperseded(long requestGeneration) {
+        return generation.get() != requestGeneration;
+    }
+
+    private void build(long requestGeneration, String brdfAlias, BRDF brdf, Vector3f incident, boolean preview,
+                       int outputs) {
+        // A newer request is already queued
+        if (isSuperseded(requestGeneration)) {
+            return;
+        }
+
+        try {
+            if (sphere.getRings() != resolution || sphere.getSectors() != resolution) {
+                if (progressiveLobe != null) {
+                    progressiveLobe.cancel();
+                }
+                sphere.setResolution(resolution, resolution);
+                sphereKey = null;
+            }
+
+            if (brdf == null) {
+                sphereKey = null;
+                publish(sphere, 0);
+            } else if (isPointCloud()) {
+                samplePoints(requestGeneration, brdfAlias, brdf, incident);
+            } else if (tessellator != null) {
+                tessellate(requestGeneration, brdfAlias, brdf, incident);
+            } else {
+                sample(requestGeneration, brdfAlias, brdf, incident, preview, outputs);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not build lobe for " + brdfAlias, e);
+        }
+    }
+
+    private void samplePoints(long requestGeneration, String brdfAlias, BRDF brdf, Vector3f incident) {
+        prepareTable(brdfAlias, brdf);
+        long start = System.nanoTime();
+        pointCloudSampler.sample(incident, brdf, table, evaluator);
+        if (!isSuperseded(requestGeneration)) {
+            publish(pointCloudSampler, pointCloudSampler.getPositions(), pointCloudSampler.getIndices(),
+                    pointCloudSampler.getColours(), null, true, LobeEvaluator.ALL, 0);
+            LOGGER.info("Sampled point cloud... (" + pointCloudSampler.getPoints() + " points in "
+                    + (System.nanoTime() - start) / 1000000 + "ms)");
+        }
+    }
+
+    private void tessellate(long requestGeneration, String brdfAlias, BRDF brdf, Vector3f incident) {
+        LOGGER.info("Tessellating BRDF: " + brdfAlias);
+        prepareTable(brdfAlias, brdf);
+        tessellator.tessellate(incident, brdf, table);
+        if (!isSuperseded(requestGeneration)) {
+            publish(tessellator, tessellator.getVertices(), tessellator.getIndices(), tessellator.getColours(), null,
+                    false, LobeEvaluator.ALL, 0);
+            LOGGER.info("Built adaptive lobe... (" + tessellator.getEvaluations() + " evaluations, "
+                    + tessellator.getVertexCount() + " vertices)");
+        }
+    }
+
+    private void sample(long requestGeneration, String brdfAlias, BRDF brdf, Vector3f incident, boolean preview,
+                        int outputs) {
+        // Isotropic lobes are built at azimuth zero and rotated by the mesh
+        Isotropy isotropy = this.isotropy;
+        float azimuth = 0;
+        if (isotropy != null && isotropy.isIsotropic(brdf)) {
+            incident = new Vector3f(incident);
+            azimuth = Isotropy.toAzimuthZero(incident);
+        }
+
+        // The sphere already holds the lobe, only its azimuth changed
+        LobeCache.Key key = cache.getKey(brdfAlias, brdf, incident, sphere);
+        if (key.equals(sphereKey)) {
+            if (progressiveLobe != null) {
+                progressiveLobe.cancel();
+            }
+            publish(sphere, azimuth);
+            return;
+        }
+
+        // Cache hits skip evaluation and only upload the mesh
+        LobeCache.Key heldKey = sphereKey;
+        sphereKey = null;
+        if (cache.load(key, sphere)) {
+            if (progressiveLobe != null) {
+                progressiveLobe.cancel();
+            }
+            sphereKey = key;
+            publish(sphere, azimuth);
+            LOGGER.info("Loaded lobe from cache... (" + cache.getHits() + " hits, " + cache.getMisses() + " misses)");
+            return;
+        }
+
+        // Predicted while the incident ray was moved, and evaluated ahead of the request
+        LobePrefetcher lobePrefetcher = prefetcher;
+        if (lobePrefetcher != null && lobePrefetcher.take(key, sphere)) {
+            if (progressiveLobe != null) {
+                progressiveLobe.cancel();
+            }
+            cache.store(key, sphere);
+            sphereKey = key;
+            publish(sphere, azimuth);
+            LOGGER.info("Loaded prefetched lobe... (" + lobePrefetcher.getHits() + " hits)");
+            return;
+        }
+
+        prepareTable(brdfAlias, brdf);
+
+        // Only the colour of the BRDF changed, the positions of the lobe the sphere holds are kept
+        if (outputs == LobeEvaluator.COLOURS && key.hasSameIncidentAs(heldKey)) {
+            if (progressiveLobe != null) {
+                progressiveLobe.cancel();
+            }
+            long start = System.nanoTime();
+            sphere.sampleColours(incident, brdf);
+            cache.store(key, sphere);
+            sphereKey = key;
+            if (!isSuperseded(requestGeneration)) {
+                publish(sphere, azimuth);
+                LOGGER.info("Recoloured lobe... (" + (System.nanoTime() - start) / 1000000 + "ms)");
+            }
+            return;
+        }
+
+        long start = System.nanoTime();
+        if (preview && progressiveLobe != null) {
+            // Coarse lobe first, then refine the full lobe until it completes or a newer request arrives
+            Sphere coarse = progressiveLobe.request(incident, brdf);
+            if (isSuperseded(requestGeneration)) {
+                return;
+            }
+            publish(coarse, azimuth);
+
+            long refineStart = System.nanoTime();
+            boolean refined = progressiveLobe.refine(() -> isSuperseded(requestGeneration));
+            // Refinements are rarely completed while the incident ray is dragged, superseded ones are projected
+            // to the whole lobe so the governor still sees what a lobe costs
+            float progress = progressiveLobe.getProgress();
+            if (progress > 0) {
+                recordBuild(refineStart - start + (long) ((System.nanoTime() - refineStart) / progress));
+            }
+            if (refined) {
+                cache.store(key, sphere);
+                sphereKey = key;
+                publish(sphere, azimuth);
+                LOGGER.info("Refined lobe... (" + sphere.getLastRebuildAllocatedBytes() + " bytes allocated)");
+            }
+        } else {
+            if (progressiveLobe != null) {
+                progressiveLobe.cancel();
+            }
+            LOGGER.info("Evaluating BRDF: " + brdfAlias);
+            sphere.sampleBRDF(incident, brdf);
+            recordBuild(System.nanoTime() - start);
+            cache.store(key, sphere);
+            sphereKey = key;
+            if (!isSuperseded(requestGeneration)) {
+                publish(sphere, azimuth);
+                LOGGER.info("Built lobe... (" + sphere.getLastRebuildAllocatedBytes() + " bytes allocated)");
+            }
+        }
+    }
+
+    private void recordBuild(long buildNanos) {
+        lastBuildNanos = buildNanos;
+        lastBuildResolution = sphere.getRings();
+        builds++;
+    }
+
+    // Publish the lobe of a sphere with the changes it recorded since its last publication
+    private void publish(Sphere lobe, float azimuth) {
+        publish(lobe, lobe.getVertices(), lobe.getIndices(), lobe.getColours(), lobe.getStatistics(), false,
+                lobe.takeChanges(), azimuth);
+    }
+
+    // Fill the spare buffer and swap it in as the ready lobe, changes are relative to the previously published
+    // lobe and only hold if it came from the same source
+    private void publish(Object source, float[] vertices, int[] indices, float[] colours, LobeStatistics statistics,
+                         boolean points, int changes, float azimuth) {
+        if (source != lastPublished) {
+            changes = LobeEvaluator.ALL;
+        }
+        lastPublished = source;
+
+        LobeGeometry buffer = spare.getAndSet(null);
+        if (buffer == null) {
+            // The render thread did not take the previous lobe, it is superseded by this one
+            buffer = ready.getAndSet(null);
+        }
+        if (buffer == null) {
+            buffer = new LobeGeometry();
+        }
+        buffer.set(vertices, indices, colours, statistics, points, vertexFormat, ++serial, changes, azimuth);
+
+        LobeGeometry previous = ready.getAndSet(buffer);
+        if (previous != null) {
+            spare.compareAndSet(null, previous);
+        }
+    }
+
+    /**
+     * Tabulate a BRDF when tabulation is enabled and its parameters changed since it was last tabulated
+     */
+    private void prepareTable(String brdfAlias, BRDF brdf) {
+        if (tableResolution == null || (table != null && table.isFor(brdf))) {
+            return;
+        }
+
+        if (table != null) {
+            evaluator.setTable(null);
+            table.cleanup();
+        }
+        table = new TabulatedBRDF(tableResolution[0], tableResolution[1], tableResolution[2]);
+
+        long start = System.nanoTime();
+        table.build(brdf, evaluator);
+        LOGGER.info("Tabulated " + brdfAlias + " in " + (System.nanoTime() - start) / 1000000 + "ms ("
+                + table.getBytes() / 1024 + "KB)");
+        LOGGER.info(table.compare(tableErrorSamples, tableMaxError).toString());
+
+        evaluator.setTable(table);
+    }
+}
@@ -0,0 +1,196 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import com.nicky.viewer.Items.Sphere;
+import org.joml.Vector3f;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <h1>Lobe Cache</h1>
+ * Bounded cache of evaluated lobe geometry.
+ * Lobes are keyed by BRDF alias, a hash of the BRDF parameters, the quantized incident direction and the
+ * lobe resolution, and evicted least recently used first once the memory budget is exceeded.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class LobeCache {
+
+    // Approximate bookkeeping cost of an entry on top of its arrays
+    private static final long ENTRY_OVERHEAD_BYTES = 128;
+
+    private final long budgetBytes;
+    private final float quantization;
+    private final LinkedHashMap<Key, Lobe> lobes;
+    private long usedBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param budgetBytes Maximum memory used by cached lobes
+     * @param quantization Step the incident direction components are rounded to
+     */
+    public LobeCache(long budgetBytes, float quantization) {
+        this.budgetBytes = budgetBytes;
+        this.quantization = quantization;
+        lobes = new LinkedHashMap<>(16, 0.75f, true); // access order, eldest is least recently used
+        usedBytes = 0;
+    }
+
+    /**
+     * Build the cache key of a lobe
+     * @param alias BRDF alias
+     * @param brdf BRDF instance, its parameters are part of the key
+     * @param incident Incident light ray, normalised
+     * @param sphere Sphere the lobe is built on, its resolution is part of the key
+     * @return Key Returns the cache key.
+     */
+    public Key getKey(String alias, BRDF brdf, Vector3f incident, Sphere sphere) {
+        return getKey(alias, brdf, incident, sphere.getHemisphereRings(), sphere.getSectors());
+    }
+
+    /**
+     * Build the cache key of a lobe without the sphere it is built on, such as a lobe not built yet
+     * @param hemisphereRings Number of rings kept in the upper hemisphere of the sphere
+     * @param sectors Number of sectors per ring
+     * @return Key Returns the cache key.
+     */
+    public Key getKey(String alias, BRDF brdf, Vector3f incident, int hemisphereRings, int sectors) {
+        return new Key(alias, brdf == null ? 0 : Objects.hashCode(brdf.getParameters()),
+                Math.round(incident.x / quantization),
+                Math.round(incident.y / quantization),
+                Math.round(incident.z / quantization),
+                hemisphereRings, sectors);
+    }
+
+    /**
+     * Copy a cached lobe into a sphere
+     * @return boolean Returns true on a cache hit.
+     */
+    public synchronized boolean load(Key key, Sphere sphere) {
+        Lobe lobe = lobes.get(key);
+        if (lobe == null) {
+            misses++;
+            return false;
+        }
+        hits++;
+        sphere.loadLobe(lobe.vertices, lobe.colours, lobe.statistics);
+        return true;
+    }
+
+    /**
+     * Store a copy of the lobe currently held by a sphere
+     */
+    public synchronized void store(Key key, Sphere sphere) {
+        Lobe lobe = new Lobe(sphere.getVertices().clone(), sphere.getColours().clone(), sphere.getStatistics());
+        if (lobe.bytes > budgetBytes) {
+            return;
+        }
+
+        Lobe previous = lobes.put(key, lobe);
+        if (previous != null) {
+            usedBytes -= previous.bytes;
+        }
+        usedBytes += lobe.bytes;
+
+        // Evict least recently used lobes until within budget
+        Iterator<Map.Entry<Key, Lobe>> iterator = lobes.entrySet().iterator();
+        while (usedBytes > budgetBytes && iterator.hasNext()) {
+            usedBytes -= iterator.next().getValue().bytes;
+            iterator.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        lobes.clear();
+        usedBytes = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int size() {
+        return lobes.size();
+    }
+
+    /**
+     * Identifies a lobe by BRDF, parameters, quantized incident direction and resolution.
+     */
+    public static final class Key {
+
+        private final String alias;
+        private final int parametersHash;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final int rings;
+        private final int sectors;
+
+        private Key(String alias, int parametersHash, int x, int y, int z, int rings, int sectors) {
+            this.alias = alias;
+            this.parametersHash = parametersHash;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.rings = rings;
+            this.sectors = sectors;
+        }
+
+        /**
+         * @return boolean Returns true if both keys are for the same BRDF, incident ray and resolution, whatever
+         * the BRDF's parameters.
+         */
+        public boolean hasSameIncidentAs(Key other) {
+            return other != null && x == other.x && y == other.y && z == other.z && rings == other.rings
+                    && sectors == other.sectors && Objects.equals(alias, other.alias);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return parametersHash == key.parametersHash && x == key.x && y == key.y && z == key.z
+                    && rings == key.rings && sectors == key.sectors && Objects.equals(alias, key.alias);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(alias, parametersHash, x, y, z, rings, sectors);
+        }
+    }
+
+    private static final class Lobe {
+
+        private final float[] vertices;
+        private final float[] colours;
+        private final LobeStatistics statistics;
+        private final long bytes;
+
+        private Lobe(float[] vertices, float[] colours, LobeStatistics statistics) {
+            this.vertices = vertices;
+            this.colours = colours;
+            this.statistics = new LobeStatistics();
+            this.statistics.set(statistics);
+            bytes = 4L * (vertices.length + colours.length) + ENTRY_OVERHEAD_BYTES;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * <h1>Lobe Evaluator</h1>
+ * Evaluates a BRDF over the hemisphere directions of a lobe.
+ * The rings of the hemisphere are split into bands which are evaluated in parallel on a fork-join pool,
+ * each band writing straight into the preallocated position and colour arrays.
+ * Every direction is always written to the same slot, so the output is identical to the serial path.
+ * Band tasks and their scratch vectors are created once per resolution and reused by every evaluation.
+ * A range of rings can be evaluated on its own, which lets a lobe be refined over several frames.
+ * Each band evaluates its directions in one call to a {@link BatchBRDF} kernel, then scales them into positions.
+ * The same loop gathers the {@link LobeStatistics} of every ring and replaces invalid values by zero.
+ * It also reports which of the positions and colours differ from the values they overwrite, so a change that
+ * only affects colour, such as a spectral parameter, only needs its colours uploaded. When such a change is known
+ * beforehand, see {@link BRDFParameters}, the lobe can be evaluated for its colours only, leaving positions as they
+ * are.
+ * The lobe of an isotropic BRDF, see {@link Isotropy}, is symmetric about the plane of incidence. It is evaluated
+ * for the incident ray rotated to azimuth zero, where sector s mirrors sector (sectors - 1 - s), so only half the
+ * sectors of each ring are evaluated and mirrored into the other half. The positions are then rotated back to the
+ * azimuth of the incident ray, which rotates the sampling grid with it. Lobes of a {@link ConstantBRDF} kernel are
+ * not mirrored, it fills a whole band as fast as half a ring.
+ * BRDFs which are not thread-safe, see {@link BRDFAccess}, have their bands evaluated one after the other on the
+ * calling thread, as workers would only wait for each other's lock.
+ * The evaluator may be shared: evaluations are serialised as they share the bands and batch results, while
+ * {@link #forEach} only uses the pool and may be called by several threads at once.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class LobeEvaluator {
+
+    // Number of bands queued per worker, keeps the pool balanced when some rings are slower to evaluate
+    private static final int BANDS_PER_WORKER = 4;
+
+    // Changes reported by an evaluation
+    public static final int POSITIONS = 1;
+    public static final int COLOURS = 2;
+    public static final int ALL = POSITIONS | COLOURS;
+
+    private final int workers;
+    private final ForkJoinPool pool;
+    private final BandsTask bandsTask;
+    private final List<Band[]> bandSets;
+    private Band[] bands;
+    private TabulatedBRDF table;
+    private Isotropy isotropy;
+    private final Vector3f canonical = new Vector3f(); // incident ray rotated to azimuth zero
+
+    // Batch results, indexed like the directions and written by the bands on disjoint ranges
+    private float[] red;
+    private float[] green;
+    private float[] blue;
+    private float[] scalar;
+
+    /**
+     * @param workers Number of worker threads, 1 evaluates serially on the calling thread
+     */
+    public LobeEvaluator(int workers) {
+        this(workers, Thread.NORM_PRIORITY);
+    }
+
+    /**
+     * @param workers Number of worker threads, 1 evaluates serially on the calling thread
+     * @param priority Priority of the worker threads, lower than the builder's for work done on idle cores
+     */
+    public LobeEvaluator(int workers, int priority) {
+        this.workers = Math.max(1, workers);
+        pool = this.workers > 1 ? new ForkJoinPool(this.workers, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setPriority(priority);
+            return thread;
+        }, null, false) : null;
+        bandsTask = new BandsTask();
+        bandSets = new ArrayList<>();
+        bands = new Band[0];
+        red = new float[0];
+        green = new float[0];
+        blue = new float[0];
+        scalar = new float[0];
+    }
+
+    /**
+     * Evaluate a BRDF for every direction of a hemisphere
+     * @param incident Incident light ray
+     * @param brdf BRDF to evaluate
+     * @param directions Hemisphere directions, laid out ring by ring
+     * @param positions Output lobe vertex positions (x,y,z), 3 floats per direction
+     * @param colours Output lobe vertex colours, 3 floats per direction
+     * @return int Returns the changed outputs, a combination of {@link #POSITIONS} and {@link #COLOURS}.
+     */
+    public int evaluate(Vector3f incident, BRDF brdf, HemisphereTable directions,
+                        float[] positions, float[] colours) {
+        return evaluate(incident, brdf, directions, positions, colours, 0, directions.getRings(), null);
+    }
+
+    /**
+     * Evaluate a BRDF for a range of rings of a hemisphere, leaving the other rings untouched
+     * @param ringStart First ring to evaluate
+     * @param ringEnd Ring after the last one to evaluate
+     * @param ringStatistics Output statistics of each hemisphere ring, only the evaluated rings are reset and
+     *                       gathered, may be null
+     * @return int Returns the outputs changed within the range, a combination of {@link #POSITIONS} and
+     * {@link #COLOURS}.
+     */
+    public int evaluate(Vector3f incident, BRDF brdf, HemisphereTable directions,
+                        float[] positions, float[] colours, int ringStart, int ringEnd,
+                        LobeStatistics[] ringStatistics) {
+        return evaluate(incident, brdf, directions, positions, colours, ringStart, ringEnd, ringStatistics, null);
+    }
+
+    /**
+     * Evaluate a range of rings of a hemisphere, measuring the heap allocations of the evaluation
+     * @param meter Running meter of the calling thread. It is paused while the bands run on the workers, which
+     *              add their own allocations to it, may be null
+     * @return int Returns the outputs changed within the range, a combination of {@link #POSITIONS} and
+     * {@link #COLOURS}.
+     */
+    public int evaluate(Vector3f incident, BRDF brdf, HemisphereTable directions,
+                        float[] positions, float[] colours, int ringStart, int ringEnd,
+                        LobeStatistics[] ringStatistics, AllocationMeter meter) {
+        return evaluate(incident, brdf, directions, positions, colours, ringStart, ringEnd, ringStatistics, meter,
+                ALL);
+    }
+
+    /**
+     * Evaluate a range of rings of a hemisphere, writing only some of the outputs
+     * @param outputs Outputs written, {@link #ALL}, or {@link #COLOURS} when the positions already hold the lobe
+     *                of this BRDF and incident ray and its parameter change left them as they are
+     * @return int Returns the outputs changed within the range, a combination of {@link #POSITIONS} and
+     * {@link #COLOURS}.
+     */
+    public synchronized int evaluate(Vector3f incident, BRDF brdf, HemisphereTable directions,
+                                     float[] positions, float[] colours, int ringStart, int ringEnd,
+                                     LobeStatistics[] ringStatistics, AllocationMeter meter, int outputs) {
+        if (brdf == null) {
+            return 0;
+        }
+        prepareBands(directions.getRings(), directions.getSectors());
+        if (scalar.length < directions.size()) {
+            red = new float[directions.size()];
+            green = new float[directions.size()];
+            blue = new float[directions.size()];
+            scalar = new float[directions.size()];
+        }
+
+        // Interpolate from the table when it was built for this BRDF
+        BatchBRDF batch = table != null && table.isFor(brdf) ? table : BatchBRDF.of(brdf);
+        // Isotropic lobes are evaluated for the incident ray at azimuth zero and rotated back, a constant kernel
+        // costs the same for any range and gains nothing from evaluating half of each ring
+        boolean mirrored = isotropy != null && directions.getSectors() > 2 && !(batch instanceof ConstantBRDF)
+                && isotropy.isIsotropic(brdf);
+        float cosAzimuth = 1;
+        float sinAzimuth = 0;
+        Vector3f in = incident;
+        if (mirrored) {
+            double azimuth = incident.x == 0 && incident.z == 0 ? 0 : Math.atan2(incident.z, incident.x);
+            cosAzimuth = (float) Math.cos(azimuth);
+            sinAzimuth = (float) Math.sin(azimuth);
+            in = canonical.set(incident.x * cosAzimuth + incident.z * sinAzimuth, incident.y, 0);
+        }
+
+        for (Band band : bands) {
+            band.set(in, batch, directions, positions, colours, ringStart, ringEnd, ringStatistics);
+            band.setMirrored(mirrored, cosAzimuth, sinAzimuth);
+            band.positionsWritten = (outputs & POSITIONS) != 0;
+        }
+
+        if (pool == null || !batch.isParallel()) {
+            for (Band band : bands) {
+                band.evaluate();
+            }
+        } else {
+            // Only the bands are measured on the workers, the pool's own bookkeeping and other tasks are not
+            boolean metered = meter != null && meter.isRunning();
+            for (Band band : bands) {
+                band.metered = metered;
+            }
+            if (metered) {
+                meter.pause();
+            }
+            bandsTask.reinitialize();
+            pool.invoke(bandsTask);
+            if (metered) {
+                meter.resume();
+                for (Band band : bands) {
+                    meter.add(band.allocatedBytes);
+                }
+            }
+        }
+
+        int changes = 0;
+        for (Band band : bands) {
+            changes |= band.changes;
+        }
+        return changes;
+    }
+
+    /**
+     * Run a task for every index of a range in parallel on the evaluator's workers.
+     * Safe to call from several threads at once, the tasks of every call share the workers.
+     * @param count Number of indices
+     * @param task Task run for each index, must be safe to run concurrently, evaluating BRDFs through
+     *             {@link BatchBRDF} or {@link BRDFAccess}
+     */
+    public void forEach(int count, IntConsumer task) {
+        if (pool == null) {
+            for (int i = 0; i < count; i++) {
+                task.accept(i);
+            }
+        } else {
+            pool.invoke(new RangeTask(task, 0, count, Math.max(1, count / (workers * BANDS_PER_WORKER))));
+        }
+    }
+
+    /**
+     * Use a tabulated BRDF instead of evaluating the BRDF it was built from
+     * @param table Tabulated BRDF, null to always evaluate BRDFs directly
+     */
+    public synchronized void setTable(TabulatedBRDF table) {
+        this.table = table;
+    }
+
+    /**
+     * Evaluate only half the lobe of isotropic BRDFs
+     * @param isotropy Tells which BRDFs are isotropic, null to always evaluate full lobes
+     */
+    public synchronized void setIsotropy(Isotropy isotropy) {
+        this.isotropy = isotropy;
+    }
+
+    /**
+     * @return Isotropy Returns the test of isotropic BRDFs, null if full lobes are always evaluated.
+     */
+    public synchronized Isotropy getIsotropy() {
+        return isotropy;
+    }
+
+    /**
+     * @return int Number of worker threads, 1 if evaluations run on the calling thread
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void cleanup() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    // Selects the bands for a resolution, they are only created the first time a resolution is seen
+    private void prepareBands(int rings, int sectors) {
+        for (int i = 0; i < bandSets.size(); i++) {
+            Band[] set = bandSets.get(i);
+            if (set[set.length - 1].ringEnd == rings && set[0].sectors == sectors) {
+                bands = set;
+                return;
+            }
+        }
+
+        int bandsNum = pool == null ? 1 : Math.max(1, Math.min(rings, workers * BANDS_PER_WORKER));
+        bands = new Band[bandsNum];
+        for (int i = 0; i < bandsNum; i++) {
+            bands[i] = new Band(rings * i / bandsNum, rings * (i + 1) / bandsNum, sectors);
+        }
+        bandSets.add(bands);
+    }
+
+    /**
+     * Forks every band and waits for all of them to complete.
+     */
+    private class BandsTask extends RecursiveAction {
+
+        @Override
+        protected void compute() {
+            for (Band band : bands) {
+                band.reinitialize();
+            }
+            invokeAll(bands);
+        }
+    }
+
+    /**
+     * Recursively halves a range of indices until it is small enough to run directly.
+     */
+    private static class RangeTask extends RecursiveAction {
+
+        private final IntConsumer task;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        RangeTask(IntConsumer task, int from, int to, int grain) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int i = from; i < to; i++) {
+                    task.accept(i);
+                }
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeTask(task, from, mid, grain), new RangeTask(task, mid, to, grain));
+        }
+    }
+
+    /**
+     * A contiguous range of rings.
+     */
+    private class Band extends RecursiveAction {
+
+        private final int ringStart;
+        private final int ringEnd;
+        private final int sectors;
+        private final Vector3f in = new Vector3f(); // incident ray, private to this band
+
+        private int from;
+        private int to;
+        private BatchBRDF batch;
+        private HemisphereTable directions;
+        private float[] positions;
+        private float[] colours;
+        private LobeStatistics[] ringStatistics;
+        private int changes;
+        private boolean metered;
+        private long allocatedBytes;
+        private boolean mirrored;
+        private boolean positionsWritten;
+        private float cosAzimuth;
+        private float sinAzimuth;
+        private final LobeStatistics discarded = new LobeStatistics(); // used when no statistics are requested
+
+        Band(int ringStart, int ringEnd, int sectors) {
+            this.ringStart = ringStart;
+            this.ringEnd = ringEnd;
+            this.sectors = sectors;
+        }
+
+        void set(Vector3f incident, BatchBRDF batch, HemisphereTable directions, float[] positions,
+                 float[] colours, int ringStart, int ringEnd, LobeStatistics[] ringStatistics) {
+            // Only the part of this band inside the requested range is evaluated
+            from = Math.max(this.ringStart, ringStart);
+            to = Math.min(this.ringEnd, ringEnd);
+            in.set(incident);
+            this.batch = batch;
+            this.directions = directions;
+            this.positions = positions;
+            this.colours = colours;
+            this.ringStatistics = ringStatistics;
+            changes = 0;
+        }
+
+        void setMirrored(boolean mirrored, float cosAzimuth, float sinAzimuth) {
+            this.mirrored = mirrored;
+            this.cosAzimuth = cosAzimuth;
+            this.sinAzimuth = sinAzimuth;
+        }
+
+        @Override
+        protected void compute() {
+            long start = metered ? AllocationMeter.threadAllocatedBytes() : -1;
+            evaluate();
+            allocatedBytes = metered ? AllocationMeter.threadAllocatedBytesSince(start) : 0;
+        }
+
+        void evaluate() {
+            if (from >= to) {
+                return;
+            }
+            float[] dx = directions.x;
+            float[] dy = directions.y;
+            float[] dz = directions.z;
+
+            // Evaluate BRDF, directions only cover the upper hemisphere
+            // Mirrored lobes only evaluate the sectors up to the plane of incidence, the others read their mirror
+            int half = (sectors + 1) / 2;
+            if (mirrored) {
+                for (int r = from; r < to; r++) {
+                    batch.evaluate(in, dx, dy, dz, r * sectors, r * sectors + half, red, green, blue, scalar);
+                }
+            } else {
+                batch.evaluate(in, dx, dy, dz, from * sectors, to * sectors, red, green, blue, scalar);
+            }
+
+            boolean positionsChanged = false;
+            boolean coloursChanged = false;
+            for (int r = from; r < to; r++) {
+                LobeStatistics statistics = ringStatistics != null ? ringStatistics[r] : discarded;
+                statistics.reset();
+                float solidAngle = directions.solidAngle[r];
+
+                for (int d = r * sectors, i = d * 3, s = 0; s < sectors; d++, i += 3, s++) {
+                    int v = mirrored && s >= half ? d + sectors - 1 - 2 * s : d;
+                    float ux = dx[d];
+                    float uz = dz[d];
+                    if (mirrored) {
+                        ux = dx[d] * cosAzimuth - dz[d] * sinAzimuth;
+                        uz = dx[d] * sinAzimuth + dz[d] * cosAzimuth;
+                    }
+
+                    // NaN, infinite and negative values would break the mesh, they are counted and drawn as zero
+                    float radius = statistics.sanitise(scalar[v]);
+                    float x = ux * radius;
+                    float y = dy[d] * radius;
+                    float z = uz * radius;
+                    float cr = statistics.sanitise(red[v]);
+                    float cg = statistics.sanitise(green[v]);
+                    float cb = statistics.sanitise(blue[v]);
+                    if (positionsWritten) {
+                        positionsChanged |= positions[i] != x | positions[i + 1] != y | positions[i + 2] != z;
+                        positions[i] = x;
+                        positions[i + 1] = y;
+                        positions[i + 2] = z;
+                    }
+                    coloursChanged |= colours[i] != cr | colours[i + 1] != cg | colours[i + 2] != cb;
+                    colours[i] = cr;
+                    colours[i + 1] = cg;
+                    colours[i + 2] = cb;
+                    statistics.add(radius, cr, cg, cb, ux, dy[d], uz, s < sectors - 1 ? solidAngle : 0);
+                }
+            }
+            changes = (positionsChanged ? POSITIONS : 0) | (coloursChanged ? COLOURS : 0);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.engine.VertexFormat;
+import org.joml.Vector3f;
+
+/**
+ * <h1>Lobe Geometry</h1>
+ * Completed lobe handed from the lobe builder to the render thread, ready to be uploaded to a mesh.
+ * Vertex positions and colours are copied into arrays owned by this buffer, which are reused while the
+ * lobe size stays the same. Indices only depend on the topology and are shared, not copied.
+ * Statistics of the lobe are copied with it, they are invalid for lobes built without them.
+ * With an interleaved {@link VertexFormat} the lobe is encoded by the builder instead of copied, so the render
+ * thread only uploads it.
+ * Every published lobe has a serial, and records which of its attributes changed since the lobe published before
+ * it. If that lobe is the one the mesh holds, only the changed attributes need to be uploaded.
+ * Lobes of isotropic BRDFs are built at azimuth zero, the mesh is rotated to the azimuth of the incident ray.
+ * Their statistics are rotated with them when copied, so the peak direction is that of the incident ray shown.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class LobeGeometry {
+
+    private float[] vertices;
+    private int[] indices;
+    private float[] colours;
+    private long serial;
+    private int changes;
+    private float azimuth;
+    private boolean points;
+    private final LobeStatistics statistics;
+    private VertexFormat format;
+    private int[] vertexData;
+    private final Vector3f positionOffset;
+    private final Vector3f positionScale;
+
+    LobeGeometry() {
+        vertices = new float[0];
+        indices = new int[0];
+        colours = new float[0];
+        statistics = new LobeStatistics();
+        format = VertexFormat.FLOAT;
+        vertexData = new int[0];
+        positionOffset = new Vector3f(0);
+        positionScale = new Vector3f(1);
+    }
+
+    void set(float[] vertices, int[] indices, float[] colours, LobeStatistics statistics, boolean points,
+             VertexFormat format, long serial, int changes, float azimuth) {
+        this.indices = indices;
+        this.serial = serial;
+        this.changes = changes;
+        this.azimuth = azimuth;
+        this.points = points;
+        this.statistics.set(statistics);
+        this.statistics.rotate(azimuth);
+        this.format = format;
+
+        if (format.isInterleaved()) {
+            int length = vertices.length / 3 * format.getWords();
+            if (vertexData.length != length) {
+                vertexData = new int[length];
+            }
+            format.encode(vertices, colours, vertexData, positionOffset, positionScale);
+            return;
+        }
+
+        if (this.vertices.length != vertices.length) {
+            this.vertices = new float[vertices.length];
+        }
+        if (this.colours.length != colours.length) {
+            this.colours = new float[colours.length];
+        }
+        System.arraycopy(vertices, 0, this.vertices, 0, vertices.length);
+        System.arraycopy(colours, 0, this.colours, 0, colours.length);
+    }
+
+    public float[] getVertices() {
+        return vertices;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    public float[] getColours() {
+        return colours;
+    }
+
+    public LobeStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return boolean Returns true if the lobe is encoded, {@link #getVertexData()} then replaces the vertices
+     * and colours.
+     */
+    public boolean isEncoded() {
+        return format.isInterleaved();
+    }
+
+    /**
+     * @return int[] Vertices encoded in the interleaved format the lobe was built for
+     */
+    public int[] getVertexData() {
+        return vertexData;
+    }
+
+    public Vector3f getPositionOffset() {
+        return positionOffset;
+    }
+
+    public Vector3f getPositionScale() {
+        return positionScale;
+    }
+
+    /**
+     * @return boolean Returns true if the lobe is a point cloud, drawn as points rather than triangles.
+     */
+    public boolean isPoints() {
+        return points;
+    }
+
+    /**
+     * @return long Serial of this lobe, incremented by every lobe published
+     */
+    public long getSerial() {
+        return serial;
+    }
+
+    /**
+     * @return int Attributes changed since the previously published lobe, a combination of
+     * {@link LobeEvaluator#POSITIONS} and {@link LobeEvaluator#COLOURS}
+     */
+    public int getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return float Azimuth the lobe must be rotated to around the normal, in radians
+     */
+    public float getAzimuth() {
+        return azimuth;
+    }
+
+    /**
+     * @param uploadedSerial Serial of the lobe held by the mesh
+     * @return boolean Returns true if this lobe only differs from the uploaded one in {@link #getChanges()}.
+     */
+    public boolean isUpdateOf(long uploadedSerial) {
+        return serial == uploadedSerial + 1 && changes != LobeEvaluator.ALL;
+    }
+}
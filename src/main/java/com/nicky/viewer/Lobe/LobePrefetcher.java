@@ -0,0 +1,330 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import com.nicky.viewer.Items.Sphere;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <h1>Lobe Prefetcher</h1>
+ * Evaluates the lobes of predicted incident directions ahead of their request, while a key moving the incident ray
+ * is held. Predictions are evaluated one at a time, each on all the workers of an evaluator of its own sized to the
+ * cores the builder leaves idle. Its threads run at a lower priority than the builder's, and it never holds the
+ * builder's evaluator, whose evaluations are serialised.
+ * Completed lobes are kept in a side buffer of one slot per predicted step, keyed like the {@link LobeCache}, and
+ * taken by the {@link LobeBuilder} instead of evaluating them. Every prediction replaces the previous one; a lobe
+ * being evaluated that is no longer predicted is abandoned between rings, so a misprediction costs at most a few
+ * rings of evaluation.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class LobePrefetcher {
+
+    private static final Logger LOGGER = Logger.getLogger(LobePrefetcher.class.getName());
+
+    // Rings evaluated per worker between checks that the lobe is still predicted
+    private static final int RINGS_PER_STEP = 4;
+
+    private final LobeCache cache;
+    private final Isotropy isotropy;
+    private final LobeEvaluator evaluator;
+    private final Sphere sphere; // only used by the prefetch thread
+    private final int ringsPerStep;
+    private final ExecutorService worker;
+    private final int depth;
+    private final Slot[] slots;
+
+    // Lobes still predicted, in the order they will be requested, guarded by this
+    private List<Prediction> predictions;
+    private boolean draining;
+    private long hits;
+    private long prefetched;
+    private long cancelled;
+
+    /**
+     * @param depth Number of predicted steps evaluated ahead
+     * @param evaluator Evaluator of the prefetched lobes, mirroring them like the builder's evaluator, with workers
+     *                  of a low priority on the idle cores. Owned by the prefetcher from now on.
+     * @param isotropy Tells which BRDFs are built at azimuth zero, as set on the builder, may be null
+     * @param cache Cache whose keys identify prefetched lobes, the builder's one
+     */
+    public LobePrefetcher(int depth, LobeEvaluator evaluator, Isotropy isotropy, LobeCache cache) {
+        this.cache = cache;
+        this.isotropy = isotropy;
+        this.evaluator = evaluator;
+        ringsPerStep = RINGS_PER_STEP * evaluator.getWorkers();
+
+        sphere = new Sphere(0, 0, 0);
+        sphere.setLobeEvaluator(evaluator);
+        sphere.init();
+
+        worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lobe-prefetch");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        // One more slot than predicted steps, the lobe of the step being requested is not overwritten by the next
+        // prediction before the builder takes it
+        this.depth = depth;
+        slots = new Slot[depth + 1];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+        predictions = Collections.emptyList();
+    }
+
+    /**
+     * Predict the next requests, replacing the previous prediction, called by the render thread
+     * @param brdfAlias BRDF alias
+     * @param brdf BRDF the lobes are built for
+     * @param incidents Incident light rays of the next requests, normalised, in the order they are expected
+     * @param resolution Rings and sectors count of the sphere the lobes will be requested at
+     */
+    public void prefetch(String brdfAlias, BRDF brdf, List<Vector3f> incidents, int resolution) {
+        if (brdf == null) {
+            cancel();
+            return;
+        }
+        HemisphereTable directions = HemisphereTable.get(resolution, resolution);
+        boolean isotropic = isotropy != null && isotropy.isIsotropic(brdf);
+
+        List<Prediction> predicted = new ArrayList<>(depth);
+        for (Vector3f incident : incidents) {
+            if (predicted.size() == depth) {
+                break;
+            }
+            // Keyed as the builder will key the request
+            Vector3f canonical = new Vector3f(incident);
+            if (isotropic) {
+                Isotropy.toAzimuthZero(canonical);
+            }
+            LobeCache.Key key = cache.getKey(brdfAlias, brdf, canonical, directions.getRings(),
+                    directions.getSectors());
+            if (find(predicted, key) == null) {
+                predicted.add(new Prediction(key, brdfAlias, brdf, canonical, resolution));
+            }
+        }
+
+        synchronized (this) {
+            predictions = predicted;
+            if (!draining && !predicted.isEmpty()) {
+                draining = true;
+                worker.execute(this::drain);
+            }
+        }
+    }
+
+    /**
+     * Drop the prediction, abandoning the lobe being evaluated. Lobes already prefetched are kept.
+     */
+    public synchronized void cancel() {
+        predictions = Collections.emptyList();
+    }
+
+    /**
+     * Copy a prefetched lobe into a sphere, the lobe is then removed from the side buffer and the prediction
+     * @param key Cache key of the requested lobe
+     * @param target Sphere of the lobe's resolution
+     * @return boolean Returns true if the lobe was prefetched.
+     */
+    public synchronized boolean take(LobeCache.Key key, Sphere target) {
+        for (Slot slot : slots) {
+            if (key.equals(slot.key)) {
+                target.loadLobe(slot.vertices, slot.colours, slot.statistics);
+                slot.key = null;
+                hits++;
+                // Requested, so not evaluated again until it is predicted anew
+                Prediction prediction = find(predictions, key);
+                if (prediction != null) {
+                    List<Prediction> remaining = new ArrayList<>(predictions);
+                    remaining.remove(prediction);
+                    predictions = remaining;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return int Number of predicted steps evaluated ahead
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return long Number of requests served by a prefetched lobe
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return long Number of lobes prefetched, whether they were requested or not
+     */
+    public synchronized long getPrefetched() {
+        return prefetched;
+    }
+
+    /**
+     * @return long Number of evaluations abandoned because their lobe was no longer predicted
+     */
+    public synchronized long getCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stop the prefetch thread and its evaluator, abandoning the prediction
+     */
+    public void cleanup() {
+        cancel();
+        worker.shutdownNow();
+        try {
+            worker.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        evaluator.cleanup();
+    }
+
+    // Evaluate predicted lobes until every one of them is in the side buffer
+    private void drain() {
+        while (true) {
+            Prediction next;
+            synchronized (this) {
+                next = null;
+                for (Prediction prediction : predictions) {
+                    if (findSlot(prediction.key) == null) {
+                        next = prediction;
+                        break;
+                    }
+                }
+                if (next == null || Thread.currentThread().isInterrupted()) {
+                    draining = false;
+                    return;
+                }
+            }
+
+            try {
+                evaluate(next);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Could not prefetch lobe for " + next.brdfAlias, e);
+                synchronized (this) {
+                    List<Prediction> remaining = new ArrayList<>(predictions);
+                    remaining.remove(next);
+                    predictions = remaining;
+                }
+            }
+        }
+    }
+
+    private void evaluate(Prediction prediction) {
+        sphere.setResolution(prediction.resolution, prediction.resolution);
+        int rings = sphere.getHemisphereRings();
+        for (int ringStart = 0; ringStart < rings; ringStart += ringsPerStep) {
+            if (!isPredicted(prediction.key)) {
+                synchronized (this) {
+                    cancelled++;
+                }
+                return;
+            }
+            sphere.sampleBRDF(prediction.incident, prediction.brdf, ringStart,
+                    Math.min(rings, ringStart + ringsPerStep));
+        }
+
+        synchronized (this) {
+            if (find(predictions, prediction.key) == null) {
+                cancelled++;
+                return;
+            }
+            // At most depth - 1 slots hold predicted lobes, as this one is not among them. An empty slot is used
+            // first, otherwise the lobe prefetched longest ago that is no longer predicted is replaced.
+            Slot replaced = null;
+            for (Slot slot : slots) {
+                if (slot.key == null) {
+                    replaced = slot;
+                    break;
+                }
+                if (find(predictions, slot.key) == null && (replaced == null || slot.serial < replaced.serial)) {
+                    replaced = slot;
+                }
+            }
+            replaced.store(prediction.key, sphere, ++prefetched);
+        }
+    }
+
+    private synchronized boolean isPredicted(LobeCache.Key key) {
+        return find(predictions, key) != null;
+    }
+
+    private Slot findSlot(LobeCache.Key key) {
+        for (Slot slot : slots) {
+            if (key.equals(slot.key)) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private static Prediction find(List<Prediction> predictions, LobeCache.Key key) {
+        for (Prediction prediction : predictions) {
+            if (prediction.key.equals(key)) {
+                return prediction;
+            }
+        }
+        return null;
+    }
+
+    private static final class Prediction {
+
+        private final LobeCache.Key key;
+        private final String brdfAlias;
+        private final BRDF brdf;
+        private final Vector3f incident;
+        private final int resolution;
+
+        private Prediction(LobeCache.Key key, String brdfAlias, BRDF brdf, Vector3f incident, int resolution) {
+            this.key = key;
+            this.brdfAlias = brdfAlias;
+            this.brdf = brdf;
+            this.incident = incident;
+            this.resolution = resolution;
+        }
+    }
+
+    // A prefetched lobe, its arrays are reused by the next lobe of the same resolution
+    private static final class Slot {
+
+        private LobeCache.Key key;
+        private long serial; // order the lobes were prefetched in
+        private float[] vertices = new float[0];
+        private float[] colours = new float[0];
+        private final LobeStatistics statistics = new LobeStatistics();
+
+        private void store(LobeCache.Key key, Sphere sphere, long serial) {
+            if (vertices.length != sphere.getVertices().length) {
+                vertices = new float[sphere.getVertices().length];
+            }
+            if (colours.length != sphere.getColours().length) {
+                colours = new float[sphere.getColours().length];
+            }
+            System.arraycopy(sphere.getVertices(), 0, vertices, 0, vertices.length);
+            System.arraycopy(sphere.getColours(), 0, colours, 0, colours.length);
+            statistics.set(sphere.getStatistics());
+            this.key = key;
+            this.serial = serial;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.nicky.viewer.Lobe;
+
+import org.joml.Vector3f;
+
+/**
+ * <h1>Lobe Statistics</h1>
+ * Summary of an evaluated lobe, gathered by the evaluator in the same pass that writes the lobe.
+ * Holds the peak value and its direction, the range of each colour channel, the number of NaN, infinite and
+ * negative values, and a Riemann sum of the albedo, f * cos(theta) over the solid angle of each direction.
+ * Invalid values are counted and then drawn as zero, they are left out of the peak, ranges and albedo.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class LobeStatistics {
+
+    private final Vector3f peakDirection;
+    private final float[] min;
+    private final float[] max;
+    private float peak;
+    private double albedo;
+    private int samples;
+    private int nanCount;
+    private int infiniteCount;
+    private int negativeCount;
+
+    public LobeStatistics() {
+        peakDirection = new Vector3f();
+        min = new float[3];
+        max = new float[3];
+        reset();
+    }
+
+    public void reset() {
+        peakDirection.set(0, 1, 0);
+        for (int c = 0; c < 3; c++) {
+            min[c] = Float.POSITIVE_INFINITY;
+            max[c] = Float.NEGATIVE_INFINITY;
+        }
+        peak = Float.NEGATIVE_INFINITY;
+        albedo = 0;
+        samples = 0;
+        nanCount = 0;
+        infiniteCount = 0;
+        negativeCount = 0;
+    }
+
+    /**
+     * Copy the statistics of another lobe
+     * @param other Statistics to copy, null resets these statistics
+     */
+    public void set(LobeStatistics other) {
+        reset();
+        if (other != null) {
+            merge(other);
+        }
+    }
+
+    /**
+     * Rotate the peak direction around the normal, as a lobe built at azimuth zero is rotated to its incident ray
+     * @param azimuth Azimuth in radians, see {@link Isotropy#toAzimuthZero(Vector3f)}
+     */
+    void rotate(float azimuth) {
+        if (azimuth == 0) {
+            return;
+        }
+        float cos = (float) Math.cos(azimuth);
+        float sin = (float) Math.sin(azimuth);
+        peakDirection.set(peakDirection.x * cos - peakDirection.z * sin, peakDirection.y,
+                peakDirection.x * sin + peakDirection.z * cos);
+    }
+
+    /**
+     * Combine the statistics of another part of the same lobe into these
+     * @param other Statistics of the other part
+     */
+    public void merge(LobeStatistics other) {
+        if (other.peak > peak) {
+            peak = other.peak;
+            peakDirection.set(other.peakDirection);
+        }
+        for (int c = 0; c < 3; c++) {
+            min[c] = Math.min(min[c], other.min[c]);
+            max[c] = Math.max(max[c], other.max[c]);
+        }
+        albedo += other.albedo;
+        samples += other.samples;
+        nanCount += other.nanCount;
+        infiniteCount += other.infiniteCount;
+        negativeCount += other.negativeCount;
+    }
+
+    /**
+     * Count an evaluated direction, called for every direction of the lobe by the evaluator
+     * @param value Lobe radius, already replaced by zero if invalid
+     * @param red Red value, already replaced by zero if invalid
+     * @param green Green value, already replaced by zero if invalid
+     * @param blue Blue value, already replaced by zero if invalid
+     * @param x Direction x component
+     * @param y Direction y component, the cosine of the direction with the normal
+     * @param z Direction z component
+     * @param solidAngle Solid angle of the direction in the albedo sum
+     */
+    void add(float value, float red, float green, float blue, float x, float y, float z, float solidAngle) {
+        if (value > peak) {
+            peak = value;
+            peakDirection.set(x, y, z);
+        }
+        min[0] = Math.min(min[0], red);
+        min[1] = Math.min(min[1], green);
+        min[2] = Math.min(min[2], blue);
+        max[0] = Math.max(max[0], red);
+        max[1] = Math.max(max[1], green);
+        max[2] = Math.max(max[2], blue);
+        albedo += value * y * solidAngle;
+        samples++;
+    }
+
+    /**
+     * Replace an invalid value by zero, counting it
+     * @param value Value returned by the BRDF
+     * @return float Returns the value, or zero if it is NaN, infinite or negative.
+     */
+    float sanitise(float value) {
+        if (value >= 0 && value < Float.POSITIVE_INFINITY) {
+            return value;
+        }
+        if (Float.isNaN(value)) {
+            nanCount++;
+        } else if (Float.isInfinite(value)) {
+            infiniteCount++;
+        } else {
+            negativeCount++;
+        }
+        return 0;
+    }
+
+    /**
+     * @return boolean Returns true if the statistics describe an evaluated lobe.
+     */
+    public boolean isValid() {
+        return samples > 0;
+    }
+
+    public float getPeak() {
+        return peak;
+    }
+
+    public Vector3f getPeakDirection() {
+        return peakDirection;
+    }
+
+    /**
+     * @param channel Colour channel, 0 red, 1 green, 2 blue
+     */
+    public float getMin(int channel) {
+        return min[channel];
+    }
+
+    /**
+     * @param channel Colour channel, 0 red, 1 green, 2 blue
+     */
+    public float getMax(int channel) {
+        return max[channel];
+    }
+
+    /**
+     * @return double Riemann estimate of the directional albedo of the scalar lobe
+     */
+    public double getAlbedo() {
+        return albedo;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public int getNanCount() {
+        return nanCount;
+    }
+
+    public int getInfiniteCount() {
+        return infiniteCount;
+    }
+
+    public int getNegativeCount() {
+        return negativeCount;
+    }
+
+    /**
+     * @return int Number of NaN, infinite and negative values, each drawn as zero
+     */
+    public int getInvalidCount() {
+        return nanCount + infiniteCount + negativeCount;
+    }
+}
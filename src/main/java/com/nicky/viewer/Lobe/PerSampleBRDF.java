@@ -0,0 +1,60 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+
+/**
+ * <h1>Per Sample BRDF</h1>
+ * Batch adapter calling {@link BRDF#f(Vector3f, Vector3f)} once per direction, used for any BRDF
+ * without a dedicated kernel.
+ * A BRDF which is not thread-safe, see {@link BRDFAccess}, is evaluated while holding its monitor for the whole
+ * range, so concurrent ranges take turns and are better evaluated on one thread.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+class PerSampleBRDF implements BatchBRDF {
+
+    private final BRDF brdf;
+    private final boolean threadSafe;
+
+    PerSampleBRDF(BRDF brdf) {
+        this.brdf = brdf;
+        threadSafe = BRDFAccess.isThreadSafe(brdf);
+    }
+
+    @Override
+    public void evaluate(Vector3f in, float[] x, float[] y, float[] z, int from, int to,
+                         float[] red, float[] green, float[] blue, float[] scalar) {
+        if (threadSafe) {
+            evaluateRange(in, x, y, z, from, to, red, green, blue, scalar);
+            return;
+        }
+        synchronized (brdf) {
+            evaluateRange(in, x, y, z, from, to, red, green, blue, scalar);
+        }
+    }
+
+    @Override
+    public boolean isParallel() {
+        return threadSafe;
+    }
+
+    private void evaluateRange(Vector3f in, float[] x, float[] y, float[] z, int from, int to,
+                               float[] red, float[] green, float[] blue, float[] scalar) {
+        Vector3f incident = new Vector3f(in); // private to this call, ranges are evaluated concurrently
+        Vector3f out = new Vector3f();
+
+        for (int i = from; i < to; i++) {
+            out.set(x[i], y[i], z[i]).normalize();
+
+            Spectrum brdfOutput = brdf.f(incident, out);
+            red[i] = brdfOutput.getR();
+            green[i] = brdfOutput.getG();
+            blue[i] = brdfOutput.getB();
+            scalar[i] = brdfOutput.toScalar();
+        }
+    }
+}
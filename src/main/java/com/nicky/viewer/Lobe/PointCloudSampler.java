@@ -0,0 +1,274 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * <h1>Point Cloud Sampler</h1>
+ * Previews a lobe as a fixed number of directions sampled in proportion to f * cos(theta).
+ * Candidate directions are drawn from a continuous mixture of a cosine-weighted density and Phong lobes around
+ * the mirror direction, whose exponents and weights come from the batch kernel of the BRDF when it has a shiny
+ * lobe. The BRDF is evaluated at every candidate, which is weighted by f * cos(theta) over the density of the
+ * whole mixture (multiple importance sampling with the balance heuristic), and the points are resampled from the
+ * candidates in proportion to their weights. Every point lies at the radius of f in its own direction, so narrow
+ * highlights are neither missed nor flattened, whatever their width.
+ * Candidates are drawn, evaluated and resampled in parallel, every chunk has its own random stream seeded from
+ * its index, so the same lobe always produces the same cloud.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class PointCloudSampler {
+
+    // Candidates or points handled per parallel task, and the seeds of the first tasks' random streams
+    private static final int CHUNK = 1024;
+    private static final long CANDIDATE_SEED = 0x5DEECE66DL;
+    private static final long POINT_SEED = 0x2545F4914F6CDD1DL;
+    private static final double PI = Math.PI;
+    private static final double TWO_PI = Math.PI * 2;
+    // Lobes proposed when the BRDF has no fitted kernel, the default, from broad to sharp
+    private static final float[] FALLBACK_EXPONENTS = {4, 32, 256, 2048, 16384, 131072};
+    // Smallest share of the candidates given to each part of a fitted mixture
+    private static final double MIN_WEIGHT = 0.1;
+
+    private final int points;
+    private final int candidates;
+
+    // Candidate directions, SoA as the batch kernels expect, with their mixture density
+    private final float[] x;
+    private final float[] y;
+    private final float[] z;
+    private final float[] red;
+    private final float[] green;
+    private final float[] blue;
+    private final float[] scalar;
+    private final float[] density;
+    private final double[] cdf;
+
+    private final float[] positions;
+    private final float[] colours;
+    private final int[] indices;
+
+    /**
+     * @param points Number of points in the cloud
+     * @param candidatesPerPoint Number of candidate directions evaluated per point, more give a closer fit
+     */
+    public PointCloudSampler(int points, int candidatesPerPoint) {
+        this.points = Math.max(1, points);
+        candidates = this.points * Math.max(1, candidatesPerPoint);
+
+        x = new float[candidates];
+        y = new float[candidates];
+        z = new float[candidates];
+        red = new float[candidates];
+        green = new float[candidates];
+        blue = new float[candidates];
+        scalar = new float[candidates];
+        density = new float[candidates];
+        cdf = new double[candidates];
+
+        positions = new float[this.points * 3];
+        colours = new float[this.points * 3];
+        indices = new int[this.points];
+        for (int i = 0; i < this.points; i++) {
+            indices[i] = i;
+        }
+    }
+
+    /**
+     * Sample the lobe of a BRDF
+     * @param incident Incident light ray, normalised
+     * @param brdf BRDF to sample
+     * @param table Tabulated BRDF used instead of the BRDF when it was built from it, may be null
+     * @param evaluator Evaluator whose workers evaluate the candidates and draw the points
+     * @return boolean Returns false if f * cos(theta) is zero at every candidate and no point was drawn.
+     */
+    public boolean sample(Vector3f incident, BRDF brdf, TabulatedBRDF table, LobeEvaluator evaluator) {
+        BatchBRDF kernel = BatchBRDF.of(brdf);
+        BatchBRDF batch = table != null && table.isFor(brdf) ? table : kernel;
+        Vector3f in = new Vector3f(incident);
+        Mixture mixture = new Mixture(kernel, in);
+
+        // Draw and evaluate the candidates, each chunk with its own random stream
+        int candidateChunks = (candidates + CHUNK - 1) / CHUNK;
+        evaluator.forEach(candidateChunks, chunk -> {
+            SplittableRandom random = new SplittableRandom(CANDIDATE_SEED + chunk);
+            int start = chunk * CHUNK;
+            int end = Math.min(candidates, start + CHUNK);
+            for (int c = start; c < end; c++) {
+                mixture.draw(c, random);
+            }
+            batch.evaluate(in, x, y, z, start, end, red, green, blue, scalar);
+        });
+
+        // Weight of each candidate is f * cos(theta) over the mixture density, invalid values count as zero
+        double total = 0;
+        for (int c = 0; c < candidates; c++) {
+            float value = scalar[c];
+            if (value > 0 && !Float.isInfinite(value) && density[c] > 0) {
+                total += value * y[c] / density[c];
+            }
+            cdf[c] = total;
+        }
+        if (!(total > 0) || Double.isInfinite(total)) {
+            Arrays.fill(positions, 0);
+            Arrays.fill(colours, 0);
+            return false;
+        }
+        double normalisation = total;
+
+        // Resample stratified points from the candidates, each chunk with its own random stream
+        int pointChunks = (points + CHUNK - 1) / CHUNK;
+        evaluator.forEach(pointChunks, chunk -> {
+            SplittableRandom random = new SplittableRandom(POINT_SEED + chunk);
+            int end = Math.min(points, (chunk + 1) * CHUNK);
+            for (int p = chunk * CHUNK; p < end; p++) {
+                double u = (p + random.nextDouble()) / points * normalisation;
+                placePoint(p, findCandidate(u));
+            }
+        });
+        return true;
+    }
+
+    public float[] getPositions() {
+        return positions;
+    }
+
+    public float[] getColours() {
+        return colours;
+    }
+
+    /**
+     * @return int[] Indices of the points, in order. The array is shared, it must not be modified.
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    public int getPoints() {
+        return points;
+    }
+
+    // First candidate whose cumulative weight reaches u
+    private int findCandidate(double u) {
+        int low = 0;
+        int high = cdf.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cdf[mid] < u) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void placePoint(int p, int c) {
+        float radius = scalar[c];
+        positions[p * 3] = x[c] * radius;
+        positions[p * 3 + 1] = y[c] * radius;
+        positions[p * 3 + 2] = z[c] * radius;
+        colours[p * 3] = red[c];
+        colours[p * 3 + 1] = green[c];
+        colours[p * 3 + 2] = blue[c];
+    }
+
+    /**
+     * Mixture of a cosine-weighted density and Phong lobes around the mirror direction, over the hemisphere.
+     * Lobe directions below the horizon are reflected above it, so the density of a lobe at a direction adds
+     * the density at its reflection.
+     */
+    private final class Mixture {
+
+        private final float[] exponents;
+        private final double[] cumulative; // cosine first, then each lobe
+        private final double[] weights;
+        private final float mx;
+        private final float my;
+        private final float mz;
+        // Tangents of the mirror direction
+        private final Vector3f u;
+        private final Vector3f v;
+
+        private Mixture(BatchBRDF kernel, Vector3f in) {
+            Vector3f mirror = new Vector3f(-in.x, in.y, -in.z).normalize();
+            mx = mirror.x;
+            my = mirror.y;
+            mz = mirror.z;
+            u = Math.abs(mirror.y) < 0.99f ? mirror.cross(0, 1, 0, new Vector3f()).normalize()
+                    : mirror.cross(1, 0, 0, new Vector3f()).normalize();
+            v = mirror.cross(u, new Vector3f());
+
+            if (kernel instanceof ConstantBRDF) {
+                exponents = new float[0];
+                weights = new double[]{1};
+            } else if (kernel instanceof ShinyDiffuseBRDF) {
+                // Blinn-Phong lobes are about four times wider around the mirror direction than their exponent
+                ShinyDiffuseBRDF shiny = (ShinyDiffuseBRDF) kernel;
+                float exponent = shiny.getShape() == ShinyDiffuseBRDF.Shape.PHONG ? shiny.getExponent()
+                        : Math.max(1, shiny.getExponent() / 4);
+                double diffuse = Math.max(0, shiny.getScalarDiffuse()) * PI;
+                double specular = Math.max(0, shiny.getScalarSpecular()) * TWO_PI / (exponent + 1);
+                double lobe = diffuse + specular > 0 ? specular / (diffuse + specular) : 0.5;
+                lobe = Math.max(MIN_WEIGHT, Math.min(1 - MIN_WEIGHT, lobe));
+                exponents = new float[]{exponent};
+                weights = new double[]{1 - lobe, lobe};
+            } else {
+                exponents = FALLBACK_EXPONENTS;
+                weights = new double[exponents.length + 1];
+                Arrays.fill(weights, 1.0 / weights.length);
+            }
+
+            cumulative = new double[weights.length];
+            double sum = 0;
+            for (int k = 0; k < weights.length; k++) {
+                sum += weights[k];
+                cumulative[k] = sum;
+            }
+        }
+
+        // Draw the direction of a candidate and store its density
+        private void draw(int c, SplittableRandom random) {
+            double choice = random.nextDouble() * cumulative[cumulative.length - 1];
+            int k = 0;
+            while (k < cumulative.length - 1 && choice >= cumulative[k]) {
+                k++;
+            }
+            double r1 = random.nextDouble();
+            double phi = TWO_PI * random.nextDouble();
+
+            if (k == 0) {
+                double sinTheta = Math.sqrt(r1);
+                x[c] = (float) (sinTheta * Math.cos(phi));
+                y[c] = (float) Math.sqrt(1 - r1);
+                z[c] = (float) (sinTheta * Math.sin(phi));
+            } else {
+                double cosAlpha = Math.pow(r1, 1.0 / (exponents[k - 1] + 1));
+                double sinAlpha = Math.sqrt(Math.max(0, 1 - cosAlpha * cosAlpha));
+                double a = sinAlpha * Math.cos(phi);
+                double b = sinAlpha * Math.sin(phi);
+                x[c] = (float) (mx * cosAlpha + u.x * a + v.x * b);
+                y[c] = (float) Math.abs(my * cosAlpha + u.y * a + v.y * b);
+                z[c] = (float) (mz * cosAlpha + u.z * a + v.z * b);
+            }
+            density[c] = (float) density(x[c], y[c], z[c]);
+        }
+
+        private double density(float dx, float dy, float dz) {
+            double total = weights[0] * dy / PI;
+            double above = mx * dx + my * dy + mz * dz;
+            double below = mx * dx - my * dy + mz * dz;
+            for (int k = 0; k < exponents.length; k++) {
+                double n = exponents[k];
+                double lobe = (above > 0 ? Math.pow(above, n) : 0) + (below > 0 ? Math.pow(below, n) : 0);
+                total += weights[k + 1] * (n + 1) / TWO_PI * lobe;
+            }
+            return total / cumulative[cumulative.length - 1];
+        }
+    }
+}
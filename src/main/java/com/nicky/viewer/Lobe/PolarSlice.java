@@ -0,0 +1,161 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+
+/**
+ * <h1>Polar Slice</h1>
+ * Polar plot of a BRDF in the plane of incidence, and optionally in the perpendicular plane through the normal.
+ * Each plane is sampled at a fixed number of exitant angles from one horizon to the other and drawn as lines
+ * through the points at the radius of f, so it overlays the lobe exactly. With thousands of samples per plane it
+ * resolves specular peaks far sharper than the lobe mesh, at a cost low enough to update every frame.
+ * Invalid values are drawn as zero, like in the lobe.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class PolarSlice {
+
+    private static final float[] INCIDENCE_COLOUR = {0.1f, 0.1f, 0.1f};
+    private static final float[] PERPENDICULAR_COLOUR = {0.2f, 0.3f, 0.9f};
+
+    private final int samples;
+
+    // Exitant directions of both planes, SoA as the batch kernels expect
+    private final float[] x;
+    private final float[] y;
+    private final float[] z;
+    private final float[] red;
+    private final float[] green;
+    private final float[] blue;
+    private final float[] scalar;
+
+    private float[] vertices;
+    private float[] colours;
+    private int[] indices;
+    private float peak;
+    private float peakAngle;
+
+    /**
+     * @param samples Number of exitant angles per plane
+     */
+    public PolarSlice(int samples) {
+        this.samples = Math.max(2, samples);
+        x = new float[this.samples * 2];
+        y = new float[this.samples * 2];
+        z = new float[this.samples * 2];
+        red = new float[this.samples * 2];
+        green = new float[this.samples * 2];
+        blue = new float[this.samples * 2];
+        scalar = new float[this.samples * 2];
+        vertices = new float[0];
+        colours = new float[0];
+        indices = new int[0];
+    }
+
+    /**
+     * Evaluate the slices of a BRDF on the calling thread
+     * @param incident Incident light ray, normalised
+     * @param brdf BRDF to evaluate
+     * @param perpendicular Also evaluate the plane through the normal perpendicular to the plane of incidence
+     */
+    public void evaluate(Vector3f incident, BRDF brdf, boolean perpendicular) {
+        int planes = perpendicular ? 2 : 1;
+        int count = samples * planes;
+        prepare(planes);
+
+        // Plane of incidence holds the normal and the incident ray, at normal incidence any plane will do
+        double azimuth = incident.x == 0 && incident.z == 0 ? 0 : Math.atan2(incident.z, incident.x);
+        for (int plane = 0; plane < planes; plane++) {
+            double cosAzimuth = Math.cos(azimuth + plane * Math.PI * 0.5);
+            double sinAzimuth = Math.sin(azimuth + plane * Math.PI * 0.5);
+            for (int k = 0; k < samples; k++) {
+                double angle = getAngle(k);
+                int d = plane * samples + k;
+                x[d] = (float) (Math.sin(angle) * cosAzimuth);
+                y[d] = (float) Math.cos(angle);
+                z[d] = (float) (Math.sin(angle) * sinAzimuth);
+            }
+        }
+
+        BatchBRDF.of(brdf).evaluate(new Vector3f(incident), x, y, z, 0, count, red, green, blue, scalar);
+
+        peak = 0;
+        peakAngle = 0;
+        for (int d = 0, i = 0; d < count; d++, i += 3) {
+            float radius = sanitise(scalar[d]);
+            vertices[i] = x[d] * radius;
+            vertices[i + 1] = y[d] * radius;
+            vertices[i + 2] = z[d] * radius;
+            if (d < samples && radius > peak) {
+                peak = radius;
+                peakAngle = (float) Math.toDegrees(getAngle(d));
+            }
+        }
+    }
+
+    public float[] getVertices() {
+        return vertices;
+    }
+
+    /**
+     * @return int[] Line indices, a pair per segment between neighbouring samples of a plane
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    public float[] getColours() {
+        return colours;
+    }
+
+    /**
+     * @return float Highest value in the plane of incidence
+     */
+    public float getPeak() {
+        return peak;
+    }
+
+    /**
+     * @return float Exitant angle of the peak from the normal in degrees, positive towards the incident ray
+     */
+    public float getPeakAngle() {
+        return peakAngle;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    // Exitant angle of a sample from the normal, from one horizon to the other
+    private double getAngle(int k) {
+        return -Math.PI * 0.5 + Math.PI * k / (samples - 1);
+    }
+
+    private static float sanitise(float value) {
+        return value >= 0 && value < Float.POSITIVE_INFINITY ? value : 0;
+    }
+
+    // Size the line arrays for a number of planes, colours and indices only depend on it
+    private void prepare(int planes) {
+        if (vertices.length == samples * planes * 3) {
+            return;
+        }
+
+        vertices = new float[samples * planes * 3];
+        colours = new float[samples * planes * 3];
+        indices = new int[(samples - 1) * planes * 2];
+        for (int plane = 0, i = 0; plane < planes; plane++) {
+            float[] colour = plane == 0 ? INCIDENCE_COLOUR : PERPENDICULAR_COLOUR;
+            for (int k = 0; k < samples; k++) {
+                int d = plane * samples + k;
+                System.arraycopy(colour, 0, colours, d * 3, 3);
+                if (k < samples - 1) {
+                    indices[i++] = d;
+                    indices[i++] = d + 1;
+                }
+            }
+        }
+    }
+}
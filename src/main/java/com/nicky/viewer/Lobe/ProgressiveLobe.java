@@ -0,0 +1,94 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import com.nicky.viewer.Items.Sphere;
+import org.joml.Vector3f;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * <h1>Progressive Lobe</h1>
+ * Builds a lobe coarse-to-fine, off the render thread.
+ * A request evaluates a low resolution lobe straight away, the full resolution lobe is then refined
+ * a few rings at a time until it is complete, stopping early once it is cancelled.
+ * A newer request discards any refinement done for the previous incident direction.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class ProgressiveLobe {
+
+    // Rings of the fine lobe evaluated between two checks for cancellation
+    private static final int RINGS_PER_STEP = 4;
+
+    private final Sphere coarse;
+    private final Sphere fine;
+    private final Vector3f incident;
+    private BRDF brdf;
+    private int refinedRings;
+    private boolean refining;
+
+    /**
+     * @param coarse Sphere used for the immediate low resolution lobe, must be initialised
+     * @param fine Sphere refined to the full resolution, must be initialised
+     */
+    public ProgressiveLobe(Sphere coarse, Sphere fine) {
+        this.coarse = coarse;
+        this.fine = fine;
+        incident = new Vector3f();
+        refining = false;
+    }
+
+    /**
+     * Evaluate the coarse lobe for a new incident direction and restart refinement
+     * @param incident Incident light ray
+     * @param brdf BRDF to evaluate
+     * @return Sphere The coarse lobe, ready to be displayed
+     */
+    public Sphere request(Vector3f incident, BRDF brdf) {
+        coarse.sampleBRDF(incident, brdf);
+
+        // Refinement for the previous direction is stale, start over
+        this.incident.set(incident);
+        this.brdf = brdf;
+        refinedRings = 0;
+        refining = brdf != null;
+        return coarse;
+    }
+
+    /**
+     * Refine the fine lobe until it is complete or refinement is cancelled, checked between steps
+     * @param cancelled Returns true once refinement should stop
+     * @return boolean Returns true when the fine lobe was completed by this call
+     */
+    public boolean refine(BooleanSupplier cancelled) {
+        if (!refining) {
+            return false;
+        }
+
+        int rings = fine.getHemisphereRings();
+        do {
+            int ringEnd = Math.min(rings, refinedRings + RINGS_PER_STEP);
+            fine.sampleBRDF(incident, brdf, refinedRings, ringEnd);
+            refinedRings = ringEnd;
+        } while (refinedRings < rings && !cancelled.getAsBoolean());
+
+        refining = refinedRings < rings;
+        return !refining;
+    }
+
+    /**
+     * @return float Fraction of the rings of the fine lobe refined since the last request, 1 once it is complete
+     */
+    public float getProgress() {
+        return (float) refinedRings / fine.getHemisphereRings();
+    }
+
+    /**
+     * Stop refining, used when the full lobe is built by other means
+     */
+    public void cancel() {
+        refining = false;
+    }
+}
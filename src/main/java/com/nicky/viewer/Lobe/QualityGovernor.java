@@ -0,0 +1,116 @@
+package com.nicky.viewer.Lobe;
+
+/**
+ * <h1>Quality Governor</h1>
+ * Chooses the lobe resolution from the measured frame time, lobe build time and camera distance.
+ * While the user interacts and a lobe takes longer than the frame budget to build, the resolution is lowered in
+ * proportion to the square root of the overrun, as the cost of a lobe grows with the square of its resolution.
+ * Builds superseded by a newer request count too, projected from the part of the lobe they evaluated.
+ * A sustained frame time over budget lowers it one step at a time.
+ * Once the view has been idle for a number of frames the resolution goes back up to the configured maximum,
+ * scaled down when the camera is far enough from the lobe for fewer vertices to look the same.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class QualityGovernor {
+
+    // Weight of the latest frame in the smoothed frame time
+    private static final float FRAME_SMOOTHING = 0.1f;
+    // Frames between two reductions caused by frame time, lets the previous reduction take effect
+    private static final int ADJUST_FRAMES = 10;
+
+    private final int minResolution;
+    private final int maxResolution;
+    private final int step;
+    private final long budgetNanos;
+    private final int idleFrames;
+    private final float referenceDistance;
+
+    private int resolution;
+    private float frameNanos;
+    private int framesSinceAdjust;
+    private int framesIdle;
+    private long handledBuild;
+
+    /**
+     * @param minResolution Lowest rings and sectors count
+     * @param maxResolution Highest rings and sectors count, used when idle at the reference distance or closer
+     * @param step Resolution change applied when the frame time is over budget
+     * @param budgetNanos Frame time budget, also the longest acceptable lobe build while interacting
+     * @param idleFrames Frames without interaction before the resolution is raised
+     * @param referenceDistance Camera distance up to which the maximum resolution is used
+     */
+    public QualityGovernor(int minResolution, int maxResolution, int step, long budgetNanos, int idleFrames,
+                           float referenceDistance) {
+        this.minResolution = Math.max(3, Math.min(minResolution, maxResolution));
+        this.maxResolution = Math.max(this.minResolution, maxResolution);
+        this.step = Math.max(1, step);
+        this.budgetNanos = budgetNanos;
+        this.idleFrames = idleFrames;
+        this.referenceDistance = referenceDistance;
+        resolution = this.maxResolution;
+    }
+
+    /**
+     * Update the resolution with the measurements of the last frame
+     * @param frameNanos Duration of the last frame
+     * @param buildNanos Duration of the last lobe build, projected to the whole lobe if it was superseded,
+     * 0 if none was measured yet
+     * @param buildResolution Resolution of the last measured lobe build
+     * @param build Sequence number of the last measured lobe build, each build is only considered once
+     * @param interacting True while the user changes the incident ray or BRDF
+     * @param cameraDistance Distance of the camera from the lobe
+     * @return boolean Returns true if the resolution changed.
+     */
+    public boolean update(long frameNanos, long buildNanos, int buildResolution, long build, boolean interacting,
+                          float cameraDistance) {
+        this.frameNanos += (frameNanos - this.frameNanos) * FRAME_SMOOTHING;
+        framesSinceAdjust++;
+        int previous = resolution;
+
+        if (interacting) {
+            framesIdle = 0;
+            if (build != handledBuild && buildResolution == resolution && buildNanos > budgetNanos) {
+                // Build cost grows with the square of the resolution
+                int scaled = (int) (resolution * Math.sqrt((double) budgetNanos / buildNanos));
+                resolution = Math.min(resolution - step, scaled);
+                framesSinceAdjust = 0;
+            } else if (this.frameNanos > budgetNanos && framesSinceAdjust >= ADJUST_FRAMES) {
+                resolution -= step;
+                framesSinceAdjust = 0;
+            }
+        } else if (++framesIdle >= idleFrames) {
+            resolution = getIdleResolution(cameraDistance);
+        }
+        handledBuild = build;
+
+        resolution = Math.max(minResolution, Math.min(maxResolution, resolution));
+        return resolution != previous;
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    /**
+     * @return float Smoothed frame time in milliseconds
+     */
+    public float getFrameMillis() {
+        return frameNanos / 1000000f;
+    }
+
+    private int getIdleResolution(float cameraDistance) {
+        if (cameraDistance <= referenceDistance) {
+            return maxResolution;
+        }
+        // Whole steps only, so small camera movements do not rebuild the lobe
+        int scaled = (int) (maxResolution * referenceDistance / cameraDistance);
+        return scaled - scaled % step;
+    }
+}
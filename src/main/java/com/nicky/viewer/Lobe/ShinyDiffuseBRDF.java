@@ -0,0 +1,135 @@
+package com.nicky.viewer.Lobe;
+
+import org.joml.Vector3f;
+
+/**
+ * <h1>Shiny Diffuse BRDF</h1>
+ * Batch kernel for BRDFs made of a diffuse term and a shiny lobe, f = kd + ks * max(0, c)^n per channel.
+ * For a Phong lobe c is the cosine between the exitant ray and the mirror direction of the incident ray, for a
+ * Blinn-Phong lobe it is the cosine between the half vector and the normal.
+ * The evaluation is split into loops over the primitive arrays: the cosines, the powers, then the weighted sums.
+ * The first and last loops have no branches nor calls, so the JIT vectorises them, only the power is computed
+ * one sample at a time. The cosines and powers are kept in the scalar output until it is overwritten.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+class ShinyDiffuseBRDF implements BatchBRDF {
+
+    /**
+     * Cosine the shiny lobe is a power of
+     */
+    enum Shape {
+        PHONG,
+        BLINN_PHONG;
+
+        /**
+         * @param in Incident light ray, normalised
+         * @param out Exitant light ray, normalised
+         * @return float Returns the cosine of the lobe for the pair of rays, may be negative.
+         */
+        float cosine(Vector3f in, Vector3f out) {
+            if (this == PHONG) {
+                return -in.x * out.x + in.y * out.y - in.z * out.z;
+            }
+            float hx = in.x + out.x;
+            float hy = in.y + out.y;
+            float hz = in.z + out.z;
+            return hy / (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        }
+    }
+
+    private final Shape shape;
+    private final float exponent;
+    // Red, green, blue and scalar terms
+    private final float[] diffuse;
+    private final float[] specular;
+
+    /**
+     * @param diffuse Diffuse term of the red, green, blue and scalar values
+     * @param specular Weight of the shiny lobe in the red, green, blue and scalar values
+     */
+    ShinyDiffuseBRDF(Shape shape, float exponent, float[] diffuse, float[] specular) {
+        this.shape = shape;
+        this.exponent = exponent;
+        this.diffuse = diffuse.clone();
+        this.specular = specular.clone();
+    }
+
+    Shape getShape() {
+        return shape;
+    }
+
+    float getExponent() {
+        return exponent;
+    }
+
+    /**
+     * @return float Diffuse term of the scalar value
+     */
+    float getScalarDiffuse() {
+        return diffuse[3];
+    }
+
+    /**
+     * @return float Weight of the shiny lobe in the scalar value
+     */
+    float getScalarSpecular() {
+        return specular[3];
+    }
+
+    @Override
+    public void evaluate(Vector3f in, float[] x, float[] y, float[] z, int from, int to,
+                         float[] red, float[] green, float[] blue, float[] scalar) {
+        float ix = in.x;
+        float iy = in.y;
+        float iz = in.z;
+        if (shape == Shape.PHONG) {
+            for (int i = from; i < to; i++) {
+                float length = (float) Math.sqrt(x[i] * x[i] + y[i] * y[i] + z[i] * z[i]);
+                scalar[i] = (-ix * x[i] + iy * y[i] - iz * z[i]) / length;
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                float length = (float) Math.sqrt(x[i] * x[i] + y[i] * y[i] + z[i] * z[i]);
+                float hx = ix + x[i] / length;
+                float hy = iy + y[i] / length;
+                float hz = iz + z[i] / length;
+                scalar[i] = hy / (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+            }
+        }
+
+        for (int i = from; i < to; i++) {
+            float cosine = scalar[i];
+            scalar[i] = cosine > 0 ? (float) Math.pow(cosine, exponent) : 0;
+        }
+
+        float kdRed = diffuse[0];
+        float kdGreen = diffuse[1];
+        float kdBlue = diffuse[2];
+        float kdScalar = diffuse[3];
+        float ksRed = specular[0];
+        float ksGreen = specular[1];
+        float ksBlue = specular[2];
+        float ksScalar = specular[3];
+        for (int i = from; i < to; i++) {
+            float lobe = scalar[i];
+            red[i] = kdRed + ksRed * lobe;
+            green[i] = kdGreen + ksGreen * lobe;
+            blue[i] = kdBlue + ksBlue * lobe;
+            scalar[i] = kdScalar + ksScalar * lobe;
+        }
+    }
+
+    // Both lobe shapes only depend on angles to the normal and the mirror direction
+    @Override
+    public boolean isIsotropic() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s kernel (exponent %.2f)", shape == Shape.PHONG ? "Phong" : "Blinn-Phong", exponent);
+    }
+}
@@ -0,0 +1,276 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.FloatBuffer;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+/**
+ * <h1>Tabulated BRDF</h1>
+ * Dense isotropic table of a BRDF over (theta_in, theta_out, phi_diff), built once per parameter set.
+ * Every cell stores the RGB value and the scalar value of the BRDF, in off-heap memory.
+ * Lookups interpolate trilinearly between cells, so lobe rebuilds do not evaluate the BRDF.
+ * Anisotropic BRDFs cannot be represented, the error report shows how far the table is from the BRDF.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class TabulatedBRDF implements BatchBRDF {
+
+    /**
+     * Values stored per cell: red, green, blue and the scalar value
+     */
+    public static final int CHANNELS = 4;
+    public static final int SCALAR = 3;
+
+    private static final float HALF_PI = (float) (Math.PI * 0.5);
+    private static final float PI = (float) Math.PI;
+
+    private final int thetaInRes;
+    private final int thetaOutRes;
+    private final int phiRes;
+    private final FloatBuffer table;
+    private BRDF brdf;
+    private int parametersHash;
+
+    /**
+     * @param thetaInRes Number of incident elevations, from the normal to the horizon
+     * @param thetaOutRes Number of exitant elevations, from the normal to the horizon
+     * @param phiRes Number of azimuth differences, from 0 to pi
+     */
+    public TabulatedBRDF(int thetaInRes, int thetaOutRes, int phiRes) {
+        this.thetaInRes = Math.max(2, thetaInRes);
+        this.thetaOutRes = Math.max(2, thetaOutRes);
+        this.phiRes = Math.max(2, phiRes);
+        table = MemoryUtil.memAllocFloat(this.thetaInRes * this.thetaOutRes * this.phiRes * CHANNELS);
+    }
+
+    /**
+     * Tabulate a BRDF, each (theta_in, theta_out) row is evaluated in parallel if the BRDF is thread-safe
+     * @param brdf BRDF to tabulate
+     * @param evaluator Evaluator whose workers build the table
+     */
+    public void build(BRDF brdf, LobeEvaluator evaluator) {
+        this.brdf = brdf;
+        this.parametersHash = Objects.hashCode(brdf.getParameters());
+
+        // Azimuth terms are shared by every row, no trigonometry is left in the inner loop
+        double[] cosPhi = new double[phiRes];
+        double[] sinPhi = new double[phiRes];
+        for (int p = 0; p < phiRes; p++) {
+            float phi = p * PI / (phiRes - 1);
+            cosPhi[p] = Math.cos(phi);
+            sinPhi[p] = Math.sin(phi);
+        }
+
+        IntConsumer tabulateRow = row -> {
+            float thetaIn = (row / thetaOutRes) * HALF_PI / (thetaInRes - 1);
+            float thetaOut = (row % thetaOutRes) * HALF_PI / (thetaOutRes - 1);
+            Vector3f in = new Vector3f((float) Math.sin(thetaIn), (float) Math.cos(thetaIn), 0);
+            Vector3f out = new Vector3f();
+            double sinThetaOut = Math.sin(thetaOut);
+            float cosThetaOut = (float) Math.cos(thetaOut);
+
+            for (int p = 0; p < phiRes; p++) {
+                out.set((float) (sinThetaOut * cosPhi[p]), cosThetaOut, (float) (sinThetaOut * sinPhi[p]));
+
+                Spectrum brdfOutput = BRDFAccess.f(brdf, in, out);
+                int cell = (row * phiRes + p) * CHANNELS;
+                table.put(cell, brdfOutput.getR());
+                table.put(cell + 1, brdfOutput.getG());
+                table.put(cell + 2, brdfOutput.getB());
+                table.put(cell + SCALAR, brdfOutput.toScalar());
+            }
+        };
+        if (BRDFAccess.isThreadSafe(brdf)) {
+            evaluator.forEach(thetaInRes * thetaOutRes, tabulateRow);
+        } else {
+            for (int row = 0; row < thetaInRes * thetaOutRes; row++) {
+                tabulateRow.accept(row);
+            }
+        }
+    }
+
+    /**
+     * @return boolean Returns true if the table was built from this BRDF with its current parameters.
+     */
+    public boolean isFor(BRDF brdf) {
+        return brdf != null && brdf == this.brdf && Objects.hashCode(brdf.getParameters()) == parametersHash;
+    }
+
+    /**
+     * Interpolate the tabulated BRDF
+     * @param in Incident light ray, normalised
+     * @param out Exitant light ray, normalised
+     * @param sample Output red, green, blue and scalar value
+     */
+    public void evaluate(Vector3f in, Vector3f out, float[] sample) {
+        float u = elevationCell(in.y, thetaInRes);
+        float v = elevationCell(out.y, thetaOutRes);
+        float w = azimuthCell((float) Math.atan2(out.z, out.x), (float) Math.atan2(in.z, in.x));
+        for (int c = 0; c < CHANNELS; c++) {
+            sample[c] = interpolate(u, v, w, c);
+        }
+    }
+
+    @Override
+    public void evaluate(Vector3f in, float[] x, float[] y, float[] z, int from, int to,
+                         float[] red, float[] green, float[] blue, float[] scalar) {
+        // Incident terms are shared by the whole range, and nothing is allocated
+        float u = elevationCell(in.y, thetaInRes);
+        float inAzimuth = (float) Math.atan2(in.z, in.x);
+
+        for (int i = from; i < to; i++) {
+            float length = (float) Math.sqrt(x[i] * x[i] + y[i] * y[i] + z[i] * z[i]);
+            float v = elevationCell(y[i] / length, thetaOutRes);
+            float w = azimuthCell((float) Math.atan2(z[i], x[i]), inAzimuth);
+            red[i] = interpolate(u, v, w, 0);
+            green[i] = interpolate(u, v, w, 1);
+            blue[i] = interpolate(u, v, w, 2);
+            scalar[i] = interpolate(u, v, w, SCALAR);
+        }
+    }
+
+    /**
+     * Compare the table against direct evaluation at random pairs of hemisphere directions
+     * @param samples Number of direction pairs
+     * @param maxError Largest error, relative to the peak of the BRDF, that is not visible in the lobe
+     * @return ErrorReport Returns the error of the scalar value used as lobe radius.
+     */
+    public ErrorReport compare(int samples, float maxError) {
+        Random random = new Random(0);
+        Vector3f in = new Vector3f();
+        Vector3f out = new Vector3f();
+        float[] sample = new float[CHANNELS];
+        double sumSquared = 0;
+        float worst = 0;
+        float peak = 0;
+
+        for (int i = 0; i < samples; i++) {
+            randomHemisphereDirection(random, in);
+            randomHemisphereDirection(random, out);
+
+            float direct = BRDFAccess.f(brdf, in, out).toScalar();
+            evaluate(in, out, sample);
+            float error = Math.abs(sample[SCALAR] - direct);
+
+            sumSquared += error * error;
+            worst = Math.max(worst, error);
+            peak = Math.max(peak, Math.abs(direct));
+        }
+
+        float rms = (float) Math.sqrt(sumSquared / Math.max(1, samples));
+        return new ErrorReport(samples, rms, worst, peak, worst > maxError * peak);
+    }
+
+    public int getBytes() {
+        return table.capacity() * Float.BYTES;
+    }
+
+    /**
+     * Free the off-heap table
+     */
+    public void cleanup() {
+        memFree(table);
+    }
+
+    // Continuous cell coordinate of an elevation, from its cosine
+    private static float elevationCell(float cosTheta, int resolution) {
+        return (float) Math.acos(Math.min(1f, Math.max(0f, cosTheta))) / HALF_PI * (resolution - 1);
+    }
+
+    // Continuous cell coordinate of the azimuth difference of two rays, folded into [0, pi]
+    private float azimuthCell(float outAzimuth, float inAzimuth) {
+        float phi = Math.abs(outAzimuth - inAzimuth);
+        if (phi > PI) {
+            phi = 2 * PI - phi;
+        }
+        return phi / PI * (phiRes - 1);
+    }
+
+    // Trilinear interpolation of a channel at continuous cell coordinates
+    private float interpolate(float u, float v, float w, int channel) {
+        int i0 = Math.min((int) u, thetaInRes - 2);
+        int j0 = Math.min((int) v, thetaOutRes - 2);
+        int k0 = Math.min((int) w, phiRes - 2);
+        float fu = u - i0;
+        float fv = v - j0;
+        float fw = w - k0;
+
+        float c00 = lerp(get(i0, j0, k0, channel), get(i0, j0, k0 + 1, channel), fw);
+        float c01 = lerp(get(i0, j0 + 1, k0, channel), get(i0, j0 + 1, k0 + 1, channel), fw);
+        float c10 = lerp(get(i0 + 1, j0, k0, channel), get(i0 + 1, j0, k0 + 1, channel), fw);
+        float c11 = lerp(get(i0 + 1, j0 + 1, k0, channel), get(i0 + 1, j0 + 1, k0 + 1, channel), fw);
+        return lerp(lerp(c00, c01, fv), lerp(c10, c11, fv), fu);
+    }
+
+    private float get(int thetaIn, int thetaOut, int phi, int channel) {
+        return table.get(((thetaIn * thetaOutRes + thetaOut) * phiRes + phi) * CHANNELS + channel);
+    }
+
+    private static float lerp(float a, float b, float t) {
+        return a + (b - a) * t;
+    }
+
+    // Uniformly distributed direction on the upper hemisphere, y being the surface normal
+    private static void randomHemisphereDirection(Random random, Vector3f direction) {
+        float y = random.nextFloat();
+        float phi = 2 * PI * random.nextFloat();
+        float r = (float) Math.sqrt(Math.max(0f, 1f - y * y));
+        direction.set(r * (float) Math.cos(phi), y, r * (float) Math.sin(phi));
+    }
+
+    /**
+     * Error of a tabulated BRDF against direct evaluation.
+     */
+    public static class ErrorReport {
+
+        private final int samples;
+        private final float rmsError;
+        private final float maxError;
+        private final float peak;
+        private final boolean visible;
+
+        ErrorReport(int samples, float rmsError, float maxError, float peak, boolean visible) {
+            this.samples = samples;
+            this.rmsError = rmsError;
+            this.maxError = maxError;
+            this.peak = peak;
+            this.visible = visible;
+        }
+
+        public float getRmsError() {
+            return rmsError;
+        }
+
+        public float getMaxError() {
+            return maxError;
+        }
+
+        public float getPeak() {
+            return peak;
+        }
+
+        /**
+         * @return boolean Returns true if the table is expected to change the lobe visibly.
+         */
+        public boolean isVisible() {
+            return visible;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Tabulated BRDF error over %d samples: RMS %.5f, max %.5f, peak %.5f (%s)",
+                    samples, rmsError, maxError, peak,
+                    visible ? "visible, consider a higher table resolution" : "not visible");
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.nicky.viewer.Lobe;
+
+/**
+ * <h1>Update Scheduler</h1>
+ * Coalesces incident ray, BRDF selection, parameter, quality and display mode change events into lobe rebuilds.
+ * Events only mark the lobe as out of date, a rebuild is released at most once per poll and no sooner than
+ * the configured interval after the previous one. The rebuild always uses the newest state, so a burst of
+ * events, such as a held key, costs a single rebuild. Counts of events and rebuilds show how many were saved.
+ * A rebuild is a preview while only the incident ray changed, and a full build once the BRDF or its
+ * parameters changed. It is colour-only while every event was a parameter edit which only changed the BRDF's
+ * colour, so the lobe's positions are kept.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class UpdateScheduler {
+
+    private final long intervalNanos;
+    private long lastRebuild;
+
+    private boolean pending;
+    private boolean pendingPreview;
+    private boolean pendingColoursOnly;
+    private String pendingBrdfAlias;
+    private boolean preview;
+    private boolean coloursOnly;
+    private String brdfAlias;
+
+    private long events;
+    private long rebuilds;
+
+    /**
+     * @param intervalNanos Minimum time between two rebuilds, 0 allows one per poll
+     */
+    public UpdateScheduler(long intervalNanos) {
+        this.intervalNanos = Math.max(0, intervalNanos);
+        lastRebuild = Long.MIN_VALUE;
+        pendingPreview = true;
+        pendingColoursOnly = true;
+    }
+
+    public void incidentRayChanged() {
+        mark(true, false, null);
+    }
+
+    public void brdfSelected(String alias) {
+        mark(false, false, alias);
+    }
+
+    public void parametersChanged() {
+        mark(false, false, null);
+    }
+
+    /**
+     * A parameter edit changed the BRDF's colour but not its scalar value, see {@link BRDFParameters}
+     */
+    public void coloursChanged() {
+        mark(false, true, null);
+    }
+
+    /**
+     * The lobe resolution changed while idle, the lobe is rebuilt in full at the new resolution
+     */
+    public void qualityChanged() {
+        mark(false, false, null);
+    }
+
+    /**
+     * The lobe display mode changed, the lobe is rebuilt in full in the new mode
+     */
+    public void displayModeChanged() {
+        mark(false, false, null);
+    }
+
+    /**
+     * Release the pending rebuild if it is due, its state is then given by {@link #isPreview()},
+     * {@link #isColoursOnly()} and {@link #getBrdfAlias()}
+     * @param now Current time in nanoseconds
+     * @return boolean Returns true if a rebuild should be done now.
+     */
+    public boolean poll(long now) {
+        if (!pending || (lastRebuild != Long.MIN_VALUE && now - lastRebuild < intervalNanos)) {
+            return false;
+        }
+
+        preview = pendingPreview;
+        coloursOnly = pendingColoursOnly;
+        brdfAlias = pendingBrdfAlias;
+        pending = false;
+        pendingPreview = true;
+        pendingColoursOnly = true;
+        pendingBrdfAlias = null;
+        lastRebuild = now;
+        rebuilds++;
+        return true;
+    }
+
+    /**
+     * @return boolean Returns true if only the incident ray changed since the previous rebuild
+     */
+    public boolean isPreview() {
+        return preview;
+    }
+
+    /**
+     * @return boolean Returns true if only the BRDF's colour changed since the previous rebuild
+     */
+    public boolean isColoursOnly() {
+        return coloursOnly;
+    }
+
+    /**
+     * @return String Returns the newest BRDF selected since the previous rebuild, null if the BRDF did not change.
+     */
+    public String getBrdfAlias() {
+        return brdfAlias;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public long getRebuilds() {
+        return rebuilds;
+    }
+
+    /**
+     * @return long Number of events absorbed by another event's rebuild
+     */
+    public long getCoalesced() {
+        return events - rebuilds - (pending ? 1 : 0);
+    }
+
+    private void mark(boolean preview, boolean coloursOnly, String alias) {
+        events++;
+        pending = true;
+        pendingPreview &= preview;
+        pendingColoursOnly &= coloursOnly;
+        if (alias != null) {
+            pendingBrdfAlias = alias;
+        }
+    }
+}
@@ -38,6 +38,18 @@ public class Renderer {
         // Create uniforms for world and projection matrices
         shaderProgram.createUniform("projectionMatrix");
         shaderProgram.createUniform("modelViewMatrix");
+
+        // Mapping of quantised vertex positions, see VertexFormat
+        shaderProgram.createUniform("positionOffset");
+        shaderProgram.createUniform("positionScale");
+    }
+
+    /**
+     * Set the size of points drawn by point cloud meshes
+     * @param size Point diameter in pixels
+     */
+    public void setPointSize(float size) {
+        glPointSize(size);
     }
 
     // Clears the window
@@ -70,6 +82,8 @@ public class Renderer {
             // Set model view matrix for object
             Matrix4f modelViewMatrix = transformation.getModelViewMatrix(viewerItem, viewMatrix);
             shaderProgram.setUniform("modelViewMatrix", modelViewMatrix);
+            shaderProgram.setUniform("positionOffset", mesh.getPositionOffset());
+            shaderProgram.setUniform("positionScale", mesh.getPositionScale());
 
             // Render the mesh for this viewer item
             mesh.render();
@@ -5,6 +5,24 @@ import com.nicky.engine.*;
 import com.nicky.resources.Utilities;
 import com.nicky.viewer.Items.Rectangle;
 import com.nicky.viewer.Items.Sphere;
+import com.nicky.viewer.Lobe.AdaptiveLobeTessellator;
+import com.nicky.viewer.Lobe.AlbedoAnalyzer;
+import com.nicky.viewer.Lobe.BRDFAccess;
+import com.nicky.viewer.Lobe.BRDFParameters;
+import com.nicky.viewer.Lobe.BatchBRDF;
+import com.nicky.viewer.Lobe.Isotropy;
+import com.nicky.viewer.Lobe.LobeAtlas;
+import com.nicky.viewer.Lobe.LobeBuilder;
+import com.nicky.viewer.Lobe.LobeCache;
+import com.nicky.viewer.Lobe.LobeEvaluator;
+import com.nicky.viewer.Lobe.LobeGeometry;
+import com.nicky.viewer.Lobe.LobePrefetcher;
+import com.nicky.viewer.Lobe.LobeStatistics;
+import com.nicky.viewer.Lobe.PointCloudSampler;
+import com.nicky.viewer.Lobe.PolarSlice;
+import com.nicky.viewer.Lobe.ProgressiveLobe;
+import com.nicky.viewer.Lobe.QualityGovernor;
+import com.nicky.viewer.Lobe.UpdateScheduler;
 import javafx.util.Pair;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
@@ -17,6 +35,9 @@ import java.util.*;
 import java.util.logging.Logger;
 
 import static org.lwjgl.glfw.GLFW.*;
+import static org.lwjgl.opengl.GL11.GL_LINES;
+import static org.lwjgl.opengl.GL11.GL_POINTS;
+import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
 
 /**
  * <h1>Viewer</h1>
@@ -32,6 +53,7 @@ public class Viewer {
     private static final Vector3f pointOnSurface = new Vector3f(0f, 0f, 0f);
     private static final float MOUSE_SENSITIVITY = 0.2f;
     private static final float CAMERA_POS_STEP = 0.05f;
+    private static final float INCIDENT_RAY_STEP = 0.05f;
     private final Vector3f cameraInc;
     private final Renderer renderer;
     private final Camera camera;
@@ -40,11 +62,37 @@ public class Viewer {
     private Sphere unitSphere;
     private Rectangle plane;
     private Rectangle incidentRay;
+    private LobeEvaluator lobeEvaluator;
+    private LobeBuilder lobeBuilder;
+    private LobePrefetcher lobePrefetcher;
+    // Component of the incident ray moved by the key held this frame, x or z, and its step, zero if none is held
+    private int sweepAxis;
+    private float sweepStep;
+    private boolean prefetching;
+    private UpdateScheduler updateScheduler;
+    private QualityGovernor qualityGovernor;
+    private LobeAtlas lobeAtlas;
+    private AlbedoAnalyzer albedoAnalyzer;
+    private final LobeStatistics lobeStatistics = new LobeStatistics();
+    // Serial of the builder's lobe held by the unit sphere mesh, -1 once anything else was uploaded to it
+    private long uploadedLobeSerial = -1;
+    private long attributeUploads;
+    // Rotation of the scene around the normal set by the user, and the azimuth the lobe mesh is built for, degrees
+    private float viewRotation;
+    private float lobeAzimuth;
+    private PolarSlice polarSlice;
+    private boolean polarSliceEnabled;
+    private boolean polarSlicePerpendicular;
+    private boolean polarSliceShown;
+    private float[] atlasVertices;
+    private float[] atlasColours;
+    private long lastFrameTime;
 
     private ViewerItem[] viewerItems;
     private ViewerItem unitSphereItem;
     private ViewerItem planeItem;
     private ViewerItem incidentRayItem;
+    private ViewerItem polarSliceItem;
 
     private Map<String, BRDF> brdfs;
     private Pair<String, BRDF> currentBRDF;
@@ -54,6 +102,7 @@ public class Viewer {
     private int renderCounter = 0;
     private boolean incidentRayUpdated = false;
     private boolean sphereUpdated = false;
+    private boolean polarSliceUpdated = false;
     private boolean cameraTopView = false;
 
     public Viewer() throws IOException {
@@ -91,14 +140,103 @@ public class Viewer {
     }
 
     public void init(Window window, Map<String, BRDF> brdfs) throws Exception {
+        // Record where GL resources are allocated, so leaks reported on shutdown can be traced
+        GLResources.setTracing(getBooleanProperty("gl_resource_tracing", false));
         renderer.init(window);
         this.brdfs = brdfs;
 
-        // Initialise unit sphere
+        // Parallel evaluation is opt-in per BRDF: only the BRDFs listed here, or declaring themselves thread-safe,
+        // are evaluated by several threads at once. The framework does not say which of its BRDFs are stateless, so
+        // none are listed by default and any other BRDF is evaluated by one thread at a time
+        BRDFAccess.setThreadSafe(getListProperty("thread_safe_brdfs", ""));
+        // BRDFs are evaluated through f unless fitting shiny/diffuse kernels to them is enabled, which is faster
+        // but can miss features narrower than the fit's samples
+        BatchBRDF.setFitting(getBooleanProperty("fit_batch_kernels", false));
+
+        // Initialise unit sphere, evaluating lobes on the configured number of workers
+        lobeEvaluator = new LobeEvaluator(getIntProperty("lobe_workers", Runtime.getRuntime().availableProcessors()));
+        // Isotropic lobes are evaluated on one side of the plane of incidence and mirrored. BRDFs are asked or
+        // sampled for isotropy, the lists only override the sampling for BRDFs which do not say themselves
+        Isotropy isotropy = new Isotropy(getListProperty("isotropic_brdfs", ""),
+                getListProperty("anisotropic_brdfs", ""));
+        if (getBooleanProperty("mirror_isotropic_lobes", true)) {
+            lobeEvaluator.setIsotropy(isotropy);
+        }
+        unitSphere.setLobeEvaluator(lobeEvaluator);
         unitSphere.init();
         updateSphereItem();
+
+        AdaptiveLobeTessellator adaptiveTessellator = null;
+        if (configProperties.getProperty("lobe_tessellation", "grid").trim().equals("adaptive")) {
+            adaptiveTessellator = new AdaptiveLobeTessellator(
+                    getIntProperty("adaptive_min_depth", 1),
+                    getIntProperty("adaptive_max_depth", 6),
+                    getFloatProperty("adaptive_tolerance", 0.01f));
+        }
+        LobeCache lobeCache = new LobeCache(getIntProperty("lobe_cache_mb", 64) * 1024L * 1024L,
+                getFloatProperty("lobe_cache_quantization", 0.01f));
+
+        // Coarse lobe shown while the incident ray is dragged, refined in the background
+        ProgressiveLobe progressiveLobe = null;
+        if (adaptiveTessellator == null && getBooleanProperty("progressive_lobe", true)) {
+            int coarseResolution = getIntProperty("progressive_coarse_resolution", 16);
+            Sphere coarseSphere = new Sphere(0, 0, 0, coarseResolution, coarseResolution);
+            coarseSphere.setLobeEvaluator(lobeEvaluator);
+            coarseSphere.init();
+            progressiveLobe = new ProgressiveLobe(coarseSphere, unitSphere);
+        }
+
+        // Lobes are built off the render thread, the unit sphere belongs to the builder from now on
+        lobeBuilder = new LobeBuilder(lobeEvaluator, unitSphere, progressiveLobe, adaptiveTessellator, lobeCache);
+        lobeBuilder.setVertexFormat(unitSphereItem.getMesh().getFormat());
+        // Isotropic lobes are built at azimuth zero and rotated, so azimuth changes reuse them
+        lobeBuilder.setIsotropy(getBooleanProperty("reuse_isotropic_lobes", true) ? isotropy : null);
+        if (getBooleanProperty("brdf_table", false)) {
+            String[] resolution = configProperties.getProperty("brdf_table_resolution", "32,32,64").split(",");
+            lobeBuilder.setTabulation(Integer.parseInt(resolution[0].trim()),
+                    Integer.parseInt(resolution[1].trim()),
+                    Integer.parseInt(resolution[2].trim()),
+                    getIntProperty("brdf_table_error_samples", 4096),
+                    getFloatProperty("brdf_table_max_error", 0.01f));
+        }
+
+        // Lobes of the next steps of a held incident ray key are evaluated ahead on the idle cores, at a lower
+        // priority than the builder
+        int prefetchDepth = getIntProperty("lobe_prefetch_depth", 3);
+        if (adaptiveTessellator == null && prefetchDepth > 0) {
+            LobeEvaluator prefetchEvaluator = new LobeEvaluator(getIntProperty("lobe_prefetch_workers",
+                    Math.max(1, Runtime.getRuntime().availableProcessors() - 1)), Thread.MIN_PRIORITY);
+            prefetchEvaluator.setIsotropy(lobeEvaluator.getIsotropy());
+            lobePrefetcher = new LobePrefetcher(prefetchDepth, prefetchEvaluator,
+                    getBooleanProperty("reuse_isotropic_lobes", true) ? isotropy : null, lobeCache);
+            lobeBuilder.setPrefetcher(lobePrefetcher);
+        }
+
+        // Point cloud preview of the lobe, toggled with P
+        lobeBuilder.setPointCloudSampler(new PointCloudSampler(getIntProperty("point_cloud_points", 20000),
+                getIntProperty("point_cloud_candidates", 4)));
+        lobeBuilder.setPointCloud(getBooleanProperty("point_cloud", false));
+        renderer.setPointSize(getFloatProperty("point_cloud_point_size", 2f));
+
+        // Lobe resolution follows the frame budget, grid lobes only
+        if (adaptiveTessellator == null && getBooleanProperty("quality_governor", true)) {
+            qualityGovernor = new QualityGovernor(
+                    getIntProperty("lobe_min_resolution", 32),
+                    getIntProperty("lobe_max_resolution", 150),
+                    getIntProperty("lobe_resolution_step", 10),
+                    (long) (getFloatProperty("lobe_frame_budget_ms", 16.7f) * 1000000L),
+                    getIntProperty("governor_idle_frames", 30),
+                    getFloatProperty("governor_reference_distance", 2f));
+            lobeBuilder.setResolution(qualityGovernor.getResolution());
+        }
         buildLobe("ShinyDiffuseBRDF");
 
+        // Polar plot of the BRDF in the plane of incidence, follows the incident ray every frame
+        polarSlice = new PolarSlice(getIntProperty("polar_slice_samples", 2048));
+        polarSliceEnabled = getBooleanProperty("polar_slice", true);
+        polarSlicePerpendicular = getBooleanProperty("polar_slice_perpendicular", false);
+        updateScheduler = new UpdateScheduler(getIntProperty("lobe_update_interval_ms", 0) * 1000000L);
+
         // Initialise plane
         plane.init();
         planeItem = getViewerItemFromItem(plane);
@@ -108,19 +246,20 @@ public class Viewer {
         // Initialise incident ray
         incidentRay.init();
         updateIncidentRayItem();
-        incidentRayItem = getViewerItemFromItem(incidentRay);
 
         viewerItems = new ViewerItem[]{
                 unitSphereItem,
                 planeItem,
                 incidentRayItem,
         };
+        updatePolarSlice();
 
         LOGGER.info("Initialised Viewer...");
     }
 
     public void input(Window window, MouseInput mouseInput) {
         cameraInc.set(0, 0, 0);
+        sweepStep = 0;
 
         // Up: Zoom in
         if (window.isKeyPressed(GLFW_KEY_UP)) {
@@ -138,12 +277,12 @@ public class Viewer {
             }
             // Left: Rotate lobe left
         } else if (window.isKeyPressed(GLFW_KEY_LEFT)) {
-            unitSphereItem.setRotation(0, unitSphereItem.getRotation().y - 0.5f, 0);
-            incidentRayItem.setRotation(0, unitSphereItem.getRotation().y - 0.5f, 0);
+            viewRotation -= 0.5f;
+            applyRotation();
             // Right: rotate lobe right
         } else if (window.isKeyPressed(GLFW_KEY_RIGHT)) {
-            unitSphereItem.setRotation(0, unitSphereItem.getRotation().y + 0.5f, 0);
-            incidentRayItem.setRotation(0, unitSphereItem.getRotation().y + 0.5f, 0);
+            viewRotation += 0.5f;
+            applyRotation();
             // T: Top view
         } else if (window.isKeyPressedOnce(GLFW_KEY_RIGHT_SHIFT)) {
             if (cameraTopView) {
@@ -155,32 +294,40 @@ public class Viewer {
                 camera.setRotation(90, 0, 0);
                 cameraTopView = true;
             }
+            // P: Toggle point cloud lobe
+        } else if (window.isKeyPressedOnce(GLFW_KEY_P)) {
+            lobeBuilder.setPointCloud(!lobeBuilder.isPointCloud());
+            updateScheduler.displayModeChanged();
             // A: Adjust incident ray x axis
         } else if (window.isKeyPressed(GLFW_KEY_A)) {
 //            if(isIncidentRayMalformed()) {
 //                LOGGER.warning("Incident ray is malformed!");
 //            }
             if (incidentRaySource.normalize().x >= -1.0f) {
-                incidentRaySource.x -= 0.05f;
+                incidentRaySource.x -= INCIDENT_RAY_STEP;
                 incidentRayUpdated = true;
+                sweep(0, -INCIDENT_RAY_STEP);
             }
             // D: Adjust incident ray x axis
         } else if (window.isKeyPressed(GLFW_KEY_D)) {
             if (incidentRaySource.normalize().x <= 1.0f) {
-                incidentRaySource.x += 0.05f;
+                incidentRaySource.x += INCIDENT_RAY_STEP;
                 incidentRayUpdated = true;
+                sweep(0, INCIDENT_RAY_STEP);
             }
             // W: Adjust incident ray z axis
         } else if (window.isKeyPressed(GLFW_KEY_W)) {
             if (incidentRaySource.normalize().z <= 1.0f) {
-                incidentRaySource.z += 0.05f;
+                incidentRaySource.z += INCIDENT_RAY_STEP;
                 incidentRayUpdated = true;
+                sweep(2, INCIDENT_RAY_STEP);
             }
             // S: Adjust incident ray z axis
         } else if (window.isKeyPressed(GLFW_KEY_S)) {
             if (incidentRaySource.normalize().z >= -1.0f) {
-                incidentRaySource.z -= 0.05f;
+                incidentRaySource.z -= INCIDENT_RAY_STEP;
                 incidentRayUpdated = true;
+                sweep(2, -INCIDENT_RAY_STEP);
             }
         }
 
@@ -190,7 +337,66 @@ public class Viewer {
         // Update incident ray
         if (incidentRayUpdated) {
             updateIncidentRayItem();
-            buildLobe(currentBRDF.getKey());
+            updateScheduler.incidentRayChanged();
+        }
+
+        // Adjust lobe resolution to the frame budget, a change while idle rebuilds the lobe
+        long now = System.nanoTime();
+        if (qualityGovernor != null && lastFrameTime != 0
+                && qualityGovernor.update(now - lastFrameTime, lobeBuilder.getLastBuildNanos(),
+                lobeBuilder.getLastBuildResolution(), lobeBuilder.getBuilds(), incidentRayUpdated,
+                camera.getPosition().length())) {
+            lobeBuilder.setResolution(qualityGovernor.getResolution());
+            if (!incidentRayUpdated) {
+                updateScheduler.qualityChanged();
+            }
+        }
+        lastFrameTime = now;
+
+        // At most one lobe rebuild per frame or interval, with the newest incident ray and BRDF
+        boolean rebuilt = updateScheduler.poll(now);
+        if (rebuilt) {
+            String brdfAlias = updateScheduler.getBrdfAlias();
+            requestLobe(brdfAlias != null ? brdfAlias : currentBRDF.getKey(), updateScheduler.isPreview(),
+                    updateScheduler.isColoursOnly() ? LobeEvaluator.COLOURS : LobeEvaluator.ALL);
+        }
+        if (lobePrefetcher != null) {
+            prefetchSweep();
+        }
+
+        // The polar slice is cheap enough to follow the incident ray every frame
+        if (incidentRayUpdated || rebuilt) {
+            updatePolarSlice();
+        }
+
+        // Upload the latest lobe completed by the builder
+        LobeGeometry lobe = lobeBuilder.poll();
+        if (lobe != null) {
+            int drawMode = lobe.isPoints() ? GL_POINTS : GL_TRIANGLES;
+            if (lobe.isUpdateOf(uploadedLobeSerial) && (lobe.getChanges() == 0 || !lobe.isEncoded())) {
+                // Only push the attributes that changed, a colour change costs a single buffer upload and an
+                // isotropic lobe whose azimuth changed none
+                Mesh mesh = unitSphereItem.getMesh();
+                if ((lobe.getChanges() & LobeEvaluator.POSITIONS) != 0) {
+                    mesh.updatePositions(lobe.getVertices());
+                }
+                if ((lobe.getChanges() & LobeEvaluator.COLOURS) != 0) {
+                    mesh.updateColours(lobe.getColours());
+                }
+                attributeUploads++;
+            } else if (lobe.isEncoded()) {
+                // Encoded by the builder in the format of the lobe mesh
+                unitSphereItem.getMesh().update(lobe.getVertexData(), lobe.getPositionOffset(),
+                        lobe.getPositionScale(), lobe.getIndices(), drawMode);
+            } else {
+                updateSphereItem(lobe.getVertices(), lobe.getIndices(), lobe.getColours(), drawMode);
+            }
+            uploadedLobeSerial = lobe.getSerial();
+            lobeAzimuth = (float) Math.toDegrees(lobe.getAzimuth());
+            applyRotation();
+            lobeStatistics.set(lobe.getStatistics());
+            lobeBuilder.release(lobe);
+            sphereUpdated = true;
         }
 
         // Update camera position
@@ -204,12 +410,11 @@ public class Viewer {
         // Rotate camera
         if (mouseInput.isLeftButtonPressed()) {
             Vector2f rotationVec = mouseInput.getDisplVec();
-            float rotation = unitSphereItem.getRotation().y + rotationVec.y;
-            if (rotation > 360) {
-                rotation = 0;
+            viewRotation += rotationVec.y;
+            if (viewRotation > 360) {
+                viewRotation = 0;
             }
-            unitSphereItem.setRotation(0, rotation, 0);
-            incidentRayItem.setRotation(0, rotation, 0);
+            applyRotation();
 //            camera.moveRotation(
 //                    rotationVec.x * MOUSE_SENSITIVITY,
 //                    rotationVec.y * MOUSE_SENSITIVITY,
@@ -224,9 +429,12 @@ public class Viewer {
             camera.zoom(positionVec.x * CAMERA_POS_STEP);
         }
 
-        if (incidentRayUpdated || sphereUpdated) {
+        if (incidentRayUpdated || sphereUpdated || polarSliceUpdated) {
             updateViewerItems();
         }
+        if (polarSliceItem != null) {
+            polarSliceItem.setRotation(0, viewRotation, 0);
+        }
 
 //         Rotate automatically
         // Update rotation angle
@@ -244,56 +452,174 @@ public class Viewer {
 
     public void cleanup() {
         renderer.cleanup();
+        if (updateScheduler != null) {
+            LOGGER.info("Lobe updates: " + updateScheduler.getEvents() + " events, " + updateScheduler.getRebuilds()
+                    + " rebuilds, " + updateScheduler.getCoalesced() + " coalesced");
+        }
+        if (lobeBuilder != null) {
+            lobeBuilder.cleanup();
+        }
+        if (lobePrefetcher != null) {
+            LOGGER.info("Lobe prefetch: " + lobePrefetcher.getHits() + " hits, " + lobePrefetcher.getPrefetched()
+                    + " prefetched, " + lobePrefetcher.getCancelled() + " cancelled");
+            lobePrefetcher.cleanup();
+        }
+        if (lobeAtlas != null) {
+            lobeAtlas.cleanup();
+        }
+        if (albedoAnalyzer != null) {
+            albedoAnalyzer.cleanup();
+        }
+        if (lobeEvaluator != null) {
+            lobeEvaluator.cleanup();
+        }
         for (ViewerItem viewerItem : viewerItems) {
             viewerItem.getMesh().cleanup();
         }
+        if (polarSliceItem != null && !Arrays.asList(viewerItems).contains(polarSliceItem)) {
+            polarSliceItem.getMesh().cleanup();
+        }
+        TopologyCache.cleanup();
     }
 
     public void updateIncidentRayItem() {
         incidentRay.setVertices(getIncidentRayVertices());
-        incidentRayItem = getViewerItemFromItem(incidentRay);
-        incidentRayItem.setPosition(pointOnSurface.x, pointOnSurface.y, pointOnSurface.z);
+        if (incidentRayItem == null) {
+            incidentRayItem = getViewerItemFromItem(incidentRay);
+            incidentRayItem.setPosition(pointOnSurface.x, pointOnSurface.y, pointOnSurface.z);
+        } else {
+            incidentRayItem.getMesh().update(incidentRay.getVertices(), incidentRay.getIndices(),
+                    incidentRay.getColours(), GL_TRIANGLES);
+        }
     }
 
     public void updateSphereItem() {
+        updateSphereItem(unitSphere.getVertices(), unitSphere.getIndices(), unitSphere.getColours(), GL_TRIANGLES);
+    }
 
-        float[] unitSphereVertices = unitSphere.getVertices();
-        int[] unitSphereIndices = unitSphere.getIndices();
-        float[] unitSphereColours = unitSphere.getColours();
-
-        // Update mesh for unit sphere
-        Mesh unitSphereMesh = new Mesh(unitSphereVertices, unitSphereIndices, unitSphereColours);
-        // Update ViewerItem for unit sphere
+    private void updateSphereItem(float[] unitSphereVertices, int[] unitSphereIndices, float[] unitSphereColours,
+                                  int drawMode) {
+        // Update the mesh of the unit sphere in place, it is only created once
+        uploadedLobeSerial = -1;
+        lobeAzimuth = 0;
+        if (unitSphereItem != null) {
+            unitSphereItem.getMesh().update(unitSphereVertices, unitSphereIndices, unitSphereColours, drawMode);
+            applyRotation();
+            return;
+        }
+        Mesh unitSphereMesh = new Mesh(unitSphereVertices, unitSphereIndices, unitSphereColours, drawMode,
+                VertexFormat.parse(configProperties.getProperty("lobe_vertex_format", "float")));
         unitSphereItem = new ViewerItem(unitSphereMesh);
 
         // Adjust unit sphere properties
         unitSphereItem.setPosition(pointOnSurface.x, pointOnSurface.y, pointOnSurface.z);
     }
 
+    /**
+     * Evaluate the polar slice of the current BRDF on the render thread and update its line mesh
+     */
+    private void updatePolarSlice() {
+        BRDF brdf = currentBRDF == null ? null : currentBRDF.getValue();
+        polarSliceUpdated = true;
+        polarSliceShown = polarSliceEnabled && brdf != null;
+        if (!polarSliceShown) {
+            return;
+        }
+
+        polarSlice.evaluate(incidentRaySource.normalize(), brdf, polarSlicePerpendicular);
+        if (polarSliceItem == null) {
+            polarSliceItem = new ViewerItem(new Mesh(polarSlice.getVertices(), polarSlice.getIndices(),
+                    polarSlice.getColours(), GL_LINES));
+            polarSliceItem.setPosition(pointOnSurface.x, pointOnSurface.y, pointOnSurface.z);
+        } else {
+            polarSliceItem.getMesh().update(polarSlice.getVertices(), polarSlice.getIndices(),
+                    polarSlice.getColours(), GL_LINES);
+        }
+    }
+
     public void buildLobe(String brdfAlias) {
+        requestLobe(brdfAlias, false, LobeEvaluator.ALL);
+    }
+
+    /**
+     * Request a lobe from the builder, it is uploaded by a later update once complete
+     * @param brdfAlias BRDF alias, null rebuilds the sphere as it is
+     * @param preview Show a coarse lobe first, used while the incident ray is dragged
+     * @param outputs Outputs of the lobe changed since the previous request, {@link LobeEvaluator#COLOURS} to keep
+     *                the positions after colour-only parameter edits
+     */
+    private void requestLobe(String brdfAlias, boolean preview, int outputs) {
+        BRDF brdf = brdfAlias == null ? null : brdfs.get(brdfAlias);
+        Vector3f incident = incidentRaySource.normalize();
+        LOGGER.info("Incident Ray: " + incident.toString());
+
+        lobeBuilder.request(brdfAlias, brdf, incident, preview, outputs);
         if (brdfAlias != null) {
-            LOGGER.info("Incident Ray: " + incidentRaySource.normalize().toString());
-            LOGGER.info("Evaluating BRDF: " + brdfAlias);
-            unitSphere.sampleBRDF(incidentRaySource.normalize(), brdfs.get(brdfAlias));
-            updateSphereItem();
-            LOGGER.info("Built lobe...");
-            currentBRDF = new Pair<>(brdfAlias, brdfs.get(brdfAlias));
-            sphereUpdated = true;
-        } else {
-            updateSphereItem();
+            currentBRDF = new Pair<>(brdfAlias, brdf);
         }
+    }
 
+    // Record the incident ray component moved by a held key and its step, the next steps are predicted from them
+    private void sweep(int axis, float step) {
+        sweepAxis = axis;
+        sweepStep = step;
+    }
+
+    /**
+     * Predict the incident rays of the next steps of a held key, the same steps input applies every frame,
+     * and prefetch their lobes. Releasing the key drops the prediction.
+     */
+    private void prefetchSweep() {
+        if (sweepStep == 0 || lobeBuilder.isPointCloud() || currentBRDF == null) {
+            if (prefetching) {
+                lobePrefetcher.cancel();
+                prefetching = false;
+            }
+            return;
+        }
+        if (!incidentRayUpdated) {
+            return;
+        }
+
+        Vector3f source = new Vector3f(incidentRaySource);
+        List<Vector3f> incidents = new ArrayList<>(lobePrefetcher.getDepth());
+        for (int step = 0; step < lobePrefetcher.getDepth(); step++) {
+            source.normalize();
+            if (sweepAxis == 0) {
+                source.x += sweepStep;
+            } else {
+                source.z += sweepStep;
+            }
+            incidents.add(new Vector3f(source).normalize());
+        }
+        lobePrefetcher.prefetch(currentBRDF.getKey(), currentBRDF.getValue(), incidents,
+                lobeBuilder.getResolution());
+        prefetching = true;
+    }
+
+    // Rotate the items around the normal, the lobe mesh is also rotated to the azimuth it is drawn at
+    private void applyRotation() {
+        unitSphereItem.setRotation(0, viewRotation + lobeAzimuth, 0);
+        if (incidentRayItem != null) {
+            incidentRayItem.setRotation(0, viewRotation, 0);
+        }
     }
 
     private void updateViewerItems() {
-        viewerItems = new ViewerItem[]{
+        viewerItems = !polarSliceShown ? new ViewerItem[]{
                 unitSphereItem,
                 planeItem,
                 incidentRayItem,
+        } : new ViewerItem[]{
+                unitSphereItem,
+                planeItem,
+                incidentRayItem,
+                polarSliceItem,
         };
 
         incidentRayUpdated = false;
         sphereUpdated = false;
+        polarSliceUpdated = false;
 
         if (viewerItems[0] != unitSphereItem &&
                 viewerItems[1] != planeItem &&
@@ -336,6 +662,48 @@ public class Viewer {
         };
     }
 
+    private int getIntProperty(String key, int defaultValue) {
+        String value = configProperties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Invalid value for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    private float getFloatProperty(String key, float defaultValue) {
+        String value = configProperties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Float.parseFloat(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Invalid value for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    private boolean getBooleanProperty(String key, boolean defaultValue) {
+        String value = configProperties.getProperty(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    // Comma separated values, blank entries are left out
+    private List<String> getListProperty(String key, String defaultValue) {
+        List<String> values = new ArrayList<>();
+        for (String value : configProperties.getProperty(key, defaultValue).split(",")) {
+            if (!value.trim().isEmpty()) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+
     private boolean isIncidentRayMalformed() {
         return new Vector3f(1, 0, 0).normalize().dot(incidentRaySource) < 0;
     }
@@ -343,10 +711,97 @@ public class Viewer {
     public void updateCurrentBRDF(String alias) {
         BRDF brdf = brdfs.get(alias);
         currentBRDF = new Pair<>(alias, brdf);
-        buildLobe(alias);
+        updateScheduler.brdfSelected(alias);
+        if (lobeAtlas != null) {
+            lobeAtlas.build(brdf);
+        }
         System.out.println(currentBRDF.getKey());
     }
 
+    /**
+     * Rebuild the lobe of the current BRDF once its parameters changed
+     */
+    public void rebuildLobe() {
+        updateScheduler.parametersChanged();
+        if (lobeAtlas != null) {
+            lobeAtlas.build(currentBRDF.getValue());
+        }
+    }
+
+    /**
+     * Apply a parameter edited in the interface to a BRDF, and rebuild its lobe if it is the current one.
+     * A colour-only edit keeps the positions of the lobe, see {@link BRDFParameters}.
+     * @param alias BRDF alias
+     * @param type Type of the parameter, Spectrum or float
+     * @param name Name of the parameter
+     * @param value New value, in the format the BRDF reports it in
+     */
+    public void setBRDFParameter(String alias, String type, String name, String value) {
+        BRDF brdf = brdfs.get(alias);
+        if (brdf == null) {
+            return;
+        }
+
+        int outputs = BRDFParameters.set(brdf, type, name, value);
+        if (outputs == 0 || currentBRDF == null || !alias.equals(currentBRDF.getKey())) {
+            return;
+        }
+        LOGGER.info("Set " + name + " of " + alias + " to " + value
+                + (outputs == LobeEvaluator.COLOURS ? " (colour only)" : ""));
+        if (outputs == LobeEvaluator.COLOURS) {
+            updateScheduler.coloursChanged();
+        } else {
+            updateScheduler.parametersChanged();
+        }
+        if (lobeAtlas != null) {
+            lobeAtlas.build(brdf);
+        }
+    }
+
+    /**
+     * Precompute the lobes of the current BRDF for a grid of incident directions, kept up to date from then on
+     */
+    public void buildLobeAtlas() {
+        if (lobeAtlas == null) {
+            lobeAtlas = new LobeAtlas(getIntProperty("lobe_atlas_elevations", 90),
+                    getIntProperty("lobe_atlas_azimuths", 36),
+                    getIntProperty("lobe_atlas_resolution", 48),
+                    lobeEvaluator);
+            atlasVertices = new float[lobeAtlas.getLobeLength()];
+            atlasColours = new float[lobeAtlas.getLobeLength()];
+            LOGGER.info("Lobe atlas: " + lobeAtlas.getBytes() / 1024 + "KB");
+        }
+        lobeAtlas.build(currentBRDF.getValue());
+    }
+
+    /**
+     * Move the incident ray and show the lobe blended from the atlas, the BRDF is not evaluated
+     * @param elevation Angle of the incident ray from the normal, in degrees
+     * @param azimuth Angle of the incident ray around the normal, in degrees
+     * @return boolean Returns false if the atlas is not built for the current BRDF.
+     */
+    public boolean scrubLobeAtlas(float elevation, float azimuth) {
+        if (lobeAtlas == null || !lobeAtlas.isReadyFor(currentBRDF.getValue())) {
+            return false;
+        }
+
+        float theta = (float) Math.toRadians(elevation);
+        float phi = (float) Math.toRadians(azimuth);
+        incidentRaySource.set((float) (Math.sin(theta) * Math.cos(phi)),
+                (float) Math.cos(theta),
+                (float) (Math.sin(theta) * Math.sin(phi)));
+        updateIncidentRayItem();
+
+        lobeAtlas.lookup(theta, phi, atlasVertices, atlasColours);
+        updateSphereItem(atlasVertices, lobeAtlas.getIndices(), atlasColours, GL_TRIANGLES);
+        sphereUpdated = true;
+
+        // The polar slice would need the BRDF, it is hidden until the incident ray is next moved
+        polarSliceShown = false;
+        polarSliceUpdated = true;
+        return true;
+    }
+
     public List<String> getSunflowSceneNames() {
         List<String> l = new ArrayList<>();
         for (Map.Entry<String, String> entry : sunflowScenes.entrySet()) {
@@ -412,6 +867,31 @@ public class Viewer {
         }
     }
 
+    /**
+     * Measure the albedo of the current BRDF over a sweep of incident elevations, in the background
+     */
+    public void analyseAlbedo() {
+        if (albedoAnalyzer == null) {
+            albedoAnalyzer = new AlbedoAnalyzer(getIntProperty("albedo_angles", 90),
+                    getIntProperty("albedo_samples", 1 << 20),
+                    lobeEvaluator);
+        }
+        albedoAnalyzer.analyse(currentBRDF.getKey(), currentBRDF.getValue());
+    }
+
+    public void exportAlbedo() {
+        if (albedoAnalyzer == null) {
+            return;
+        }
+        String filepath = configProperties.getProperty("brdf_output_path") + currentBRDF.getKey() + "_albedo.csv";
+        boolean saved = Utilities.saveJsonToFile(filepath, albedoAnalyzer.toCsv());
+        if (saved) {
+            LOGGER.info("Exported albedo.");
+        } else {
+            LOGGER.warning("Could not export albedo...");
+        }
+    }
+
     public void saveBRDF(String alias) {
         String jsonString = Utilities.serialiseBRDFJson(new Pair<>(alias, currentBRDF.getValue()));
         String filepath = configProperties.getProperty("brdf_output_path") + "custom/" + alias + ".json";
@@ -426,4 +906,79 @@ public class Viewer {
     public Vector3f getIncidentRaySource() {
         return incidentRaySource;
     }
+
+    public UpdateScheduler getUpdateScheduler() {
+        return updateScheduler;
+    }
+
+    /**
+     * @return QualityGovernor Returns the governor of the lobe resolution, null if the resolution is fixed.
+     */
+    public QualityGovernor getQualityGovernor() {
+        return qualityGovernor;
+    }
+
+    /**
+     * @return LobeAtlas Returns the atlas of precomputed lobes, null until one is built.
+     */
+    public LobeAtlas getLobeAtlas() {
+        return lobeAtlas;
+    }
+
+    /**
+     * @return AlbedoAnalyzer Returns the albedo analyzer, null until an analysis is started.
+     */
+    public AlbedoAnalyzer getAlbedoAnalyzer() {
+        return albedoAnalyzer;
+    }
+
+    public boolean isPolarSlice() {
+        return polarSliceEnabled;
+    }
+
+    public void setPolarSlice(boolean enabled) {
+        if (enabled != polarSliceEnabled) {
+            polarSliceEnabled = enabled;
+            updatePolarSlice();
+        }
+    }
+
+    public boolean isPolarSlicePerpendicular() {
+        return polarSlicePerpendicular;
+    }
+
+    public void setPolarSlicePerpendicular(boolean perpendicular) {
+        if (perpendicular != polarSlicePerpendicular) {
+            polarSlicePerpendicular = perpendicular;
+            updatePolarSlice();
+        }
+    }
+
+    /**
+     * @return PolarSlice Returns the polar slice of the current BRDF, evaluated while it is shown.
+     */
+    public PolarSlice getPolarSlice() {
+        return polarSlice;
+    }
+
+    /**
+     * @return LobeStatistics Statistics of the lobe on screen, invalid for lobes built without them
+     */
+    public LobeStatistics getLobeStatistics() {
+        return lobeStatistics;
+    }
+
+    /**
+     * @return LobePrefetcher Returns the prefetcher of held key sweeps, null if prefetching is disabled.
+     */
+    public LobePrefetcher getLobePrefetcher() {
+        return lobePrefetcher;
+    }
+
+    /**
+     * @return long Number of lobes uploaded by updating only their changed attributes
+     */
+    public long getAttributeUploads() {
+        return attributeUploads;
+    }
 }
@@ -0,0 +1,131 @@
+package com.nicky.engine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+
+public class TopologyCacheTest {
+
+    private FakeBuffers buffers;
+    private TopologyCache.Buffers previous;
+
+    @Before
+    public void setUp() {
+        buffers = new FakeBuffers();
+        previous = TopologyCache.setBuffers(buffers);
+    }
+
+    @After
+    public void tearDown() {
+        TopologyCache.cleanup();
+        TopologyCache.setBuffers(previous);
+    }
+
+    @Test
+    public void meshesWithSameIndicesShareOneBuffer() {
+        TopologyCache.Topology first = TopologyCache.acquire(indices(0, 6));
+        TopologyCache.Topology second = TopologyCache.acquire(indices(0, 6));
+        assertSame(first, second);
+        assertEquals(1, buffers.uploads);
+        assertEquals(1, TopologyCache.getSize());
+        assertEquals(6, first.getCount());
+        assertEquals(GL_UNSIGNED_SHORT, first.getType());
+
+        // Still used by the second mesh
+        TopologyCache.release(first);
+        assertTrue(buffers.live.contains(first.getVboID()));
+        TopologyCache.release(second);
+        TopologyCache.cleanup();
+        assertFalse(buffers.live.contains(first.getVboID()));
+        assertEquals(0, TopologyCache.getSize());
+    }
+
+    @Test
+    public void largeIndicesAreStoredAsInts() {
+        TopologyCache.Topology topology = TopologyCache.acquire(new int[]{0, 1, 70000});
+        assertEquals(GL_UNSIGNED_INT, topology.getType());
+        assertFalse(buffers.lastShort);
+        TopologyCache.release(topology);
+    }
+
+    @Test
+    public void idleTopologiesAreKeptUntilEvicted() {
+        TopologyCache.Topology[] topologies = new TopologyCache.Topology[5];
+        for (int i = 0; i < topologies.length; i++) {
+            topologies[i] = TopologyCache.acquire(indices(i, 3));
+            TopologyCache.release(topologies[i]);
+        }
+
+        // Four idle topologies are kept, the least recently released one is deleted
+        assertEquals(4, TopologyCache.getSize());
+        assertFalse(buffers.live.contains(topologies[0].getVboID()));
+        for (int i = 1; i < topologies.length; i++) {
+            assertTrue(buffers.live.contains(topologies[i].getVboID()));
+        }
+
+        // Using an idle topology again does not upload it, and takes it out of the idle ones
+        TopologyCache.Topology reused = TopologyCache.acquire(indices(1, 3));
+        assertSame(topologies[1], reused);
+        assertEquals(5, buffers.uploads);
+        assertEquals(reused.getVboID(), buffers.bound);
+
+        TopologyCache.cleanup();
+        assertEquals(1, TopologyCache.getSize());
+        assertEquals(1, buffers.live.size());
+        TopologyCache.release(reused);
+    }
+
+    @Test
+    public void releasingNullIsIgnored() {
+        TopologyCache.release(null);
+        assertEquals(0, TopologyCache.getSize());
+    }
+
+    // Consecutive indices, a distinct array for each start
+    private static int[] indices(int start, int count) {
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = start + i;
+        }
+        return indices;
+    }
+
+    private static final class FakeBuffers implements TopologyCache.Buffers {
+
+        private final Set<Integer> live = new HashSet<>();
+        private int next = 1;
+        private int uploads;
+        private int bound;
+        private boolean lastShort;
+
+        @Override
+        public int upload(int[] indices, boolean shortIndices) {
+            uploads++;
+            lastShort = shortIndices;
+            bound = next++;
+            live.add(bound);
+            return bound;
+        }
+
+        @Override
+        public void bind(int vboID) {
+            assertTrue(live.contains(vboID));
+            bound = vboID;
+        }
+
+        @Override
+        public void delete(int vboID) {
+            assertTrue(live.remove(vboID));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.nicky.engine;
+
+import com.nicky.resources.HalfFloat;
+import org.joml.Vector3f;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VertexFormatTest {
+
+    private static final int VERTICES = 1000;
+
+    private final float[] positions = new float[VERTICES * 3];
+    private final float[] colours = new float[VERTICES * 3];
+
+    public VertexFormatTest() {
+        Random random = new Random(7);
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = random.nextFloat() * 2 - 1;
+            colours[i] = random.nextFloat();
+        }
+        // Colours beyond the normalised range of the byte format are clamped
+        colours[0] = 1.5f;
+        colours[1] = -0.25f;
+    }
+
+    @Test
+    public void floatFormatsRoundTripExactly() {
+        for (VertexFormat format : new VertexFormat[]{VertexFormat.FLOAT, VertexFormat.INTERLEAVED}) {
+            ByteBuffer vertexData = encode(format);
+            for (int v = 0; v < VERTICES; v++) {
+                int base = v * format.getStride();
+                for (int a = 0; a < 3; a++) {
+                    assertEquals(positions[v * 3 + a], vertexData.getFloat(base + 4 * a), 0);
+                    assertEquals(colours[v * 3 + a], vertexData.getFloat(base + 12 + 4 * a), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void halfColoursRoundTripWithinHalfPrecision() {
+        ByteBuffer vertexData = encode(VertexFormat.HALF);
+        for (int v = 0; v < VERTICES; v++) {
+            int base = v * VertexFormat.HALF.getStride();
+            for (int a = 0; a < 3; a++) {
+                assertEquals(positions[v * 3 + a], vertexData.getFloat(base + 4 * a), 0);
+                float colour = HalfFloat.toFloat(vertexData.getShort(base + 12 + 2 * a));
+                // 11 significant bits
+                assertEquals(colours[v * 3 + a], colour, Math.abs(colours[v * 3 + a]) / 2048);
+            }
+        }
+    }
+
+    @Test
+    public void compactFormatRoundTripsWithinQuantisationStep() {
+        Vector3f offset = new Vector3f();
+        Vector3f scale = new Vector3f();
+        ByteBuffer vertexData = encode(VertexFormat.COMPACT, offset, scale);
+        for (int v = 0; v < VERTICES; v++) {
+            int base = v * VertexFormat.COMPACT.getStride();
+            for (int a = 0; a < 3; a++) {
+                int quantised = vertexData.getShort(base + 2 * a) & 0xffff;
+                float position = offset.get(a) + quantised / 65535f * scale.get(a);
+                assertEquals(positions[v * 3 + a], position, scale.get(a) / 65535 / 2 + 1e-6f);
+
+                float colour = (vertexData.get(base + 8 + a) & 0xff) / 255f;
+                float expected = Math.max(0, Math.min(1, colours[v * 3 + a]));
+                assertEquals(expected, colour, 0.5f / 255 + 1e-6f);
+            }
+            assertEquals(255, vertexData.get(base + 11) & 0xff);
+        }
+    }
+
+    @Test
+    public void strideIsWholeWords() {
+        for (String name : new String[]{"float", "interleaved", "half", "compact"}) {
+            VertexFormat format = VertexFormat.parse(name);
+            assertEquals(name, format.getName());
+            assertEquals(format.getStride(), format.getWords() * Integer.BYTES);
+        }
+        assertEquals(20, VertexFormat.HALF.getStride());
+        assertEquals(12, VertexFormat.COMPACT.getStride());
+        assertSame(VertexFormat.FLOAT, VertexFormat.parse("unknown"));
+        assertTrue(VertexFormat.COMPACT.isQuantised());
+    }
+
+    private ByteBuffer encode(VertexFormat format) {
+        return encode(format, new Vector3f(), new Vector3f());
+    }
+
+    // Encoded words in the byte order they are uploaded in
+    private ByteBuffer encode(VertexFormat format, Vector3f offset, Vector3f scale) {
+        int[] words = new int[VERTICES * format.getWords()];
+        format.encode(positions, colours, words, offset, scale);
+        ByteBuffer bytes = ByteBuffer.allocate(words.length * Integer.BYTES).order(ByteOrder.nativeOrder());
+        bytes.asIntBuffer().put(words);
+        return bytes;
+    }
+}
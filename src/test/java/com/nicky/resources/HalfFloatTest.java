@@ -0,0 +1,58 @@
+package com.nicky.resources;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HalfFloatTest {
+
+    @Test
+    public void everyHalfFloatRoundTrips() {
+        for (int bits = 0; bits <= 0xffff; bits++) {
+            short half = (short) bits;
+            float value = HalfFloat.toFloat(half);
+            if (Float.isNaN(value)) {
+                assertTrue(Float.isNaN(HalfFloat.toFloat(HalfFloat.toHalf(value))));
+            } else {
+                assertEquals(Integer.toHexString(bits), half, HalfFloat.toHalf(value));
+            }
+        }
+    }
+
+    @Test
+    public void floatsRoundToTheNearestHalfFloat() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            // Magnitudes from the subnormal halves to the largest finite half
+            float value = (float) (Math.pow(2, -26 + random.nextDouble() * 41) * (random.nextBoolean() ? 1 : -1));
+            if (Math.abs(value) > 65504) {
+                continue;
+            }
+            short half = HalfFloat.toHalf(value);
+            float rounded = HalfFloat.toFloat(half);
+            // Neither neighbour of the half float is closer to the value
+            float below = HalfFloat.toFloat((short) (half - 1));
+            float above = HalfFloat.toFloat((short) (half + 1));
+            float error = Math.abs(rounded - value);
+            assertTrue(value + " -> " + rounded, error <= Math.abs(below - value) || Float.isNaN(below));
+            assertTrue(value + " -> " + rounded, error <= Math.abs(above - value) || Float.isNaN(above));
+        }
+    }
+
+    @Test
+    public void specialValues() {
+        assertEquals(0f, HalfFloat.toFloat(HalfFloat.toHalf(0f)), 0);
+        assertEquals((short) 0x8000, HalfFloat.toHalf(-0f));
+        assertEquals(1f, HalfFloat.toFloat(HalfFloat.toHalf(1f)), 0);
+        assertEquals(65504f, HalfFloat.toFloat(HalfFloat.toHalf(65504f)), 0);
+        assertEquals(Float.POSITIVE_INFINITY, HalfFloat.toFloat(HalfFloat.toHalf(70000f)), 0);
+        assertEquals(Float.NEGATIVE_INFINITY, HalfFloat.toFloat(HalfFloat.toHalf(Float.NEGATIVE_INFINITY)), 0);
+        assertTrue(Float.isNaN(HalfFloat.toFloat(HalfFloat.toHalf(Float.NaN))));
+        // Smallest subnormal half, and values too small for it
+        assertEquals(5.9604645E-8f, HalfFloat.toFloat(HalfFloat.toHalf(5.9604645E-8f)), 0);
+        assertEquals(0f, HalfFloat.toFloat(HalfFloat.toHalf(1e-9f)), 0);
+    }
+}
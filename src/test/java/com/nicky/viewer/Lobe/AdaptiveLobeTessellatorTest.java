@@ -0,0 +1,43 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+import org.junit.Test;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveLobeTessellatorTest {
+
+    @Test
+    public void findsNarrowHighlightBetweenBaseSamples() {
+        // A highlight under a degree wide, which no vertex of the 4 x 16 initial grid nor their centres sees
+        BRDF brdf = new TestBRDFs.PhongBRDF(20000);
+        Vector3f incident = new Vector3f((float) Math.cos(0.3), 1.3f, (float) Math.sin(0.3)).normalize();
+        AdaptiveLobeTessellator tessellator = new AdaptiveLobeTessellator(1, 6, 0.01f);
+        tessellator.tessellate(incident, brdf, null);
+
+        float peak = 0;
+        float[] vertices = tessellator.getVertices();
+        for (int i = 0; i < vertices.length; i += 3) {
+            peak = Math.max(peak, new Vector3f(vertices[i], vertices[i + 1], vertices[i + 2]).length());
+        }
+        Vector3f mirror = new Vector3f(-incident.x, incident.y, -incident.z);
+        float expected = brdf.f(incident, mirror).toScalar();
+        assertTrue("Peak " + peak + " of " + expected, peak > 0.9f * expected);
+    }
+
+    @Test
+    public void reusesOutputOfIdenticalTessellation() {
+        BRDF brdf = new TestBRDFs.PhongBRDF(50);
+        Vector3f incident = new Vector3f(0.3f, 0.8f, -0.5f).normalize();
+        AdaptiveLobeTessellator tessellator = new AdaptiveLobeTessellator(1, 5, 0.01f);
+        tessellator.tessellate(incident, brdf, null);
+        int[] indices = tessellator.getIndices();
+        float[] vertices = tessellator.getVertices();
+
+        tessellator.tessellate(incident, brdf, null);
+        assertSame(indices, tessellator.getIndices());
+        assertSame(vertices, tessellator.getVertices());
+    }
+}
@@ -0,0 +1,113 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AlbedoAnalyzerTest {
+
+    private static final int ANGLES = 9;
+    private static final int SAMPLES = 1 << 14;
+
+    @Test
+    public void lambertianWithUnitAlbedoHasUnitAlbedoWhateverTheWorkers() throws InterruptedException {
+        for (int workers : new int[]{1, 2, 4}) {
+            LobeEvaluator evaluator = new LobeEvaluator(workers);
+            AlbedoAnalyzer analyzer = new AlbedoAnalyzer(ANGLES, SAMPLES, evaluator);
+            try {
+                analyzer.analyse("lambertian", new TestBRDFs.LambertianBRDF(1));
+                awaitCompletion(analyzer);
+                for (int angle = 0; angle < ANGLES; angle++) {
+                    assertEquals(1, analyzer.getAlbedo(angle), 1e-4);
+                }
+                assertEquals(1, analyzer.getAverageAlbedo(), 1e-4);
+                assertTrue(analyzer.isEnergyConserving());
+            } finally {
+                analyzer.cleanup();
+                evaluator.cleanup();
+            }
+        }
+    }
+
+    @Test
+    public void resultsDoNotDependOnTheWorkers() throws InterruptedException {
+        BRDF brdf = new TestBRDFs.AnisotropicBRDF();
+        double[][] albedo = new double[2][ANGLES];
+        int[] workers = {1, 4};
+        for (int run = 0; run < workers.length; run++) {
+            LobeEvaluator evaluator = new LobeEvaluator(workers[run]);
+            AlbedoAnalyzer analyzer = new AlbedoAnalyzer(ANGLES, SAMPLES, evaluator);
+            try {
+                analyzer.analyse("anisotropic", brdf);
+                awaitCompletion(analyzer);
+                for (int angle = 0; angle < ANGLES; angle++) {
+                    albedo[run][angle] = analyzer.getAlbedo(angle);
+                }
+            } finally {
+                analyzer.cleanup();
+                evaluator.cleanup();
+            }
+        }
+        for (int angle = 0; angle < ANGLES; angle++) {
+            assertEquals(albedo[0][angle], albedo[1][angle], 0);
+        }
+    }
+
+    @Test
+    public void brdfIsIntegratedEvenWhenFittingIsEnabled() throws InterruptedException {
+        BatchBRDF.setFitting(true);
+        LobeEvaluator evaluator = new LobeEvaluator(2);
+        AlbedoAnalyzer analyzer = new AlbedoAnalyzer(ANGLES, SAMPLES, evaluator);
+        try {
+            // Fitted by a Phong kernel which would never call f
+            TestBRDFs.CountingBRDF brdf = new TestBRDFs.CountingBRDF(new TestBRDFs.RetroReflectivePhongBRDF());
+            BatchBRDF.of(brdf);
+            brdf.takeEvaluations();
+            analyzer.analyse("retro", brdf);
+            awaitCompletion(analyzer);
+            assertEquals((long) ANGLES * SAMPLES, brdf.takeEvaluations());
+        } finally {
+            BatchBRDF.setFitting(false);
+            analyzer.cleanup();
+            evaluator.cleanup();
+        }
+    }
+
+    @Test
+    public void supersededAnalysisStopsPublishing() throws InterruptedException {
+        LobeEvaluator evaluator = new LobeEvaluator(2);
+        AlbedoAnalyzer analyzer = new AlbedoAnalyzer(ANGLES, 1024, evaluator);
+        try {
+            // The slow analysis is still evaluating an elevation when the next one starts
+            analyzer.analyse("slow", new TestBRDFs.SlowBRDF(20_000));
+            Thread.sleep(30);
+            analyzer.analyse("lambertian", new TestBRDFs.LambertianBRDF(1));
+
+            // Only the new analysis publishes, its count never goes back
+            int previous = 0;
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (!analyzer.isComplete() && System.nanoTime() < deadline) {
+                int completed = analyzer.getCompleted();
+                assertTrue(completed + " after " + previous, completed >= previous);
+                previous = completed;
+            }
+            assertTrue(analyzer.isComplete());
+            for (int angle = 0; angle < ANGLES; angle++) {
+                assertEquals(1, analyzer.getAlbedo(angle), 1e-4);
+            }
+        } finally {
+            analyzer.cleanup();
+            evaluator.cleanup();
+        }
+    }
+
+    private static void awaitCompletion(AlbedoAnalyzer analyzer) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!analyzer.isComplete() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(analyzer.isComplete());
+    }
+}
@@ -0,0 +1,119 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import com.nicky.viewer.Items.Sphere;
+import javafx.util.Pair;
+import org.joml.Vector3f;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class AllocationMeterTest {
+
+    private static final int RESOLUTION = 64;
+
+    private LobeEvaluator evaluator;
+    private TabulatedBRDF table;
+    private Sphere sphere;
+
+    @Before
+    public void setUp() {
+        assumeTrue(AllocationMeter.threadAllocatedBytes() >= 0);
+        evaluator = new LobeEvaluator(4);
+        sphere = new Sphere(0, 0, 0, RESOLUTION, RESOLUTION);
+        sphere.setLobeEvaluator(evaluator);
+        sphere.init();
+    }
+
+    @After
+    public void tearDown() {
+        if (table != null) {
+            table.cleanup();
+        }
+        if (evaluator != null) {
+            evaluator.cleanup();
+        }
+    }
+
+    @Test
+    public void warmRebuildAllocatesNothing() {
+        BRDF brdf = tabulated(new FixedPhongBRDF());
+        Vector3f incident = new Vector3f(0.3f, 0.8f, -0.5f).normalize();
+        for (int i = 0; i < 200; i++) {
+            sphere.sampleBRDF(incident, brdf);
+        }
+        assertEquals(0, sphere.getLastRebuildAllocatedBytes());
+    }
+
+    @Test
+    public void countsAllocationsOfTheWorkers() {
+        // Every sample evaluated directly allocates its spectrum, on whichever worker evaluates it
+        BRDF brdf = new TestBRDFs.AnisotropicBRDF();
+        Vector3f incident = new Vector3f(0, 1, 0);
+        sphere.sampleBRDF(incident, brdf);
+        sphere.sampleBRDF(incident, brdf);
+        assertTrue(sphere.getLastRebuildAllocatedBytes() >= 16L * sphere.getHemisphereRings() * RESOLUTION);
+    }
+
+    @Test
+    public void addsUpTheRangesOfALobe() {
+        BRDF brdf = new TestBRDFs.AnisotropicBRDF();
+        Vector3f incident = new Vector3f(0, 1, 0);
+        sphere.sampleBRDF(incident, brdf, 0, 4);
+        long firstRange = sphere.getLastRebuildAllocatedBytes();
+        sphere.sampleBRDF(incident, brdf, 4, sphere.getHemisphereRings());
+        assertTrue(sphere.getLastRebuildAllocatedBytes() > firstRange);
+    }
+
+    @Test
+    public void ignoresOtherThreads() throws InterruptedException {
+        BRDF brdf = tabulated(new FixedPhongBRDF());
+        Vector3f incident = new Vector3f(0.3f, 0.8f, -0.5f).normalize();
+        for (int i = 0; i < 200; i++) {
+            sphere.sampleBRDF(incident, brdf);
+        }
+
+        // Allocates on the evaluator's pool while the lobe is rebuilt
+        Thread allocating = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                evaluator.forEach(64, i -> new StringBuilder(i).append(i).toString());
+            }
+        });
+        allocating.start();
+        try {
+            for (int i = 0; i < 20; i++) {
+                sphere.sampleBRDF(incident, brdf);
+                assertEquals(0, sphere.getLastRebuildAllocatedBytes());
+            }
+        } finally {
+            allocating.interrupt();
+            allocating.join();
+        }
+    }
+
+    // Hashing a parameter map allocates an iterator, so the tabulated BRDF has no parameter map to hash
+    private static class FixedPhongBRDF extends TestBRDFs.PhongBRDF {
+
+        FixedPhongBRDF() {
+            super(20);
+        }
+
+        @Override
+        public LinkedHashMap<String, Pair<String, String>> getParameters() {
+            return null;
+        }
+    }
+
+    private BRDF tabulated(BRDF brdf) {
+        table = new TabulatedBRDF(16, 16, 16);
+        table.build(brdf, evaluator);
+        evaluator.setTable(table);
+        return brdf;
+    }
+}
@@ -0,0 +1,113 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.Spectrum;
+import org.joml.Vector3f;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BRDFAccessTest {
+
+    private LobeEvaluator evaluator;
+
+    @Before
+    public void setUp() {
+        evaluator = new LobeEvaluator(4);
+    }
+
+    @After
+    public void tearDown() {
+        evaluator.cleanup();
+        BRDFAccess.setThreadSafe(Collections.<String>emptyList());
+    }
+
+    @Test
+    public void brdfNotDeclaredThreadSafeIsNeverEnteredConcurrently() throws InterruptedException {
+        ReentrancyCheckingBRDF brdf = new ReentrancyCheckingBRDF();
+        assertFalse(BRDFAccess.isThreadSafe(brdf));
+        HemisphereTable directions = HemisphereTable.get(32, 64);
+        TabulatedBRDF table = new TabulatedBRDF(16, 16, 32);
+
+        // The lobe builder, the tabulation and another caller such as the polar slice, all at once
+        CountDownLatch start = new CountDownLatch(1);
+        Thread slice = new Thread(() -> {
+            await(start);
+            for (int i = 0; i < 2000; i++) {
+                BRDFAccess.f(brdf, new Vector3f(0, 1, 0), new Vector3f(0.6f, 0.8f, 0));
+            }
+        });
+        Thread tabulation = new Thread(() -> {
+            await(start);
+            table.build(brdf, evaluator);
+        });
+        slice.start();
+        tabulation.start();
+        start.countDown();
+        evaluator.evaluate(new Vector3f(0.3f, 0.8f, 0.2f).normalize(), brdf, directions,
+                new float[directions.size() * 3], new float[directions.size() * 3]);
+        slice.join();
+        tabulation.join();
+        table.cleanup();
+
+        assertEquals(0, brdf.overlaps.get());
+        assertTrue(brdf.calls.get() > directions.size());
+    }
+
+    @Test
+    public void brdfDeclaringItselfThreadSafeIsEvaluatedInParallel() {
+        assertTrue(BRDFAccess.isThreadSafe(new ThreadSafeBRDF()));
+        assertTrue(new PerSampleBRDF(new ThreadSafeBRDF()).isParallel());
+        assertFalse(new PerSampleBRDF(new ReentrancyCheckingBRDF()).isParallel());
+    }
+
+    @Test
+    public void brdfListedInConfigurationIsThreadSafe() {
+        BRDFAccess.setThreadSafe(Collections.singletonList("ReentrancyCheckingBRDF"));
+        assertTrue(BRDFAccess.isThreadSafe(new ReentrancyCheckingBRDF()));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Anisotropic BRDF, so it is evaluated per sample, counting calls made while another call is in progress.
+     */
+    static class ReentrancyCheckingBRDF extends TestBRDFs.AnisotropicBRDF {
+
+        private final AtomicInteger inside = new AtomicInteger();
+        private final AtomicInteger overlaps = new AtomicInteger();
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public Spectrum f(Vector3f in, Vector3f out) {
+            if (inside.incrementAndGet() > 1) {
+                overlaps.incrementAndGet();
+            }
+            calls.incrementAndGet();
+            Thread.yield();
+            Spectrum value = super.f(in, out);
+            inside.decrementAndGet();
+            return value;
+        }
+    }
+
+    public static class ThreadSafeBRDF extends TestBRDFs.AnisotropicBRDF {
+
+        public boolean isThreadSafe() {
+            return true;
+        }
+    }
+}
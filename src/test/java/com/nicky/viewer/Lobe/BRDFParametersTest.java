@@ -0,0 +1,145 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import com.nicky.viewer.Items.Sphere;
+import javafx.util.Pair;
+import org.joml.Vector3f;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BRDFParametersTest {
+
+    @Test
+    public void tintKeepingTheScalarValueIsColourOnly() {
+        TintedPhongBRDF brdf = new TintedPhongBRDF();
+        assertEquals(LobeEvaluator.COLOURS,
+                BRDFParameters.set(brdf, "Spectrum", "Tint", BRDFParameters.formatSpectrum(1.5f, 1, 0.5f)));
+        assertEquals("1.5,1.0,0.5", brdf.getParameters().get("Spectrum").getValue());
+    }
+
+    @Test
+    public void exponentChangeMovesPositions() {
+        TintedPhongBRDF brdf = new TintedPhongBRDF();
+        assertEquals(LobeEvaluator.ALL, BRDFParameters.set(brdf, "float", "Exponent", "40.0"));
+        // A tint changing the scalar value changes the radius too
+        assertEquals(LobeEvaluator.ALL,
+                BRDFParameters.set(brdf, "Spectrum", "Tint", BRDFParameters.formatSpectrum(2, 2, 2)));
+    }
+
+    @Test
+    public void parametersReadBackByTheBrdfAreEditedInPlace() {
+        MapBackedBRDF brdf = new MapBackedBRDF();
+        assertEquals(LobeEvaluator.COLOURS,
+                BRDFParameters.set(brdf, "Spectrum", "Colour", BRDFParameters.formatSpectrum(0.2f, 0.5f, 0.8f)));
+        assertEquals(0.2f, brdf.f(new Vector3f(0, 1, 0), new Vector3f(0, 1, 0)).getR(), 0);
+    }
+
+    @Test
+    public void editNotTakenByTheBrdfIsRejected() {
+        // Reports a copy of its parameters, edits to it are lost
+        BRDF brdf = new TestBRDFs.PhongBRDF(10) {
+            @Override
+            public LinkedHashMap<String, Pair<String, String>> getParameters() {
+                LinkedHashMap<String, Pair<String, String>> parameters = new LinkedHashMap<>();
+                parameters.put("float", new Pair<>("Exponent", "10.0"));
+                return parameters;
+            }
+        };
+        assertEquals(0, BRDFParameters.set(brdf, "float", "Exponent", "40.0"));
+    }
+
+    @Test
+    public void recolouredLobeEqualsFullEvaluationAndKeepsPositions() {
+        Vector3f incident = new Vector3f(0.4f, 0.8f, -0.3f).normalize();
+        TintedPhongBRDF brdf = new TintedPhongBRDF();
+        Sphere sphere = new Sphere(0, 0, 0, 32, 32);
+        sphere.init();
+        sphere.sampleBRDF(incident, brdf);
+        float[] positions = sphere.getVertices().clone();
+        sphere.takeChanges();
+
+        assertEquals(LobeEvaluator.COLOURS,
+                BRDFParameters.set(brdf, "Spectrum", "Tint", BRDFParameters.formatSpectrum(0.5f, 2, 0.5f)));
+        sphere.sampleColours(incident, brdf);
+        assertEquals(LobeEvaluator.COLOURS, sphere.takeChanges());
+        assertArrayEquals(positions, sphere.getVertices(), 0);
+
+        Sphere full = new Sphere(0, 0, 0, 32, 32);
+        full.init();
+        full.sampleBRDF(incident, brdf);
+        assertArrayEquals(full.getColours(), sphere.getColours(), 0);
+        assertArrayEquals(full.getVertices(), sphere.getVertices(), 1e-6f);
+        assertEquals(full.getStatistics().getPeak(), sphere.getStatistics().getPeak(), 0);
+    }
+
+    /**
+     * Phong lobe times a tint, the tint is normalised to a mean of one unless it is grey, set through
+     * setParameter.
+     */
+    public static class TintedPhongBRDF extends BRDF {
+
+        private final LinkedHashMap<String, Pair<String, String>> parameters = new LinkedHashMap<>();
+        private float exponent = 20;
+        private final float[] tint = {1, 1, 1};
+
+        public TintedPhongBRDF() {
+            parameters.put("Spectrum", new Pair<>("Tint", "1.0,1.0,1.0"));
+            parameters.put("float", new Pair<>("Exponent", "20.0"));
+        }
+
+        public void setParameter(String name, String value) {
+            if (name.equals("Tint")) {
+                float[] values = Spectrum.parseString(value);
+                float mean = (values[0] + values[1] + values[2]) / 3;
+                boolean grey = values[0] == values[1] && values[1] == values[2];
+                for (int i = 0; i < 3; i++) {
+                    tint[i] = grey ? values[i] : values[i] / mean;
+                }
+                parameters.put("Spectrum", new Pair<>(name, value));
+            } else if (name.equals("Exponent")) {
+                exponent = Float.parseFloat(value);
+                parameters.put("float", new Pair<>(name, value));
+            }
+        }
+
+        @Override
+        public Spectrum f(Vector3f incident, Vector3f exitant) {
+            float cos = Math.max(0, -incident.x * exitant.x + incident.y * exitant.y - incident.z * exitant.z);
+            float value = 0.1f + (float) Math.pow(cos, exponent);
+            return new Spectrum(value * tint[0], value * tint[1], value * tint[2]);
+        }
+
+        public LinkedHashMap<String, Pair<String, String>> getParameters() {
+            return parameters;
+        }
+
+        public String getName() {
+            return getClass().getSimpleName();
+        }
+
+        public String serialise() {
+            return "{}";
+        }
+    }
+
+    /**
+     * Constant colour read from its parameters on every evaluation, with no setter.
+     */
+    private static class MapBackedBRDF extends TestBRDFs.TestBRDF {
+
+        MapBackedBRDF() {
+            getParameters().put("Spectrum", new Pair<>("Colour", "0.5,0.5,0.5"));
+        }
+
+        @Override
+        public Spectrum f(Vector3f incident, Vector3f exitant) {
+            float[] colour = Spectrum.parseString(getParameters().get("Spectrum").getValue());
+            return new Spectrum(colour[0], colour[1], colour[2]);
+        }
+    }
+}
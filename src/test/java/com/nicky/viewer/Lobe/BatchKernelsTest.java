@@ -0,0 +1,97 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BatchKernelsTest {
+
+    @Before
+    public void setUp() {
+        BatchBRDF.setFitting(true);
+    }
+
+    @After
+    public void tearDown() {
+        BatchBRDF.setFitting(false);
+    }
+
+    @Test
+    public void everyModelIsEvaluatedPerSampleUnlessFitting() {
+        BatchBRDF.setFitting(false);
+        assertTrue(BatchBRDF.of(new TestBRDFs.LambertianBRDF(0.8f)) instanceof PerSampleBRDF);
+        assertTrue(BatchBRDF.of(new TestBRDFs.PhongBRDF(40)) instanceof PerSampleBRDF);
+
+        // The narrow retro-reflection is kept, a fitted Phong lobe would lose it
+        BRDF brdf = new TestBRDFs.RetroReflectivePhongBRDF();
+        assertTrue(BatchBRDF.of(brdf) instanceof PerSampleBRDF);
+        assertMatches(brdf);
+        Vector3f in = new Vector3f(0.5f, 0.6f, -0.3f).normalize();
+        float[] red = new float[1];
+        BatchBRDF.of(brdf).evaluate(in, new float[]{in.x}, new float[]{in.y}, new float[]{in.z}, 0, 1, red,
+                new float[1], new float[1], new float[1]);
+        assertEquals(brdf.f(new Vector3f(in), new Vector3f(in)).getR(), red[0], 1e-3f);
+        assertTrue(red[0] > 2);
+    }
+
+    @Test
+    public void lambertianGetsConstantKernel() {
+        assertTrue(BatchBRDF.of(new TestBRDFs.LambertianBRDF(0.8f)) instanceof ConstantBRDF);
+    }
+
+    @Test
+    public void shinyDiffuseModelsGetFittedKernels() {
+        assertTrue(BatchBRDF.of(new TestBRDFs.PhongBRDF(40)) instanceof ShinyDiffuseBRDF);
+        assertTrue(BatchBRDF.of(new TestBRDFs.BlinnPhongBRDF(120)) instanceof ShinyDiffuseBRDF);
+    }
+
+    @Test
+    public void otherModelsAreEvaluatedPerSample() {
+        assertTrue(BatchBRDF.of(new TestBRDFs.AnisotropicBRDF()) instanceof PerSampleBRDF);
+        assertTrue(BatchBRDF.of(new TestBRDFs.CosineWeightedBRDF()) instanceof PerSampleBRDF);
+    }
+
+    @Test
+    public void kernelIsFoundOncePerParameters() {
+        BRDF brdf = new TestBRDFs.PhongBRDF(40);
+        assertSame(BatchBRDF.of(brdf), BatchBRDF.of(brdf));
+    }
+
+    @Test
+    public void fittedKernelsMatchTheBRDF() {
+        assertMatches(new TestBRDFs.LambertianBRDF(0.8f));
+        assertMatches(new TestBRDFs.PhongBRDF(5));
+        assertMatches(new TestBRDFs.PhongBRDF(400));
+        assertMatches(new TestBRDFs.BlinnPhongBRDF(120));
+    }
+
+    private static void assertMatches(BRDF brdf) {
+        HemisphereTable directions = HemisphereTable.get(96, 96);
+        int size = directions.size();
+        float[] red = new float[size];
+        float[] green = new float[size];
+        float[] blue = new float[size];
+        float[] scalar = new float[size];
+        for (Vector3f in : new Vector3f[]{new Vector3f(0, 1, 0), new Vector3f(0.5f, 0.6f, -0.3f).normalize(),
+                new Vector3f(-0.9f, 0.1f, 0.2f).normalize()}) {
+            BatchBRDF.of(brdf).evaluate(in, directions.x, directions.y, directions.z, 0, size, red, green, blue,
+                    scalar);
+            Vector3f out = new Vector3f();
+            for (int i = 0; i < size; i++) {
+                Spectrum expected = brdf.f(in, out.set(directions.x[i], directions.y[i], directions.z[i]));
+                float tolerance = 2e-3f * Math.max(1, expected.toScalar());
+                assertEquals(expected.getR(), red[i], tolerance);
+                assertEquals(expected.getG(), green[i], tolerance);
+                assertEquals(expected.getB(), blue[i], tolerance);
+                assertEquals(expected.toScalar(), scalar[i], tolerance);
+            }
+        }
+    }
+}
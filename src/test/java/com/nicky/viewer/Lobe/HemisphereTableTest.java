@@ -0,0 +1,39 @@
+package com.nicky.viewer.Lobe;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class HemisphereTableTest {
+
+    @Test
+    public void sharesTablesOfRecentResolutions() {
+        HemisphereTable table = HemisphereTable.get(33, 35);
+        HemisphereTable.get(34, 35);
+        assertSame(table, HemisphereTable.get(33, 35));
+    }
+
+    @Test
+    public void evictsTablesOfOldResolutions() {
+        HemisphereTable table = HemisphereTable.get(40, 41);
+        for (int rings = 100; rings < 120; rings++) {
+            HemisphereTable.get(rings, 41);
+        }
+        HemisphereTable rebuilt = HemisphereTable.get(40, 41);
+        assertNotSame(table, rebuilt);
+        assertEquals(table.size(), rebuilt.size());
+        assertEquals(table.x[7], rebuilt.x[7], 0);
+    }
+
+    @Test
+    public void solidAnglesCoverTheHemisphere() {
+        HemisphereTable table = HemisphereTable.get(64, 64);
+        double total = 0;
+        for (int r = 0; r < table.getRings(); r++) {
+            total += table.solidAngle[r] * (table.getSectors() - 1);
+        }
+        assertEquals(2 * Math.PI, total, 1e-3);
+    }
+}
@@ -0,0 +1,71 @@
+package com.nicky.viewer.Lobe;
+
+import org.joml.Vector3f;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IsotropyTest {
+
+    private final Isotropy isotropy = new Isotropy(Collections.emptyList(), Collections.emptyList());
+
+    @Test
+    public void shinyDiffuseModelsAreIsotropicWithoutBeingListed() {
+        assertTrue(isotropy.isIsotropic(new TestBRDFs.PhongBRDF(20)));
+        assertTrue(isotropy.isIsotropic(new TestBRDFs.BlinnPhongBRDF(120)));
+        assertTrue(isotropy.isIsotropic(new TestBRDFs.LambertianBRDF(1)));
+    }
+
+    @Test
+    public void otherModelsAreSampled() {
+        assertTrue(isotropy.isIsotropic(new TestBRDFs.CosineWeightedBRDF()));
+        assertFalse(isotropy.isIsotropic(new TestBRDFs.AnisotropicBRDF()));
+    }
+
+    @Test
+    public void overridesTakePrecedence() {
+        Isotropy overridden = new Isotropy(Collections.singletonList("AnisotropicBRDF"),
+                Collections.singletonList("PhongBRDF"));
+        assertTrue(overridden.isIsotropic(new TestBRDFs.AnisotropicBRDF()));
+        assertFalse(overridden.isIsotropic(new TestBRDFs.PhongBRDF(20)));
+    }
+
+    @Test
+    public void brdfsAreAskedBeforeTheOverrides() {
+        Isotropy overridden = new Isotropy(Collections.singletonList("DeclaredBRDF"),
+                Collections.singletonList("DeclaredBRDF"));
+        assertTrue(overridden.isIsotropic(new DeclaredBRDF(true)));
+        assertFalse(overridden.isIsotropic(new DeclaredBRDF(false)));
+    }
+
+    @Test
+    public void toAzimuthZeroKeepsTheElevation() {
+        Vector3f incident = new Vector3f(-0.4f, 0.7f, 0.5f).normalize();
+        float y = incident.y;
+        float azimuth = Isotropy.toAzimuthZero(incident);
+        assertEquals(Math.atan2(0.5, -0.4), azimuth, 1e-6);
+        assertEquals(y, incident.y, 0);
+        assertEquals(0, incident.z, 0);
+        assertEquals(1, incident.length(), 1e-6);
+    }
+
+    /**
+     * Anisotropic values, declared isotropic or not whatever they are.
+     */
+    public static class DeclaredBRDF extends TestBRDFs.AnisotropicBRDF {
+
+        private final boolean isotropic;
+
+        DeclaredBRDF(boolean isotropic) {
+            this.isotropic = isotropic;
+        }
+
+        public boolean isIsotropic() {
+            return isotropic;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import com.nicky.viewer.Items.Sphere;
+import org.joml.Vector3f;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class LobeBuilderTest {
+
+    private static final int RESOLUTION = 32;
+
+    private LobeEvaluator evaluator;
+    private Sphere sphere;
+    private LobeCache cache;
+    private LobeBuilder builder;
+
+    @Before
+    public void setUp() {
+        evaluator = new LobeEvaluator(2);
+        evaluator.setIsotropy(new Isotropy(Collections.emptyList(), Collections.emptyList()));
+        sphere = new Sphere(0, 0, 0, RESOLUTION, RESOLUTION);
+        sphere.setLobeEvaluator(evaluator);
+        sphere.init();
+        cache = new LobeCache(1 << 22, 0.01f);
+        builder = new LobeBuilder(evaluator, sphere, null, null, cache);
+    }
+
+    @After
+    public void tearDown() {
+        builder.cleanup();
+        evaluator.cleanup();
+    }
+
+    @Test
+    public void rotatedIncidentHasTheSameKey() {
+        BRDF brdf = new TestBRDFs.PhongBRDF(20);
+        Vector3f first = rotated(0.4f);
+        Vector3f second = rotated(2.3f);
+        assertNotEquals(cache.getKey("phong", brdf, first, sphere), cache.getKey("phong", brdf, second, sphere));
+
+        Isotropy.toAzimuthZero(first);
+        Isotropy.toAzimuthZero(second);
+        assertEquals(cache.getKey("phong", brdf, first, sphere), cache.getKey("phong", brdf, second, sphere));
+    }
+
+    @Test
+    public void azimuthChangeOfIsotropicLobeOnlyRotatesIt() throws InterruptedException {
+        // Not fitted by a kernel, isotropic once sampled
+        TestBRDFs.CountingBRDF brdf = new TestBRDFs.CountingBRDF(new TestBRDFs.CosineWeightedBRDF());
+        LobeGeometry first = build(brdf, rotated(0.4f));
+        float[] firstVertices = first.getVertices().clone();
+        float firstAzimuth = first.getAzimuth();
+        builder.release(first);
+        brdf.takeEvaluations();
+
+        Vector3f incident = rotated(2.3f);
+        LobeGeometry second = build(brdf, incident);
+        assertEquals(0, brdf.takeEvaluations());
+        assertEquals(0, second.getChanges());
+        assertArrayEquals(firstVertices, second.getVertices(), 0);
+        assertEquals(2.3f - 0.4f, second.getAzimuth() - firstAzimuth, 1e-5f);
+
+        // Rotated by its azimuth, every vertex lies on the lobe of the rotated incident ray
+        float cos = (float) Math.cos(second.getAzimuth());
+        float sin = (float) Math.sin(second.getAzimuth());
+        float[] vertices = second.getVertices();
+        float peak = second.getStatistics().getPeak();
+        for (int i = 0; i < vertices.length; i += 3) {
+            Vector3f position = new Vector3f(vertices[i] * cos - vertices[i + 2] * sin, vertices[i + 1],
+                    vertices[i] * sin + vertices[i + 2] * cos);
+            float radius = position.length();
+            if (radius > 0 && position.y > 0) {
+                float expected = brdf.f(new Vector3f(incident), position.div(radius)).toScalar();
+                assertEquals(expected, radius, 1e-3f * peak);
+            }
+        }
+        builder.release(second);
+    }
+
+    @Test
+    public void lobesAreReusedAcrossAzimuthsWithoutMirroring() throws InterruptedException {
+        evaluator.setIsotropy(null);
+        builder.setIsotropy(new Isotropy(Collections.emptyList(), Collections.emptyList()));
+        TestBRDFs.CountingBRDF brdf = new TestBRDFs.CountingBRDF(new TestBRDFs.CosineWeightedBRDF());
+        builder.release(build(brdf, rotated(0.4f)));
+        brdf.takeEvaluations();
+
+        LobeGeometry second = build(brdf, rotated(2.3f));
+        assertEquals(0, brdf.takeEvaluations());
+        assertEquals(2.3f, second.getAzimuth(), 1e-5f);
+        builder.release(second);
+    }
+
+    @Test
+    public void peakDirectionIsRotatedWithTheLobe() throws InterruptedException {
+        BRDF brdf = new TestBRDFs.PhongBRDF(200);
+        for (float azimuth : new float[]{0.4f, 2.3f, -2.0f}) {
+            Vector3f incident = rotated(azimuth);
+            LobeGeometry lobe = build(brdf, incident);
+            assertEquals(azimuth, lobe.getAzimuth(), 1e-5f);
+
+            // Within a cell of the grid of the mirror direction
+            Vector3f mirror = new Vector3f(-incident.x, incident.y, -incident.z);
+            Vector3f peak = new Vector3f(lobe.getStatistics().getPeakDirection()).normalize();
+            assertEquals(0, peak.angle(mirror), (float) Math.PI / RESOLUTION);
+            builder.release(lobe);
+        }
+    }
+
+    @Test
+    public void anisotropicLobeIsEvaluatedAgain() throws InterruptedException {
+        TestBRDFs.CountingBRDF brdf = new TestBRDFs.CountingBRDF(new TestBRDFs.AnisotropicBRDF());
+        builder.release(build(brdf, rotated(0.4f)));
+        brdf.takeEvaluations();
+
+        LobeGeometry second = build(brdf, rotated(2.3f));
+        assertNotEquals(0, brdf.takeEvaluations());
+        assertEquals(0, second.getAzimuth(), 0);
+        builder.release(second);
+    }
+
+    // Incident ray at 50 degrees from the normal and the given azimuth
+    private static Vector3f rotated(float azimuth) {
+        float sin = (float) Math.sin(Math.toRadians(50));
+        return new Vector3f(sin * (float) Math.cos(azimuth), (float) Math.cos(Math.toRadians(50)),
+                sin * (float) Math.sin(azimuth));
+    }
+
+    private LobeGeometry build(BRDF brdf, Vector3f incident) throws InterruptedException {
+        builder.request(brdf.getClass().getSimpleName(), brdf, incident, false);
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        LobeGeometry lobe = builder.poll();
+        while (lobe == null && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+            lobe = builder.poll();
+        }
+        assertNotNull(lobe);
+        return lobe;
+    }
+}
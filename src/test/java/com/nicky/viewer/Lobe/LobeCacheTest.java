@@ -0,0 +1,107 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import com.nicky.viewer.Items.Sphere;
+import org.joml.Vector3f;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LobeCacheTest {
+
+    private static final int RESOLUTION = 16;
+
+    private final BRDF brdf = new TestBRDFs.PhongBRDF(10);
+    private Sphere sphere;
+    private long lobeBytes;
+
+    @Before
+    public void setUp() {
+        sphere = new Sphere(0, 0, 0, RESOLUTION, RESOLUTION);
+        sphere.init();
+        sphere.sampleBRDF(new Vector3f(0, 1, 0), brdf);
+        // Positions and colours, plus the bookkeeping of the entry
+        lobeBytes = 4L * (sphere.getVertices().length + sphere.getColours().length) + 128;
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedLobeOverBudget() {
+        LobeCache cache = new LobeCache(3 * lobeBytes, 0.01f);
+        LobeCache.Key a = key(cache, 0.1f);
+        LobeCache.Key b = key(cache, 0.2f);
+        LobeCache.Key c = key(cache, 0.3f);
+        LobeCache.Key d = key(cache, 0.4f);
+        cache.store(a, sphere);
+        cache.store(b, sphere);
+        cache.store(c, sphere);
+        assertTrue(cache.load(a, sphere)); // b is now the least recently used
+
+        cache.store(d, sphere);
+        assertEquals(3, cache.size());
+        assertEquals(3 * lobeBytes, cache.getUsedBytes());
+        assertFalse(cache.load(b, sphere));
+        assertTrue(cache.load(a, sphere));
+        assertTrue(cache.load(c, sphere));
+        assertTrue(cache.load(d, sphere));
+    }
+
+    @Test
+    public void staysWithinByteBudget() {
+        LobeCache cache = new LobeCache(5 * lobeBytes / 2, 0.01f);
+        for (int i = 0; i < 10; i++) {
+            cache.store(key(cache, i * 0.05f), sphere);
+            assertTrue(cache.getUsedBytes() <= 5 * lobeBytes / 2);
+        }
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void replacingALobeDoesNotCountItTwice() {
+        LobeCache cache = new LobeCache(10 * lobeBytes, 0.01f);
+        LobeCache.Key a = key(cache, 0.1f);
+        cache.store(a, sphere);
+        cache.store(a, sphere);
+        assertEquals(1, cache.size());
+        assertEquals(lobeBytes, cache.getUsedBytes());
+    }
+
+    @Test
+    public void skipsLobesLargerThanTheBudget() {
+        LobeCache cache = new LobeCache(lobeBytes - 1, 0.01f);
+        cache.store(key(cache, 0.1f), sphere);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    public void loadsTheStoredLobe() {
+        LobeCache cache = new LobeCache(10 * lobeBytes, 0.01f);
+        LobeCache.Key a = key(cache, 0.1f);
+        float[] vertices = sphere.getVertices().clone();
+        cache.store(a, sphere);
+
+        sphere.sampleBRDF(new Vector3f(0.6f, 0.8f, 0), brdf);
+        assertTrue(cache.load(a, sphere));
+        assertArrayEquals(vertices, sphere.getVertices(), 0);
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void quantisesIncidentRays() {
+        LobeCache cache = new LobeCache(lobeBytes, 0.01f);
+        assertEquals(key(cache, 0.1f), key(cache, 0.1001f));
+        assertNotEquals(key(cache, 0.1f), key(cache, 0.12f));
+        assertNotEquals(cache.getKey("a", brdf, new Vector3f(0, 1, 0), sphere),
+                cache.getKey("b", brdf, new Vector3f(0, 1, 0), sphere));
+    }
+
+    private LobeCache.Key key(LobeCache cache, float x) {
+        Vector3f incident = new Vector3f(x, 1, 0).normalize();
+        return cache.getKey("phong", brdf, incident, sphere);
+    }
+}
@@ -0,0 +1,179 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class LobeEvaluatorTest {
+
+    private static final int RESOLUTION = 64;
+
+    private LobeEvaluator serial;
+    private LobeEvaluator parallel;
+    private HemisphereTable directions;
+
+    @Before
+    public void setUp() {
+        serial = new LobeEvaluator(1);
+        parallel = new LobeEvaluator(4);
+        directions = HemisphereTable.get(RESOLUTION, RESOLUTION);
+    }
+
+    @After
+    public void tearDown() {
+        serial.cleanup();
+        parallel.cleanup();
+    }
+
+    @Test
+    public void parallelOutputEqualsSerialOutput() {
+        assertSameLobe(new TestBRDFs.PhongBRDF(20), new Vector3f(0.3f, 0.8f, -0.5f).normalize());
+        assertSameLobe(new TestBRDFs.AnisotropicBRDF(), new Vector3f(-0.6f, 0.5f, 0.2f).normalize());
+    }
+
+    @Test
+    public void parallelRangesEqualSerialLobe() {
+        BRDF brdf = new TestBRDFs.PhongBRDF(50);
+        Vector3f incident = new Vector3f(0.1f, 0.9f, 0.4f).normalize();
+        float[] positions = new float[directions.size() * 3];
+        float[] colours = new float[directions.size() * 3];
+        serial.evaluate(incident, brdf, directions, positions, colours);
+
+        float[] refinedPositions = new float[positions.length];
+        float[] refinedColours = new float[colours.length];
+        for (int ring = 0; ring < directions.getRings(); ring += 5) {
+            parallel.evaluate(incident, brdf, directions, refinedPositions, refinedColours, ring,
+                    Math.min(directions.getRings(), ring + 5), null);
+        }
+        assertArrayEquals(positions, refinedPositions, 0);
+        assertArrayEquals(colours, refinedColours, 0);
+    }
+
+    @Test
+    public void reportsUnchangedOutputs() {
+        BRDF brdf = new TestBRDFs.PhongBRDF(20);
+        Vector3f incident = new Vector3f(0, 1, 0);
+        float[] positions = new float[directions.size() * 3];
+        float[] colours = new float[directions.size() * 3];
+        assertEquals(LobeEvaluator.ALL, parallel.evaluate(incident, brdf, directions, positions, colours));
+        assertEquals(0, parallel.evaluate(incident, brdf, directions, positions, colours));
+    }
+
+    @Test
+    public void mirroredLobeEqualsFullLobe() {
+        LobeEvaluator mirroring = new LobeEvaluator(4);
+        mirroring.setIsotropy(new Isotropy(Collections.emptyList(), Collections.emptyList()));
+        try {
+            for (BRDF brdf : new BRDF[]{new TestBRDFs.PhongBRDF(20), new TestBRDFs.CosineWeightedBRDF()}) {
+                // At azimuth zero both lobes are sampled on the same grid
+                Vector3f incident = new Vector3f(0.6f, 0.8f, 0).normalize();
+                float[] positions = new float[directions.size() * 3];
+                float[] colours = new float[directions.size() * 3];
+                float[] mirroredPositions = new float[positions.length];
+                float[] mirroredColours = new float[colours.length];
+                parallel.evaluate(incident, brdf, directions, positions, colours);
+                mirroring.evaluate(incident, brdf, directions, mirroredPositions, mirroredColours);
+                float peak = 0;
+                for (float value : colours) {
+                    peak = Math.max(peak, value);
+                }
+                assertArrayEquals(positions, mirroredPositions, 1e-4f * peak);
+                assertArrayEquals(colours, mirroredColours, 1e-4f * peak);
+
+                // At any other azimuth the grid is rotated with the lobe, every vertex still lies on the lobe
+                incident = new Vector3f(-0.3f, 0.5f, 0.7f).normalize();
+                mirroring.evaluate(incident, brdf, directions, mirroredPositions, mirroredColours);
+                for (int i = 0; i < mirroredPositions.length; i += 3) {
+                    Vector3f position = new Vector3f(mirroredPositions[i], mirroredPositions[i + 1],
+                            mirroredPositions[i + 2]);
+                    float radius = position.length();
+                    if (radius == 0) {
+                        continue;
+                    }
+                    float expected = brdf.f(new Vector3f(incident), position.div(radius)).toScalar();
+                    assertEquals(expected, radius, 1e-3f * peak);
+                }
+            }
+        } finally {
+            mirroring.cleanup();
+        }
+    }
+
+    @Test
+    public void mirroringHalvesEvaluationsOfIsotropicModels() {
+        LobeEvaluator mirroring = new LobeEvaluator(1);
+        mirroring.setIsotropy(new Isotropy(Collections.emptyList(), Collections.emptyList()));
+        try {
+            Vector3f incident = new Vector3f(0.2f, 0.9f, -0.4f).normalize();
+            float[] positions = new float[directions.size() * 3];
+            float[] colours = new float[directions.size() * 3];
+            int half = (directions.getSectors() + 1) / 2;
+
+            // Evaluated one sample at a time, half of each ring is evaluated
+            TestBRDFs.CountingBRDF cosineWeighted = new TestBRDFs.CountingBRDF(new TestBRDFs.CosineWeightedBRDF());
+            warmUp(mirroring, cosineWeighted);
+            serial.evaluate(incident, cosineWeighted, directions, positions, colours);
+            assertEquals(directions.size(), cosineWeighted.takeEvaluations());
+            mirroring.evaluate(incident, cosineWeighted, directions, positions, colours);
+            assertEquals(directions.getRings() * half, cosineWeighted.takeEvaluations());
+
+            // Fitted constant kernels evaluate nothing and are not mirrored, a whole band costs one call
+            BatchBRDF.setFitting(true);
+            TestBRDFs.CountingBRDF lambertian = new TestBRDFs.CountingBRDF(new TestBRDFs.LambertianBRDF(1));
+            warmUp(mirroring, lambertian);
+            float[] mirroredPositions = new float[positions.length];
+            float[] mirroredColours = new float[colours.length];
+            serial.evaluate(incident, lambertian, directions, positions, colours);
+            mirroring.evaluate(incident, lambertian, directions, mirroredPositions, mirroredColours);
+            assertEquals(0, lambertian.takeEvaluations());
+            assertArrayEquals(positions, mirroredPositions, 0);
+            assertArrayEquals(colours, mirroredColours, 0);
+        } finally {
+            BatchBRDF.setFitting(false);
+            mirroring.cleanup();
+        }
+    }
+
+    // Find the kernel and isotropy of a BRDF before its evaluations are counted
+    private static void warmUp(LobeEvaluator evaluator, TestBRDFs.CountingBRDF brdf) {
+        BatchBRDF.of(brdf);
+        evaluator.getIsotropy().isIsotropic(brdf);
+        brdf.takeEvaluations();
+    }
+
+    private void assertSameLobe(BRDF brdf, Vector3f incident) {
+        float[] serialPositions = new float[directions.size() * 3];
+        float[] serialColours = new float[directions.size() * 3];
+        LobeStatistics[] serialStatistics = statistics();
+        float[] parallelPositions = new float[directions.size() * 3];
+        float[] parallelColours = new float[directions.size() * 3];
+        LobeStatistics[] parallelStatistics = statistics();
+
+        serial.evaluate(incident, brdf, directions, serialPositions, serialColours, 0, directions.getRings(),
+                serialStatistics);
+        parallel.evaluate(incident, brdf, directions, parallelPositions, parallelColours, 0,
+                directions.getRings(), parallelStatistics);
+
+        assertArrayEquals(serialPositions, parallelPositions, 0);
+        assertArrayEquals(serialColours, parallelColours, 0);
+        for (int r = 0; r < serialStatistics.length; r++) {
+            assertEquals(serialStatistics[r].getPeak(), parallelStatistics[r].getPeak(), 0);
+            assertEquals(serialStatistics[r].getAlbedo(), parallelStatistics[r].getAlbedo(), 0);
+        }
+    }
+
+    private LobeStatistics[] statistics() {
+        LobeStatistics[] statistics = new LobeStatistics[directions.getRings()];
+        for (int r = 0; r < statistics.length; r++) {
+            statistics[r] = new LobeStatistics();
+        }
+        return statistics;
+    }
+}
@@ -0,0 +1,134 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import com.nicky.viewer.Items.Sphere;
+import org.joml.Vector3f;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class LobePrefetcherTest {
+
+    private static final int RESOLUTION = 16;
+    private static final int DEPTH = 3;
+    private static final float STEP = 0.05f;
+
+    @Test
+    public void heldKeySweepIsServedByPrefetchedLobes() throws InterruptedException {
+        // About 2.5ms per lobe, a step every 15ms leaves the prefetcher time for the predicted steps
+        BRDF brdf = new TestBRDFs.SlowBRDF(20_000);
+        LobeEvaluator evaluator = new LobeEvaluator(2);
+        LobeCache cache = new LobeCache(1 << 22, 0.01f);
+        LobeBuilder builder = new LobeBuilder(evaluator, sphere(evaluator), null, null, cache);
+        LobePrefetcher prefetcher = new LobePrefetcher(DEPTH, new LobeEvaluator(2, Thread.MIN_PRIORITY), null,
+                cache);
+        builder.setPrefetcher(prefetcher);
+
+        int steps = 20;
+        try {
+            Vector3f source = new Vector3f(-0.5f, 1, 0.3f);
+            for (int step = 0; step < steps; step++) {
+                source.normalize();
+                source.x += STEP;
+                builder.release(build(builder, brdf, new Vector3f(source).normalize()));
+
+                // Predicted as the viewer does, the next steps along the same axis
+                List<Vector3f> incidents = new ArrayList<>(DEPTH);
+                Vector3f next = new Vector3f(source);
+                for (int ahead = 0; ahead < DEPTH; ahead++) {
+                    next.normalize();
+                    next.x += STEP;
+                    incidents.add(new Vector3f(next).normalize());
+                }
+                prefetcher.prefetch("slow", brdf, incidents, RESOLUTION);
+                Thread.sleep(15);
+            }
+        } finally {
+            prefetcher.cleanup();
+            builder.cleanup();
+            evaluator.cleanup();
+        }
+
+        // Every step but the first was predicted, nearly all of them are served without evaluating the BRDF
+        assertTrue(prefetcher.getHits() + " hits in " + steps + " steps",
+                prefetcher.getHits() >= 3 * (steps - 1) / 4);
+        assertTrue(prefetcher.getPrefetched() >= prefetcher.getHits());
+    }
+
+    @Test
+    public void prefetchRunsAtLowPriority() throws InterruptedException {
+        PriorityBRDF brdf = new PriorityBRDF();
+        LobeEvaluator evaluator = new LobeEvaluator(2, Thread.MIN_PRIORITY);
+        assertEquals(2, evaluator.getWorkers());
+        LobeCache cache = new LobeCache(1 << 22, 0.01f);
+        LobePrefetcher prefetcher = new LobePrefetcher(DEPTH, evaluator, null, cache);
+        Vector3f incident = new Vector3f(0.3f, 0.8f, 0.2f).normalize();
+        Sphere target = new Sphere(0, 0, 0, RESOLUTION, RESOLUTION);
+        target.init();
+        LobeCache.Key key = cache.getKey("priority", brdf, incident, target);
+        try {
+            List<Vector3f> incidents = new ArrayList<>();
+            incidents.add(incident);
+            prefetcher.prefetch("priority", brdf, incidents, RESOLUTION);
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (prefetcher.getPrefetched() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertTrue(prefetcher.take(key, target));
+        } finally {
+            prefetcher.cleanup();
+        }
+
+        assertFalse(brdf.priorities.isEmpty());
+        for (int priority : brdf.priorities) {
+            assertEquals(Thread.MIN_PRIORITY, priority);
+        }
+    }
+
+    private static Sphere sphere(LobeEvaluator evaluator) {
+        Sphere sphere = new Sphere(0, 0, 0, RESOLUTION, RESOLUTION);
+        sphere.setLobeEvaluator(evaluator);
+        sphere.init();
+        return sphere;
+    }
+
+    private static LobeGeometry build(LobeBuilder builder, BRDF brdf, Vector3f incident)
+            throws InterruptedException {
+        builder.request("slow", brdf, incident, false);
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        LobeGeometry lobe = builder.poll();
+        while (lobe == null && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+            lobe = builder.poll();
+        }
+        assertNotNull(lobe);
+        return lobe;
+    }
+
+    /**
+     * Records the priorities of the threads evaluating it, declared thread-safe so it runs on the workers.
+     */
+    public static class PriorityBRDF extends TestBRDFs.AnisotropicBRDF {
+
+        private final Set<Integer> priorities = ConcurrentHashMap.newKeySet();
+
+        public boolean isThreadSafe() {
+            return true;
+        }
+
+        @Override
+        public Spectrum f(Vector3f incident, Vector3f exitant) {
+            priorities.add(Thread.currentThread().getPriority());
+            return super.f(incident, exitant);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PointCloudSamplerTest {
+
+    private static final int POINTS = 8192;
+
+    private LobeEvaluator evaluator;
+    private PointCloudSampler sampler;
+
+    @Before
+    public void setUp() {
+        evaluator = new LobeEvaluator(4);
+        sampler = new PointCloudSampler(POINTS, 4);
+    }
+
+    @After
+    public void tearDown() {
+        evaluator.cleanup();
+    }
+
+    @Test
+    public void everyPointLiesAtTheValueOfItsOwnDirection() {
+        BRDF brdf = new TestBRDFs.AnisotropicBRDF();
+        Vector3f incident = new Vector3f(0.4f, 0.8f, 0.2f).normalize();
+        assertTrue(sampler.sample(incident, brdf, null, evaluator));
+
+        float[] positions = sampler.getPositions();
+        Vector3f out = new Vector3f();
+        for (int p = 0; p < POINTS; p++) {
+            out.set(positions[p * 3], positions[p * 3 + 1], positions[p * 3 + 2]);
+            float radius = out.length();
+            float value = brdf.f(new Vector3f(incident), out.normalize()).toScalar();
+            assertEquals(value, radius, 1e-5f * Math.max(1, value));
+        }
+    }
+
+    @Test
+    public void pointsOfLambertianFollowTheCosine() {
+        assertTrue(sampler.sample(new Vector3f(0, 1, 0), new TestBRDFs.LambertianBRDF(0.8f), null, evaluator));
+
+        // The mean cosine of cosine-weighted directions is 2/3
+        float[] positions = sampler.getPositions();
+        double cosines = 0;
+        for (int p = 0; p < POINTS; p++) {
+            float length = new Vector3f(positions[p * 3], positions[p * 3 + 1], positions[p * 3 + 2]).length();
+            cosines += positions[p * 3 + 1] / length;
+        }
+        assertEquals(2.0 / 3, cosines / POINTS, 0.01);
+    }
+
+    @Test
+    public void narrowHighlightIsReached() {
+        // A cell of a 128 x 256 grid is wider than this highlight
+        BRDF brdf = new TestBRDFs.PhongBRDF(20000);
+        Vector3f incident = new Vector3f(0.5f, 0.7f, -0.3f).normalize();
+        assertTrue(sampler.sample(incident, brdf, null, evaluator));
+
+        float peak = brdf.f(new Vector3f(incident), new Vector3f(-incident.x, incident.y, -incident.z))
+                .toScalar();
+        float[] positions = sampler.getPositions();
+        float highest = 0;
+        int inHighlight = 0;
+        for (int p = 0; p < POINTS; p++) {
+            float radius = new Vector3f(positions[p * 3], positions[p * 3 + 1], positions[p * 3 + 2]).length();
+            highest = Math.max(highest, radius);
+            if (radius > 0.5f * peak) {
+                inHighlight++;
+            }
+        }
+        assertTrue("Highest point " + highest + " of " + peak, highest > 0.95f * peak);
+        assertTrue("Points in highlight " + inHighlight, inHighlight > 0);
+    }
+
+    @Test
+    public void sameLobeGivesSameCloud() {
+        BRDF brdf = new TestBRDFs.PhongBRDF(50);
+        Vector3f incident = new Vector3f(0.3f, 0.9f, 0.1f).normalize();
+        sampler.sample(incident, brdf, null, evaluator);
+        float[] first = sampler.getPositions().clone();
+        sampler.sample(incident, brdf, null, evaluator);
+        assertArrayEquals(first, sampler.getPositions(), 0);
+    }
+}
@@ -0,0 +1,76 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import com.nicky.viewer.Items.Sphere;
+import org.joml.Vector3f;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QualityGovernorTest {
+
+    private static final long BUDGET = 8_000_000L;
+    private static final long FRAME = 16_000_000L;
+
+    @Test
+    public void slowBuildWhileInteractingLowersResolutionBySquareRootOfOverrun() {
+        QualityGovernor governor = new QualityGovernor(16, 64, 8, BUDGET, 5, 2);
+        // Four times over budget, half the resolution
+        assertTrue(governor.update(BUDGET, 4 * BUDGET, 64, 1, true, 1));
+        assertEquals(32, governor.getResolution());
+
+        // The same build is only considered once
+        assertFalse(governor.update(BUDGET, 4 * BUDGET, 32, 1, true, 1));
+        assertEquals(32, governor.getResolution());
+    }
+
+    @Test
+    public void idleViewRestoresResolution() {
+        QualityGovernor governor = new QualityGovernor(16, 64, 8, BUDGET, 5, 2);
+        governor.update(BUDGET, 4 * BUDGET, 64, 1, true, 1);
+        for (int frame = 0; frame < 4; frame++) {
+            assertFalse(governor.update(BUDGET, 0, 32, 1, false, 1));
+        }
+        assertTrue(governor.update(BUDGET, 0, 32, 1, false, 1));
+        assertEquals(64, governor.getResolution());
+    }
+
+    @Test
+    public void resolutionDropsWhileDraggingExpensiveBRDF() throws InterruptedException {
+        LobeEvaluator evaluator = new LobeEvaluator(2);
+        Sphere sphere = new Sphere(0, 0, 0, 64, 64);
+        sphere.setLobeEvaluator(evaluator);
+        sphere.init();
+        Sphere coarse = new Sphere(0, 0, 0, 8, 8);
+        coarse.setLobeEvaluator(evaluator);
+        coarse.init();
+        LobeBuilder builder = new LobeBuilder(evaluator, sphere, new ProgressiveLobe(coarse, sphere), null,
+                new LobeCache(1 << 20, 0.01f));
+        QualityGovernor governor = new QualityGovernor(16, 64, 8, BUDGET, 30, 2);
+        builder.setResolution(governor.getResolution());
+
+        // About 40 microseconds per evaluation, a full lobe takes several frames, so refinements are superseded
+        // by the next step of the drag before they complete
+        BRDF brdf = new TestBRDFs.SlowBRDF(40_000);
+        Vector3f incident = new Vector3f();
+        try {
+            for (int frame = 0; frame < 40; frame++) {
+                float angle = 0.02f * frame;
+                builder.request("slow", brdf, incident.set((float) Math.sin(angle), (float) Math.cos(angle), 0),
+                        true);
+                Thread.sleep(FRAME / 1_000_000L);
+                if (governor.update(FRAME, builder.getLastBuildNanos(), builder.getLastBuildResolution(),
+                        builder.getBuilds(), true, 1)) {
+                    builder.setResolution(governor.getResolution());
+                }
+            }
+        } finally {
+            builder.cleanup();
+            evaluator.cleanup();
+        }
+        assertTrue("Resolution " + governor.getResolution(), governor.getResolution() < 64);
+        assertTrue(builder.getBuilds() > 0);
+    }
+}
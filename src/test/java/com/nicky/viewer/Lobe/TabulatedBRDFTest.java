@@ -0,0 +1,87 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TabulatedBRDFTest {
+
+    private LobeEvaluator evaluator;
+    private TabulatedBRDF table;
+
+    @Before
+    public void setUp() {
+        evaluator = new LobeEvaluator(4);
+        table = new TabulatedBRDF(32, 32, 64);
+    }
+
+    @After
+    public void tearDown() {
+        table.cleanup();
+        evaluator.cleanup();
+    }
+
+    @Test
+    public void smoothIsotropicBRDFIsWithinErrorBound() {
+        table.build(new TestBRDFs.PhongBRDF(10), evaluator);
+        TabulatedBRDF.ErrorReport report = table.compare(4096, 0.01f);
+        assertFalse(report.toString(), report.isVisible());
+        assertTrue(report.getMaxError() <= 0.01f * report.getPeak());
+        assertTrue(report.getRmsError() <= report.getMaxError());
+    }
+
+    @Test
+    public void anisotropicBRDFIsReportedVisible() {
+        table.build(new TestBRDFs.AnisotropicBRDF(), evaluator);
+        assertTrue(table.compare(4096, 0.01f).isVisible());
+    }
+
+    @Test
+    public void reproducesTheBRDFAtTableNodes() {
+        BRDF brdf = new TestBRDFs.PhongBRDF(10);
+        table.build(brdf, evaluator);
+        float[] sample = new float[TabulatedBRDF.CHANNELS];
+        // Nodes on both elevation axes and the azimuth axis: theta = 0 and pi/2 * 31/31, phi = 0 and pi
+        Vector3f in = new Vector3f(0, 1, 0);
+        Vector3f out = new Vector3f(1, 0, 0);
+        table.evaluate(in, out, sample);
+        assertEquals(brdf.f(in, out).toScalar(), sample[TabulatedBRDF.SCALAR], 1e-5f);
+        assertEquals(brdf.f(in, out).getR(), sample[0], 1e-5f);
+    }
+
+    @Test
+    public void batchMatchesSingleLookups() {
+        table.build(new TestBRDFs.PhongBRDF(10), evaluator);
+        HemisphereTable directions = HemisphereTable.get(32, 32);
+        int size = directions.size();
+        float[] red = new float[size];
+        float[] green = new float[size];
+        float[] blue = new float[size];
+        float[] scalar = new float[size];
+        Vector3f in = new Vector3f(0.4f, 0.7f, 0.3f).normalize();
+        table.evaluate(in, directions.x, directions.y, directions.z, 0, size, red, green, blue, scalar);
+
+        float[] sample = new float[TabulatedBRDF.CHANNELS];
+        Vector3f out = new Vector3f();
+        for (int i = 0; i < size; i++) {
+            table.evaluate(in, out.set(directions.x[i], directions.y[i], directions.z[i]).normalize(), sample);
+            assertEquals(sample[0], red[i], 1e-5f);
+            assertEquals(sample[TabulatedBRDF.SCALAR], scalar[i], 1e-5f);
+        }
+    }
+
+    @Test
+    public void isOnlyForTheTabulatedBRDF() {
+        BRDF brdf = new TestBRDFs.PhongBRDF(10);
+        table.build(brdf, evaluator);
+        assertTrue(table.isFor(brdf));
+        assertFalse(table.isFor(new TestBRDFs.PhongBRDF(10)));
+        assertFalse(table.isFor(null));
+    }
+}
@@ -0,0 +1,197 @@
+package com.nicky.viewer.Lobe;
+
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import javafx.util.Pair;
+import org.joml.Vector3f;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>Test BRDFs</h1>
+ * Analytic BRDFs the lobe tests evaluate, with no parameters exposed to the interface.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+final class TestBRDFs {
+
+    private TestBRDFs() {
+    }
+
+    /**
+     * Base of the test BRDFs, named after their class.
+     */
+    abstract static class TestBRDF extends BRDF {
+
+        // Returned as is, so asking for the parameters does not allocate
+        private final LinkedHashMap<String, Pair<String, String>> parameters = new LinkedHashMap<>();
+
+        public LinkedHashMap<String, Pair<String, String>> getParameters() {
+            return parameters;
+        }
+
+        public String getName() {
+            return getClass().getSimpleName();
+        }
+
+        public String serialise() {
+            return "{}";
+        }
+    }
+
+    /**
+     * Diffuse term plus a Phong highlight around the mirror direction, isotropic.
+     */
+    static class PhongBRDF extends TestBRDF {
+
+        private final float exponent;
+
+        PhongBRDF(float exponent) {
+            this.exponent = exponent;
+        }
+
+        @Override
+        public Spectrum f(Vector3f incident, Vector3f exitant) {
+            float cos = Math.max(0, -incident.x * exitant.x + incident.y * exitant.y - incident.z * exitant.z);
+            float specular = (float) Math.pow(cos, exponent);
+            return new Spectrum(0.2f + specular, 0.3f + 0.5f * specular, 0.1f + specular);
+        }
+    }
+
+    /**
+     * Constant BRDF, named like the framework's Lambertian model.
+     */
+    static class LambertianBRDF extends TestBRDF {
+
+        private final float albedo;
+
+        LambertianBRDF(float albedo) {
+            this.albedo = albedo;
+        }
+
+        @Override
+        public Spectrum f(Vector3f incident, Vector3f exitant) {
+            float value = albedo / (float) Math.PI;
+            return new Spectrum(value, value, value);
+        }
+    }
+
+    /**
+     * Highlight stretched along the x axis, anisotropic.
+     */
+    static class AnisotropicBRDF extends TestBRDF {
+
+        @Override
+        public Spectrum f(Vector3f incident, Vector3f exitant) {
+            float hx = exitant.x + incident.x;
+            float hy = exitant.y + incident.y;
+            float hz = exitant.z + incident.z;
+            float length = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+            if (length == 0) {
+                return new Spectrum(0, 0, 0);
+            }
+            float tx = hx / length / 0.5f;
+            float tz = hz / length / 0.1f;
+            float value = 0.1f + (float) Math.exp(-(tx * tx + tz * tz));
+            return new Spectrum(value, value, value);
+        }
+    }
+
+    /**
+     * Diffuse term plus a Blinn-Phong highlight, isotropic.
+     */
+    static class BlinnPhongBRDF extends TestBRDF {
+
+        private final float exponent;
+
+        BlinnPhongBRDF(float exponent) {
+            this.exponent = exponent;
+        }
+
+        @Override
+        public Spectrum f(Vector3f incident, Vector3f exitant) {
+            Vector3f half = new Vector3f(incident).add(exitant).normalize();
+            float specular = (float) Math.pow(Math.max(0, half.y), exponent);
+            return new Spectrum(0.5f + 0.2f * specular, 0.4f + 0.4f * specular, 0.3f + specular);
+        }
+    }
+
+    /**
+     * Phong lobe plus a narrow retro-reflection back towards the light, which samples spread over the hemisphere
+     * miss.
+     */
+    static class RetroReflectivePhongBRDF extends PhongBRDF {
+
+        RetroReflectivePhongBRDF() {
+            super(40);
+        }
+
+        @Override
+        public Spectrum f(Vector3f incident, Vector3f exitant) {
+            Spectrum phong = super.f(incident, exitant);
+            float cos = Math.max(0, incident.dot(exitant));
+            float retro = 2 * (float) Math.pow(cos, 3000);
+            return new Spectrum(phong.getR() + retro, phong.getG() + retro, phong.getB() + retro);
+        }
+    }
+
+    /**
+     * Phong highlight weighted by the exitant cosine, isotropic but not a shiny/diffuse model.
+     */
+    static class CosineWeightedBRDF extends TestBRDF {
+
+        @Override
+        public Spectrum f(Vector3f incident, Vector3f exitant) {
+            float cos = Math.max(0, -incident.x * exitant.x + incident.y * exitant.y - incident.z * exitant.z);
+            float value = 0.1f + (float) Math.pow(cos, 30) * exitant.y;
+            return new Spectrum(value, value, value);
+        }
+    }
+
+    /**
+     * Anisotropic BRDF taking a fixed time per evaluation, stands for an expensive measured or layered model.
+     */
+    static class SlowBRDF extends AnisotropicBRDF {
+
+        private final long nanos;
+
+        SlowBRDF(long nanos) {
+            this.nanos = nanos;
+        }
+
+        @Override
+        public Spectrum f(Vector3f incident, Vector3f exitant) {
+            long end = System.nanoTime() + nanos;
+            while (System.nanoTime() < end) {
+                // Busy, like a model doing real work
+            }
+            return super.f(incident, exitant);
+        }
+    }
+
+    /**
+     * Counts the evaluations of another BRDF.
+     */
+    static class CountingBRDF extends TestBRDF {
+
+        private final BRDF brdf;
+        private final AtomicLong evaluations = new AtomicLong();
+
+        CountingBRDF(BRDF brdf) {
+            this.brdf = brdf;
+        }
+
+        @Override
+        public Spectrum f(Vector3f incident, Vector3f exitant) {
+            evaluations.incrementAndGet();
+            return brdf.f(incident, exitant);
+        }
+
+        long takeEvaluations() {
+            return evaluations.getAndSet(0);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.nicky.viewer.Lobe;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UpdateSchedulerTest {
+
+    private static final long INTERVAL = 16_000_000L;
+
+    @Test
+    public void burstOfEventsCostsOneRebuild() {
+        UpdateScheduler scheduler = new UpdateScheduler(INTERVAL);
+        for (int i = 0; i < 30; i++) {
+            scheduler.incidentRayChanged();
+        }
+        assertEquals(30, scheduler.getEvents());
+        assertEquals(29, scheduler.getCoalesced());
+
+        assertTrue(scheduler.poll(0));
+        assertFalse(scheduler.poll(1));
+        assertEquals(1, scheduler.getRebuilds());
+        assertEquals(29, scheduler.getCoalesced());
+    }
+
+    @Test
+    public void rebuildsAreAtLeastAnIntervalApart() {
+        UpdateScheduler scheduler = new UpdateScheduler(INTERVAL);
+        long now = 0;
+        int released = 0;
+        // A held key, one event every millisecond for 100 milliseconds, polled every millisecond
+        for (int i = 0; i < 100; i++) {
+            scheduler.incidentRayChanged();
+            if (scheduler.poll(now)) {
+                released++;
+            }
+            now += 1_000_000L;
+        }
+        // Released at 0, 16, 32, 48, 64, 80 and 96 ms
+        assertEquals(7, released);
+        assertEquals(100, scheduler.getEvents());
+        assertEquals(7, scheduler.getRebuilds());
+        assertEquals(100 - 7 - 1, scheduler.getCoalesced());
+
+        // The last event is still pending, it is released once the interval has passed
+        assertFalse(scheduler.poll(now));
+        assertTrue(scheduler.poll(96_000_000L + INTERVAL));
+        assertEquals(100 - 8, scheduler.getCoalesced());
+    }
+
+    @Test
+    public void parameterChangeMakesTheRebuildFullAndKeepsNewestBrdf() {
+        UpdateScheduler scheduler = new UpdateScheduler(0);
+        scheduler.incidentRayChanged();
+        assertTrue(scheduler.poll(0));
+        assertTrue(scheduler.isPreview());
+        assertNull(scheduler.getBrdfAlias());
+
+        scheduler.brdfSelected("phong");
+        scheduler.incidentRayChanged();
+        scheduler.brdfSelected("ggx");
+        scheduler.parametersChanged();
+        assertTrue(scheduler.poll(1));
+        assertFalse(scheduler.isPreview());
+        assertEquals("ggx", scheduler.getBrdfAlias());
+        assertEquals(5, scheduler.getEvents());
+        assertEquals(2, scheduler.getRebuilds());
+        assertEquals(3, scheduler.getCoalesced());
+    }
+
+    @Test
+    public void rebuildIsColourOnlyWhileEveryEventOnlyChangedColours() {
+        UpdateScheduler scheduler = new UpdateScheduler(0);
+        scheduler.coloursChanged();
+        scheduler.coloursChanged();
+        assertTrue(scheduler.poll(0));
+        assertTrue(scheduler.isColoursOnly());
+        assertFalse(scheduler.isPreview());
+
+        // A moved incident ray moves the lobe's positions too
+        scheduler.coloursChanged();
+        scheduler.incidentRayChanged();
+        assertTrue(scheduler.poll(1));
+        assertFalse(scheduler.isColoursOnly());
+
+        scheduler.parametersChanged();
+        scheduler.coloursChanged();
+        assertTrue(scheduler.poll(2));
+        assertFalse(scheduler.isColoursOnly());
+
+        scheduler.incidentRayChanged();
+        assertTrue(scheduler.poll(3));
+        assertFalse(scheduler.isColoursOnly());
+    }
+
+    @Test
+    public void nothingIsReleasedWithoutEvents() {
+        UpdateScheduler scheduler = new UpdateScheduler(0);
+        assertFalse(scheduler.poll(0));
+        assertEquals(0, scheduler.getRebuilds());
+        assertEquals(0, scheduler.getCoalesced());
+    }
+}